@@ -0,0 +1,92 @@
+package ru.practicum.stats.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.server.stats.config.QueryDatabase;
+import ru.practicum.server.stats.model.AlignedRange;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.UriFilter;
+import ru.practicum.server.stats.repository.StatsQueryRepository;
+import ru.practicum.stats.dto.ViewStatsDto;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Запросы статистики за неделю с неровными границами: по почасовому агрегату с сырыми краями
+ * и целиком по сырым строкам — для оценки выигрыша от агрегата на данном объёме.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AggregationBenchmark {
+
+    private static final UriFilter ALL_URIS = UriFilter.of(null, null);
+
+    @Param({"100000", "1000000"})
+    private int hits;
+
+    @Param({"1000"})
+    private int uriCount;
+
+    private QueryDatabase queryDatabase;
+    private StatsQueryRepository statsQueryRepository;
+    private LocalDateTime start;
+    private LocalDateTime end;
+
+    @Setup
+    public void setUp() {
+        JdbcDataSource dataSource = BenchmarkDatabase.create(hits, uriCount, uriCount * 10);
+        // Пул запросов открывает ту же базу по URL: DB_CLOSE_DELAY=-1 держит её в памяти между соединениями
+        queryDatabase = new QueryDatabase(new SimpleMeterRegistry(), dataSource.getURL(), dataSource.getUser(), "",
+                1, Duration.ofSeconds(2), Duration.ofMinutes(1), "", "", "", Duration.ZERO, "");
+        statsQueryRepository = new StatsQueryRepository(queryDatabase, 1000);
+        start = SyntheticHits.START.plusDays(10).plusMinutes(17);
+        end = start.plusDays(7).plusMinutes(29);
+    }
+
+    @TearDown
+    public void tearDown() {
+        queryDatabase.close();
+    }
+
+    @Benchmark
+    public List<ViewStatsDto> statsFromRollup() {
+        return statsQueryRepository.getStats(AlignedRange.of(start, end, ChronoUnit.HOURS), ALL_URIS, null);
+    }
+
+    @Benchmark
+    public List<ViewStatsDto> statsFromRawHits() {
+        return statsQueryRepository.getStats(AlignedRange.raw(start, end), ALL_URIS, null);
+    }
+
+    @Benchmark
+    public List<ViewStatsDto> topTenFromRollup() {
+        return statsQueryRepository.getStats(AlignedRange.of(start, end, ChronoUnit.HOURS), ALL_URIS, 10);
+    }
+
+    @Benchmark
+    public Map<StatsKey, Long> countBuckets() {
+        AlignedRange range = AlignedRange.of(start, end, ChronoUnit.HOURS);
+        return statsQueryRepository.countBuckets(range.alignedStart(), range.alignedEnd(), ALL_URIS);
+    }
+}
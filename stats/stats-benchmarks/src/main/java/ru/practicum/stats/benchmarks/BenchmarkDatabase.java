@@ -0,0 +1,121 @@
+package ru.practicum.stats.benchmarks;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.server.stats.repository.RollupRepository;
+import ru.practicum.stats.dto.EndpointHitDto;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Встроенная H2 в режиме PostgreSQL со схемой stats-server, заполненная синтетическими хитами
+ * и почасовым агрегатом по ним. Схема берётся из schema.sql сервера: из неё выбираются таблицы бенчмарков
+ * и их индексы, а конструкции PostgreSQL без аналога в H2 (секции, BRIN, правило сортировки) убираются.
+ */
+final class BenchmarkDatabase {
+
+    private static final int BATCH_SIZE = 10_000;
+    private static final String SERVER_SCHEMA = "schema.sql";
+    // Таблицы сервера, которые читают и пишут бенчмарки
+    private static final Set<String> TABLES = Set.of("apps", "uris", "ips", "endpoint_hits", "endpoint_hits_hourly");
+    private static final Pattern TABLE_NAME = Pattern.compile(
+            "^CREATE (?:TABLE IF NOT EXISTS|INDEX IF NOT EXISTS \\w+ ON) (\\w+)", Pattern.CASE_INSENSITIVE);
+
+    private BenchmarkDatabase() {
+    }
+
+    static JdbcDataSource create(int hits, int uriCount, int ipCount) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        // Отдельная база на каждый запуск: параметры бенчмарков не делят данные между собой
+        dataSource.setURL("jdbc:h2:mem:stats-" + UUID.randomUUID()
+                + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        schema().forEach(jdbcTemplate::execute);
+        load(jdbcTemplate, hits, uriCount, ipCount);
+        return dataSource;
+    }
+
+    /**
+     * Операторы schema.sql сервера для таблиц бенчмарков, приведённые к H2. Расхождение с сервером
+     * здесь невозможно: новая колонка или индекс этих таблиц сразу попадают в бенчмарки.
+     */
+    static List<String> schema() {
+        String script;
+        try {
+            script = new ClassPathResource(SERVER_SCHEMA).getContentAsString(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не найдена схема stats-server " + SERVER_SCHEMA, e);
+        }
+        String withoutComments = script.lines()
+                .filter(line -> !line.trim().startsWith("--"))
+                .collect(Collectors.joining("\n"));
+        List<String> statements = Arrays.stream(withoutComments.split(";"))
+                .map(String::trim)
+                .filter(statement -> isBenchmarkTable(statement) && !statement.contains("COLLATE"))
+                .map(statement -> statement
+                        .replaceAll("\\s*PARTITION BY RANGE \\(\\w+\\)", "")
+                        .replace(" USING BRIN", ""))
+                .toList();
+        if (statements.stream().filter(statement -> statement.startsWith("CREATE TABLE")).count() != TABLES.size()) {
+            throw new IllegalStateException("В " + SERVER_SCHEMA + " нет таблиц бенчмарков " + TABLES);
+        }
+        return statements;
+    }
+
+    private static boolean isBenchmarkTable(String statement) {
+        Matcher matcher = TABLE_NAME.matcher(statement);
+        return matcher.find() && TABLES.contains(matcher.group(1).toLowerCase());
+    }
+
+    private static void load(JdbcTemplate jdbcTemplate, int hits, int uriCount, int ipCount) {
+        jdbcTemplate.update("INSERT INTO apps (id, name) VALUES (1, ?)", SyntheticHits.APP);
+        jdbcTemplate.batchUpdate("INSERT INTO uris (id, uri) VALUES (?, ?)", range(uriCount), BATCH_SIZE,
+                (ps, i) -> {
+                    ps.setInt(1, i + 1);
+                    ps.setString(2, SyntheticHits.uri(i));
+                });
+        jdbcTemplate.batchUpdate("INSERT INTO ips (id, ip) VALUES (?, ?)", range(ipCount), BATCH_SIZE,
+                (ps, i) -> {
+                    ps.setInt(1, i + 1);
+                    ps.setString(2, SyntheticHits.ip(i));
+                });
+        Map<String, Integer> uriIds = ids(uriCount, SyntheticHits::uri);
+        Map<String, Integer> ipIds = ids(ipCount, SyntheticHits::ip);
+        List<EndpointHitDto> generated = SyntheticHits.generate(hits, uriCount, ipCount);
+        jdbcTemplate.batchUpdate("INSERT INTO endpoint_hits (timestamp, app_id, uri_id, ip_id) VALUES (?, 1, ?, ?)",
+                generated, BATCH_SIZE,
+                (ps, hit) -> {
+                    ps.setObject(1, hit.getTimestamp());
+                    ps.setInt(2, uriIds.get(hit.getUri()));
+                    ps.setInt(3, ipIds.get(hit.getIp()));
+                });
+        // Агрегат строится тем же запросом, что и при первом запуске сервера
+        new RollupRepository(jdbcTemplate).rebuildFromHits();
+    }
+
+    private static Map<String, Integer> ids(int size, IntFunction<String> value) {
+        Map<String, Integer> ids = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            ids.put(value.apply(i), i + 1);
+        }
+        return ids;
+    }
+
+    private static List<Integer> range(int size) {
+        return IntStream.range(0, size).boxed().toList();
+    }
+}
@@ -0,0 +1,63 @@
+package ru.practicum.stats.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.server.stats.repository.DictionaryRepository;
+import ru.practicum.server.stats.service.DictionaryCache;
+
+import javax.sql.DataSource;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разрешение имени приложения и URI в id на пути записи хита, в установившемся режиме — из кэша.
+ * Промах кэша здесь не измеряется: вставка использует INSERT ... RETURNING, которого нет в H2.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DictionaryBenchmark {
+
+    @Param({"1000", "100000"})
+    private int uriCount;
+
+    private DictionaryCache dictionaryCache;
+    private String[] uris;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        DataSource dataSource = BenchmarkDatabase.create(0, uriCount, 1);
+        dictionaryCache = new DictionaryCache(new DictionaryRepository(new JdbcTemplate(dataSource)),
+                new SimpleMeterRegistry(), uriCount);
+        dictionaryCache.warmUp();
+        uris = new String[uriCount];
+        for (int i = 0; i < uriCount; i++) {
+            uris[i] = SyntheticHits.uri(i);
+        }
+    }
+
+    @Benchmark
+    public long getAppId() {
+        return dictionaryCache.getAppId(SyntheticHits.APP);
+    }
+
+    @Benchmark
+    public long getUriId() {
+        next = next + 1 == uris.length ? 0 : next + 1;
+        return dictionaryCache.getUriId(uris[next]);
+    }
+}
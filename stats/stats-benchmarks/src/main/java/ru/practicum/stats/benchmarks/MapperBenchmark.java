@@ -0,0 +1,46 @@
+package ru.practicum.stats.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.server.stats.mapper.StatsMapper;
+import ru.practicum.server.stats.model.HitRow;
+import ru.practicum.stats.dto.EndpointHitDto;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Преобразования хита на пути записи: DTO -> строка таблицы и DTO с присвоенным id.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+    private EndpointHitDto hit;
+
+    @Setup
+    public void setUp() {
+        hit = SyntheticHits.generate(1, 1, 1).getFirst();
+    }
+
+    @Benchmark
+    public HitRow toRow() {
+        return StatsMapper.toRow(hit, 1, 2, 3);
+    }
+
+    @Benchmark
+    public EndpointHitDto toDto() {
+        return StatsMapper.toDto(hit, 42);
+    }
+}
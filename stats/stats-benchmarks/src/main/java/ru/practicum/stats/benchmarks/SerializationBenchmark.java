@@ -0,0 +1,75 @@
+package ru.practicum.stats.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.stats.dto.EndpointHitDto;
+import ru.practicum.stats.dto.StatsWireFormat;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * (Де)сериализация пачки хитов, как в /hit/batch: JSON с настройками Spring Boot и Smile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"1", "100"})
+    private int batchSize;
+
+    private ObjectMapper json;
+    private ObjectMapper smile;
+    private List<EndpointHitDto> hits;
+    private byte[] jsonBytes;
+    private byte[] smileBytes;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        json = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        smile = StatsWireFormat.smileMapper();
+        hits = SyntheticHits.generate(batchSize, 50, 1000);
+        jsonBytes = json.writeValueAsBytes(hits);
+        smileBytes = smile.writeValueAsBytes(hits);
+    }
+
+    @Benchmark
+    public byte[] writeJson() throws JsonProcessingException {
+        return json.writeValueAsBytes(hits);
+    }
+
+    @Benchmark
+    public EndpointHitDto[] readJson() throws IOException {
+        return json.readValue(jsonBytes, EndpointHitDto[].class);
+    }
+
+    @Benchmark
+    public byte[] writeSmile() throws JsonProcessingException {
+        return smile.writeValueAsBytes(hits);
+    }
+
+    @Benchmark
+    public EndpointHitDto[] readSmile() throws IOException {
+        return smile.readValue(smileBytes, EndpointHitDto[].class);
+    }
+}
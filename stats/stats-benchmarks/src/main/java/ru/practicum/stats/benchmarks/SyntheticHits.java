@@ -0,0 +1,54 @@
+package ru.practicum.stats.benchmarks;
+
+import ru.practicum.stats.dto.EndpointHitDto;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Воспроизводимый набор хитов: фиксированное зерно, популярность URI убывает по степенному закону,
+ * время равномерно распределено по периоду {@link #DAYS} дней начиная с {@link #START}.
+ */
+final class SyntheticHits {
+
+    static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+    static final int DAYS = 30;
+    static final String APP = "ewm-main-service";
+
+    private static final long SEED = 42;
+
+    private SyntheticHits() {
+    }
+
+    static List<EndpointHitDto> generate(int count, int uriCount, int ipCount) {
+        Random random = new Random(SEED);
+        long periodSeconds = DAYS * 24L * 60 * 60;
+        List<EndpointHitDto> hits = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            hits.add(EndpointHitDto.builder()
+                    .app(APP)
+                    .uri(uri(skewed(random, uriCount)))
+                    .ip(ip(random.nextInt(ipCount)))
+                    .timestamp(START.plusSeconds((long) (random.nextDouble() * periodSeconds)))
+                    .build());
+        }
+        return hits;
+    }
+
+    static String uri(int index) {
+        return "/events/" + (index + 1);
+    }
+
+    static String ip(int index) {
+        return "10." + (index >> 16 & 0xFF) + "." + (index >> 8 & 0xFF) + "." + (index & 0xFF);
+    }
+
+    /**
+     * Индекс в [0, size): малые индексы выпадают заметно чаще, как популярные события.
+     */
+    private static int skewed(Random random, int size) {
+        return (int) (Math.pow(random.nextDouble(), 3) * size);
+    }
+}
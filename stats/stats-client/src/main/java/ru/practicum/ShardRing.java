@@ -0,0 +1,142 @@
+package ru.practicum;
+
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Консистентное хеширование URI по шардам сервера статистики. Шард экземпляра задаётся
+ * метаданными "shard" в реестре; экземпляры одного шарда работают с одной БД и взаимозаменяемы.
+ * Каждый шард занимает на кольце {@value #VIRTUAL_NODES} точек, поэтому при добавлении шарда
+ * к нему переходит примерно 1/N URI, а остальные URI остаются на прежних шардах.
+ * История перешедших URI остаётся на прежних владельцах, поэтому после изменения набора шардов
+ * экземплярам задаются метаданные "ring-since" — момент изменения в формате ISO (2024-05-01T00:00:00).
+ * Запросы по конкретным URI с началом не раньше этого момента идут только на шарды-владельцы.
+ */
+final class ShardRing {
+
+    static final String SHARD_METADATA = "shard";
+    // Экземпляры без метаданных считаются одним шардом, как при работе с единственной БД
+    static final String DEFAULT_SHARD = "main";
+    static final String RING_SINCE_METADATA = "ring-since";
+    private static final int VIRTUAL_NODES = 128;
+
+    private final Set<String> instanceKeys;
+    private final Map<String, List<ServiceInstance>> instancesByShard;
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+    // Самый поздний ring-since среди экземпляров; null — набор шардов не менялся
+    private final LocalDateTime ringSince;
+
+    private ShardRing(List<ServiceInstance> instances) {
+        this.instanceKeys = keys(instances);
+        this.instancesByShard = instances.stream()
+                .sorted(Comparator.comparing(ShardRing::key))
+                .collect(Collectors.groupingBy(ShardRing::shardNameOf, TreeMap::new, Collectors.toList()));
+        for (String shard : instancesByShard.keySet()) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(shard + "#" + i), shard);
+            }
+        }
+        this.ringSince = instances.stream()
+                .map(instance -> instance.getMetadata() == null ? null
+                        : instance.getMetadata().get(RING_SINCE_METADATA))
+                .filter(value -> value != null && !value.isBlank())
+                .map(LocalDateTime::parse)
+                .max(Comparator.naturalOrder())
+                .orElse(null);
+    }
+
+    static ShardRing of(List<ServiceInstance> instances) {
+        return new ShardRing(instances);
+    }
+
+    /**
+     * Кольцо построено по тем же экземплярам, и его можно не перестраивать.
+     */
+    boolean isBuiltFrom(List<ServiceInstance> instances) {
+        return instanceKeys.equals(keys(instances));
+    }
+
+    Set<String> shards() {
+        return instancesByShard.keySet();
+    }
+
+    /**
+     * Шарды, которые могут хранить хиты uris начиная с from. Шаблон с "*" может совпасть с URI любого шарда,
+     * а до ring-since история URI могла остаться у прежнего владельца, поэтому тогда это все шарды.
+     */
+    Set<String> shardsFor(List<String> uris, LocalDateTime from) {
+        if (uris == null || uris.isEmpty() || uris.stream().anyMatch(uri -> uri.endsWith("*"))
+                || ringSince != null && from.isBefore(ringSince)) {
+            return shards();
+        }
+        return uris.stream().map(this::shardOf).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    String shardOf(String uri) {
+        Map.Entry<Long, String> owner = ring.ceilingEntry(hash(uri));
+        return (owner != null ? owner : ring.firstEntry()).getValue();
+    }
+
+    /**
+     * Экземпляр, принимающий хиты URI. Выбор внутри шарда тоже зависит только от URI,
+     * чтобы повтор хита попал на тот же экземпляр и был распознан как дубликат.
+     */
+    ServiceInstance instanceFor(String uri) {
+        List<ServiceInstance> instances = instancesByShard.get(shardOf(uri));
+        return instances.get(Math.floorMod(hash(uri), instances.size()));
+    }
+
+    /**
+     * Любой экземпляр шарда для чтения.
+     */
+    ServiceInstance anyInstance(String shard) {
+        List<ServiceInstance> instances = instancesByShard.get(shard);
+        if (instances == null) {
+            throw new IllegalStateException("Шард сервера статистики " + shard + " не найден в реестре");
+        }
+        return instances.get(ThreadLocalRandom.current().nextInt(instances.size()));
+    }
+
+    private static String shardNameOf(ServiceInstance instance) {
+        Map<String, String> metadata = instance.getMetadata();
+        String shard = metadata == null ? null : metadata.get(SHARD_METADATA);
+        return shard == null || shard.isBlank() ? DEFAULT_SHARD : shard;
+    }
+
+    private static String key(ServiceInstance instance) {
+        return shardNameOf(instance) + "@" + instance.getUri();
+    }
+
+    private static Set<String> keys(List<ServiceInstance> instances) {
+        return instances.stream().map(ShardRing::key).collect(Collectors.toSet());
+    }
+
+    /**
+     * FNV-1a с финальным перемешиванием: хеш не зависит от JVM, а близкие строки
+     * вроде "/events/1" и "/events/2" попадают в далёкие точки кольца.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -1,10 +1,15 @@
 package ru.practicum;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import org.springframework.lang.Nullable;
 import org.springframework.retry.RetryCallback;
 import org.springframework.retry.support.RetryTemplate;
@@ -12,17 +17,81 @@ import org.springframework.web.client.RestClient;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.util.UriComponentsBuilder;
 import ru.practicum.stats.dto.EndpointHitDto;
+import ru.practicum.stats.dto.StatsWireFormat;
+import ru.practicum.stats.dto.ViewPointDto;
+import ru.practicum.stats.dto.ViewSeriesDto;
 import ru.practicum.stats.dto.ViewStatsDto;
+import ru.practicum.stats.dto.ViewersDto;
 
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
-public class StatsClient {
+/**
+ * Клиент кластера серверов статистики. Хит уходит на шард, которому URI принадлежит по консистентному
+ * хешированию, поэтому запись масштабируется числом шардов. Запрос по конкретным URI уходит только
+ * на их шарды-владельцы, если набор шардов не менялся с начала диапазона (см. {@link ShardRing}); иначе
+ * запрос выполняется на всех шардах параллельно, так как история URI остаётся на прежних владельцах.
+ * Частичные результаты складываются по (app, uri); уникальные просмотры URI, найденного на нескольких
+ * шардах, в том числе приближённые, пересчитываются точно по объединению множеств IP, которые эти шарды
+ * отдают через /stats/viewers.
+ */
+public class StatsClient implements AutoCloseable {
     private final DiscoveryClient discoveryClient;
     private final RetryTemplate retryTemplate;
     private final String statServiceId;
+    // Запросы к шардам блокируются на вводе-выводе, поэтому каждый выполняется в своём виртуальном потоке
+    private final ExecutorService shardExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    // Кольцо перестраивается, только когда меняется набор экземпляров в реестре
+    private volatile ShardRing ring;
+    // Экземпляр без поддержки Smile отвечает 406 или 415: до указанного момента с ним говорим в JSON,
+    // затем снова пробуем Smile, чтобы обновлённый экземпляр не остался на JSON навсегда
+    private final Map<String, Instant> jsonUntil = new ConcurrentHashMap<>();
 
     private static final String HIT_ENDPOINT = "/hit";
+    private static final String HIT_BATCH_ENDPOINT = "/hit/batch";
     private static final String STATS_ENDPOINT = "/stats";
+    private static final String TIMESERIES_ENDPOINT = "/stats/timeseries";
+    private static final String VIEWERS_ENDPOINT = "/stats/viewers";
+    private static final Duration SMILE_RETRY_PERIOD = Duration.ofMinutes(10);
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final ObjectReader VIEW_STATS_READER = new ObjectMapper().readerFor(ViewStatsDto.class);
+    private static final ParameterizedTypeReference<List<ViewStatsDto>> VIEW_STATS_LIST =
+            new ParameterizedTypeReference<>() {};
+    private static final ParameterizedTypeReference<List<ViewSeriesDto>> VIEW_SERIES_LIST =
+            new ParameterizedTypeReference<>() {};
+    private static final ParameterizedTypeReference<List<ViewersDto>> VIEWERS_LIST =
+            new ParameterizedTypeReference<>() {};
+    private static final Comparator<ViewStatsDto> BY_HITS_DESC =
+            Comparator.comparing(ViewStatsDto::getHits).reversed();
+    private static final MediaType SMILE = MediaType.parseMediaType(StatsWireFormat.SMILE);
+    private static final MappingJackson2SmileHttpMessageConverter SMILE_CONVERTER =
+            new MappingJackson2SmileHttpMessageConverter(StatsWireFormat.smileMapper());
 
     public StatsClient(DiscoveryClient discoveryClient,
                       RetryTemplate retryTemplate,
@@ -33,7 +102,9 @@ public class StatsClient {
     }
 
     public void saveStatEvent(EndpointHitDto endpointHitDto) {
-        executeWithDiscovery(client ->
+        // id назначается до первой попытки, чтобы повторы после таймаута сервер распознал как дубликаты
+        assignRequestId(endpointHitDto);
+        executeOn(current -> current.instanceFor(endpointHitDto.getUri()), client ->
                 client.post()
                         .uri(HIT_ENDPOINT)
                         .body(endpointHitDto)
@@ -42,36 +113,350 @@ public class StatsClient {
         );
     }
 
+    public void saveStatEvents(List<EndpointHitDto> endpointHitDtos) {
+        if (endpointHitDtos.isEmpty()) {
+            return;
+        }
+        endpointHitDtos.forEach(StatsClient::assignRequestId);
+        // Пачка делится по шардам-владельцам URI. Если часть шардов не ответила, повтор всей пачки
+        // безопасен: уже принятые хиты сервер отбросит по requestId
+        ShardRing owners = availableRing();
+        Collection<List<EndpointHitDto>> byShard = endpointHitDtos.stream()
+                .collect(Collectors.groupingBy(hit -> owners.shardOf(hit.getUri())))
+                .values();
+        inParallel(byShard.stream()
+                .<Supplier<Object>>map(hits -> () -> executeOn(
+                        current -> current.instanceFor(hits.getFirst().getUri()), client ->
+                                client.post()
+                                        .uri(HIT_BATCH_ENDPOINT)
+                                                        .body(hits)
+                                        .retrieve()
+                                        .toBodilessEntity()))
+                .toList());
+    }
+
+    private static void assignRequestId(EndpointHitDto endpointHitDto) {
+        if (endpointHitDto.getRequestId() == null) {
+            endpointHitDto.setRequestId(UUID.randomUUID().toString());
+        }
+    }
+
     public ResponseEntity<List<ViewStatsDto>> getStats(String start,
                                                        String end,
                                                        @Nullable List<String> uris,
                                                        boolean unique) {
-        return executeWithDiscovery(client -> {
-            String uri = buildStatsUri(start, end, uris, unique);
-            return client.get()
-                    .uri(uri)
-                    .retrieve()
-                    .toEntity(new ParameterizedTypeReference<>() {});
+        return getStats(start, end, uris, unique, false);
+    }
+
+    public ResponseEntity<List<ViewStatsDto>> getStats(String start,
+                                                       String end,
+                                                       @Nullable List<String> uris,
+                                                       boolean unique,
+                                                       boolean approximate) {
+        return queryStats(start, end, uris, null, unique, approximate, null);
+    }
+
+    /**
+     * Статистика по всем URI с префиксом uriPrefix, например "/events/", без передачи списка URI.
+     * Если задано app, учитываются только хиты этого приложения.
+     */
+    public ResponseEntity<List<ViewStatsDto>> getStatsByPrefix(String start,
+                                                               String end,
+                                                               String uriPrefix,
+                                                               @Nullable String app,
+                                                               boolean unique) {
+        return queryStats(start, end, List.of(uriPrefix + "*"), app, unique, false, null);
+    }
+
+    /**
+     * Временной ряд просмотров по бакетам "minute", "hour" или "day". Пустые бакеты не возвращаются.
+     * Уникальные просмотры бакета URI, найденного на нескольких шардах, пересчитываются по IP отдельным
+     * запросом на бакет, поэтому такой ряд после изменения состава кластера заметно дороже.
+     */
+    public ResponseEntity<List<ViewSeriesDto>> getTimeSeries(String start,
+                                                             String end,
+                                                             @Nullable List<String> uris,
+                                                             String bucket,
+                                                             boolean unique) {
+        UriComponentsBuilder builder = UriComponentsBuilder.fromPath(TIMESERIES_ENDPOINT)
+                .queryParam("start", start)
+                .queryParam("end", end)
+                .queryParam("bucket", bucket)
+                .queryParam("unique", unique);
+        if (uris != null && !uris.isEmpty()) {
+            builder.queryParam("uris", String.join(",", uris));
+        }
+        String uri = builder.build().toUriString();
+        Map<String, List<ViewSeriesDto>> partials = onEachShard(availableRing().shardsFor(uris, parse(start)),
+                client -> client.get()
+                        .uri(uri)
+                        .retrieve()
+                        .body(VIEW_SERIES_LIST));
+        return ResponseEntity.ok(mergeSeries(partials, unique ? bucketLength(bucket) : null, start, end));
+    }
+
+    /**
+     * Первые limit записей статистики по убыванию числа просмотров.
+     */
+    public ResponseEntity<List<ViewStatsDto>> getTopStats(String start,
+                                                          String end,
+                                                          @Nullable List<String> uris,
+                                                          boolean unique,
+                                                          int limit) {
+        return queryStats(start, end, uris, null, unique, false, limit);
+    }
+
+    /**
+     * Читает статистику построчно в формате NDJSON и передаёт строки потребителю по мере получения.
+     * При повторной попытке после обрыва потребитель может получить уже переданные строки ещё раз.
+     * Если шардов несколько, строки собираются и складываются в памяти и передаются после ответа всех шардов.
+     */
+    public void streamStats(String start,
+                            String end,
+                            @Nullable List<String> uris,
+                            boolean unique,
+                            Consumer<ViewStatsDto> consumer) {
+        String uri = buildStatsUri(start, end, uris, null, unique, false, null);
+        Set<String> shards = availableRing().shardsFor(uris, parse(start));
+        if (shards.size() == 1) {
+            onEachShard(shards, client -> readLines(client, uri, VIEW_STATS_READER, consumer));
+            return;
+        }
+        Map<String, List<ViewStatsDto>> partials = onEachShard(shards, client -> {
+            List<ViewStatsDto> stats = new ArrayList<>();
+            readLines(client, uri, VIEW_STATS_READER, stats::add);
+            return stats;
+        });
+        mergeStats(partials, start, end, unique, null).forEach(consumer);
+    }
+
+    private ResponseEntity<List<ViewStatsDto>> queryStats(String start, String end, @Nullable List<String> uris,
+                                                          @Nullable String app, boolean unique, boolean approximate,
+                                                          @Nullable Integer limit) {
+        Set<String> shards = availableRing().shardsFor(uris, parse(start));
+        // Из первых limit записей каждого шарда общий top не собрать: ключ, лидирующий по сумме шардов,
+        // может не войти в top ни одного из них, а его сумма без строк остальных шардов занижена.
+        // Поэтому при нескольких шардах записи запрашиваются целиком, а limit применяется после слияния
+        String uri = buildStatsUri(start, end, uris, app, unique, approximate, shards.size() == 1 ? limit : null);
+        Map<String, List<ViewStatsDto>> partials = onEachShard(shards, client ->
+                client.get()
+                        .uri(uri)
+                        .retrieve()
+                        .body(VIEW_STATS_LIST));
+        // Сумма приближённых оценок шардов посчитала бы дважды IP, смотревших URI на обоих шардах,
+        // поэтому общие ключи пересчитываются точно и для approximate
+        return ResponseEntity.ok(mergeStats(partials, start, end, unique, limit));
+    }
+
+    /**
+     * Складывает просмотры одного (app, uri) с разных шардов. Уникальные просмотры так сложить нельзя:
+     * один IP мог смотреть URI и до, и после смены владельца, поэтому они пересчитываются по IP.
+     */
+    private List<ViewStatsDto> mergeStats(Map<String, List<ViewStatsDto>> partials, String start, String end,
+                                          boolean exactUnique, @Nullable Integer limit) {
+        if (partials.size() == 1) {
+            List<ViewStatsDto> stats = partials.values().iterator().next();
+            return stats == null ? List.of() : stats;
+        }
+        Map<StatsKey, ViewStatsDto> merged = new HashMap<>();
+        Map<StatsKey, Set<String>> shardsByKey = new HashMap<>();
+        partials.forEach((shard, stats) -> {
+            if (stats == null) {
+                return;
+            }
+            for (ViewStatsDto dto : stats) {
+                StatsKey key = new StatsKey(dto.getApp(), dto.getUri());
+                merged.merge(key, new ViewStatsDto(dto.getApp(), dto.getUri(), dto.getHits()), (total, part) -> {
+                    total.setHits(total.getHits() + part.getHits());
+                    return total;
+                });
+                shardsByKey.computeIfAbsent(key, k -> new HashSet<>()).add(shard);
+            }
+        });
+        if (exactUnique) {
+            Map<String, List<StatsKey>> keysByShard = new HashMap<>();
+            shardsByKey.forEach((key, shards) -> {
+                if (shards.size() > 1) {
+                    shards.forEach(shard -> keysByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(key));
+                }
+            });
+            countViewers(keysByShard, start, end).forEach((key, viewers) -> merged.get(key).setHits(viewers));
+        }
+        return merged.values().stream()
+                .sorted(BY_HITS_DESC)
+                .limit(limit == null ? Long.MAX_VALUE : limit)
+                .toList();
+    }
+
+    /**
+     * Число разных IP по каждому ключу. Каждый шард одним запросом отдаёт множества IP своих ключей,
+     * общих с другими шардами; ключи передаются телом и сравниваются на сервере точно.
+     */
+    private Map<StatsKey, Long> countViewers(Map<String, List<StatsKey>> keysByShard, String start, String end) {
+        if (keysByShard.isEmpty()) {
+            return Map.of();
+        }
+        String uri = UriComponentsBuilder.fromPath(VIEWERS_ENDPOINT)
+                .queryParam("start", start)
+                .queryParam("end", end)
+                .build()
+                .toUriString();
+        List<List<ViewersDto>> partials = inParallel(keysByShard.entrySet().stream()
+                .<Supplier<List<ViewersDto>>>map(entry -> () -> executeOn(
+                        current -> current.anyInstance(entry.getKey()), client ->
+                                client.post()
+                                        .uri(uri)
+                                                                        .body(entry.getValue().stream()
+                                                .map(key -> new ViewersDto(key.app(), key.uri(), null))
+                                                .toList())
+                                        .retrieve()
+                                        .body(VIEWERS_LIST)))
+                .toList());
+        Map<StatsKey, Set<String>> viewers = new HashMap<>();
+        for (List<ViewersDto> partial : partials) {
+            if (partial == null) {
+                continue;
+            }
+            partial.forEach(dto -> viewers.computeIfAbsent(new StatsKey(dto.getApp(), dto.getUri()),
+                    key -> new HashSet<>()).addAll(dto.getIps()));
+        }
+        Map<StatsKey, Long> counts = new HashMap<>();
+        viewers.forEach((key, ips) -> counts.put(key, (long) ips.size()));
+        return counts;
+    }
+
+    /**
+     * Складывает точки рядов одного (app, uri) с разных шардов. Если задана длина бакета, ряд уникальный:
+     * бакеты ключа, пришедшие с нескольких шардов, пересчитываются по IP за границы бакета внутри [start, end].
+     */
+    private List<ViewSeriesDto> mergeSeries(Map<String, List<ViewSeriesDto>> partials,
+                                            @Nullable Duration uniqueBucket, String start, String end) {
+        if (partials.size() == 1) {
+            List<ViewSeriesDto> series = partials.values().iterator().next();
+            return series == null ? List.of() : series;
+        }
+        Map<StatsKey, NavigableMap<LocalDateTime, Long>> merged = new LinkedHashMap<>();
+        Map<LocalDateTime, Map<String, List<StatsKey>>> sharedBuckets = new TreeMap<>();
+        Map<StatsKey, Map<LocalDateTime, String>> firstShard = new HashMap<>();
+        partials.forEach((shard, series) -> {
+            if (series == null) {
+                return;
+            }
+            for (ViewSeriesDto dto : series) {
+                StatsKey key = new StatsKey(dto.getApp(), dto.getUri());
+                NavigableMap<LocalDateTime, Long> points = merged.computeIfAbsent(key, k -> new TreeMap<>());
+                Map<LocalDateTime, String> shardByBucket = firstShard.computeIfAbsent(key, k -> new HashMap<>());
+                for (ViewPointDto point : dto.getPoints()) {
+                    points.merge(point.getBucket(), point.getHits(), Long::sum);
+                    String other = shardByBucket.putIfAbsent(point.getBucket(), shard);
+                    if (uniqueBucket != null && other != null) {
+                        Map<String, List<StatsKey>> keysByShard =
+                                sharedBuckets.computeIfAbsent(point.getBucket(), b -> new HashMap<>());
+                        if (!keysByShard.containsKey(other) || !keysByShard.get(other).contains(key)) {
+                            keysByShard.computeIfAbsent(other, s -> new ArrayList<>()).add(key);
+                        }
+                        keysByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(key);
+                    }
+                }
+            }
         });
+        if (!sharedBuckets.isEmpty()) {
+            LocalDateTime from = parse(start);
+            LocalDateTime to = parse(end);
+            List<LocalDateTime> buckets = List.copyOf(sharedBuckets.keySet());
+            List<Map<StatsKey, Long>> counts = inParallel(buckets.stream()
+                    .<Supplier<Map<StatsKey, Long>>>map(bucket -> () -> countViewers(sharedBuckets.get(bucket),
+                            format(max(bucket, from)),
+                            format(min(bucket.plus(uniqueBucket).minusSeconds(1), to))))
+                    .toList());
+            for (int i = 0; i < buckets.size(); i++) {
+                LocalDateTime bucket = buckets.get(i);
+                counts.get(i).forEach((key, viewers) -> merged.get(key).put(bucket, viewers));
+            }
+        }
+        return merged.entrySet().stream()
+                .map(entry -> new ViewSeriesDto(entry.getKey().app(), entry.getKey().uri(),
+                        entry.getValue().entrySet().stream()
+                                .map(point -> new ViewPointDto(point.getKey(), point.getValue()))
+                                .toList()))
+                .toList();
+    }
+
+    private static <T> Object readLines(RestClient client, String uri, ObjectReader reader, Consumer<T> consumer) {
+        return client.get()
+                .uri(uri)
+                .accept(NDJSON)
+                .exchange((request, response) -> {
+                    if (response.getStatusCode().isError()) {
+                        throw new RestClientException("HTTP error " + response.getStatusCode());
+                    }
+                    try (InputStream body = response.getBody();
+                         MappingIterator<T> lines = reader.readValues(body)) {
+                        lines.forEachRemaining(consumer);
+                    }
+                    return null;
+                });
+    }
+
+    private static Duration bucketLength(String bucket) {
+        return switch (bucket) {
+            case "minute" -> Duration.ofMinutes(1);
+            case "hour" -> Duration.ofHours(1);
+            case "day" -> Duration.ofDays(1);
+            default -> throw new IllegalArgumentException("Неизвестный бакет: " + bucket);
+        };
+    }
+
+    private static LocalDateTime parse(String timestamp) {
+        return LocalDateTime.parse(timestamp, TIMESTAMP_FORMAT);
+    }
+
+    private static String format(LocalDateTime timestamp) {
+        return timestamp.format(TIMESTAMP_FORMAT);
+    }
+
+    private static LocalDateTime min(LocalDateTime left, LocalDateTime right) {
+        return right.isBefore(left) ? right : left;
     }
 
-    private String buildStatsUri(String start, String end, @Nullable List<String> uris, boolean unique) {
+    private static LocalDateTime max(LocalDateTime left, LocalDateTime right) {
+        return right.isAfter(left) ? right : left;
+    }
+
+    private String buildStatsUri(String start, String end, @Nullable List<String> uris, @Nullable String app,
+                                 boolean unique, boolean approximate, @Nullable Integer limit) {
         UriComponentsBuilder builder = UriComponentsBuilder.fromPath(STATS_ENDPOINT)
                 .queryParam("start", start)
                 .queryParam("end", end)
                 .queryParam("unique", unique);
 
+        if (approximate) {
+            builder.queryParam("approximate", true);
+        }
+
+        if (limit != null) {
+            builder.queryParam("limit", limit);
+        }
+
         if (uris != null && !uris.isEmpty()) {
             builder.queryParam("uris", String.join(",", uris));
         }
 
+        if (app != null) {
+            builder.queryParam("app", app);
+        }
+
         return builder.build().toUriString();
     }
 
-    private <T> T executeWithDiscovery(StatClientOperation<T> operation) {
+    /**
+     * Выполняет операцию на экземпляре, выбранном по текущему кольцу. Экземпляр выбирается заново
+     * на каждой попытке, чтобы повтор учёл изменения в реестре.
+     */
+    private <T> T executeOn(Function<ShardRing, ServiceInstance> target, StatClientOperation<T> operation) {
         try {
             return retryTemplate.execute((RetryCallback<T, Exception>) context -> {
-                ServiceInstance instance = getAvailableInstance();
+                ServiceInstance instance = target.apply(currentRing());
                 RestClient client = createRestClient(instance.getUri().toString());
                 return operation.execute(client);
             });
@@ -82,21 +467,94 @@ public class StatsClient {
         }
     }
 
-    private ServiceInstance getAvailableInstance() {
+    /**
+     * Выполняет операцию на любом экземпляре каждого шарда параллельно. Ответ нужен от всех шардов:
+     * без одного из них статистика была бы молча занижена.
+     */
+    private <T> Map<String, T> onEachShard(Set<String> shards, StatClientOperation<T> operation) {
+        List<String> order = List.copyOf(shards);
+        List<T> results = inParallel(order.stream()
+                .<Supplier<T>>map(shard -> () -> executeOn(current -> current.anyInstance(shard), operation))
+                .toList());
+        Map<String, T> byShard = new LinkedHashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            byShard.put(order.get(i), results.get(i));
+        }
+        return byShard;
+    }
+
+    private <T> List<T> inParallel(List<Supplier<T>> calls) {
+        if (calls.size() == 1) {
+            return Collections.singletonList(calls.getFirst().get());
+        }
+        List<CompletableFuture<T>> futures = calls.stream()
+                .map(call -> CompletableFuture.supplyAsync(call, shardExecutor))
+                .toList();
+        try {
+            return futures.stream().map(CompletableFuture::join).toList();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Останавливает пул запросов к шардам; уже начатые запросы дорабатывают.
+     */
+    @Override
+    public void close() {
+        shardExecutor.shutdown();
+    }
+
+    private ShardRing availableRing() {
+        try {
+            return retryTemplate.execute((RetryCallback<ShardRing, Exception>) context -> currentRing());
+        } catch (Exception e) {
+            throw new StatsServerUnavailableException(
+                    "Сервер статистики недоступен после повторных попыток", e
+            );
+        }
+    }
+
+    private ShardRing currentRing() {
         List<ServiceInstance> instances = discoveryClient.getInstances(statServiceId);
         if (instances == null || instances.isEmpty()) {
             throw new IllegalStateException("Сервер статистики не найден в реестре");
         }
-        return instances.getFirst();
+        ShardRing current = ring;
+        if (current == null || !current.isBuiltFrom(instances)) {
+            current = ShardRing.of(instances);
+            ring = current;
+        }
+        return current;
     }
 
+    /**
+     * Клиент экземпляра. Формат тела и ответа задаётся заголовками по умолчанию; запрос с явным Accept,
+     * как построчное чтение NDJSON, переопределяет его.
+     */
     private RestClient createRestClient(String baseUrl) {
+        MediaType format = wireFormat(baseUrl);
         return RestClient.builder()
                 .baseUrl(baseUrl)
-                .defaultHeaders(headers -> headers.setContentType(MediaType.APPLICATION_JSON))
+                .defaultHeaders(headers -> {
+                    headers.setContentType(format);
+                    headers.setAccept(List.of(format));
+                })
+                .messageConverters(converters -> {
+                    converters.removeIf(converter -> converter instanceof MappingJackson2SmileHttpMessageConverter);
+                    converters.add(SMILE_CONVERTER);
+                })
                 .defaultStatusHandler(
                         status -> status.is4xxClientError() || status.is5xxServerError(),
                         (request, response) -> {
+                            if (response.getStatusCode().isSameCodeAs(HttpStatus.NOT_ACCEPTABLE)
+                                    || response.getStatusCode().isSameCodeAs(HttpStatus.UNSUPPORTED_MEDIA_TYPE)) {
+                                // Повторная попытка к этому экземпляру уйдёт уже в JSON
+                                jsonUntil.put(baseUrl, Instant.now().plus(SMILE_RETRY_PERIOD));
+                            }
                             throw new RestClientException(
                                     "HTTP error " + response.getStatusCode() + ": " + response.getStatusText()
                             );
@@ -104,11 +562,26 @@ public class StatsClient {
                 .build();
     }
 
+    private MediaType wireFormat(String baseUrl) {
+        Instant until = jsonUntil.get(baseUrl);
+        if (until == null) {
+            return SMILE;
+        }
+        if (Instant.now().isAfter(until)) {
+            jsonUntil.remove(baseUrl, until);
+            return SMILE;
+        }
+        return MediaType.APPLICATION_JSON;
+    }
+
     @FunctionalInterface
     private interface StatClientOperation<T> {
         T execute(RestClient client);
     }
 
+    private record StatsKey(String app, String uri) {
+    }
+
     public static class StatsServerUnavailableException extends RuntimeException {
         public StatsServerUnavailableException(String message, Throwable cause) {
             super(message, cause);
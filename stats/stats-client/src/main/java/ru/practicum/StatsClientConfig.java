@@ -30,7 +30,7 @@ public class StatsClientConfig {
         return retryTemplate;
     }
 
-    @Bean
+    @Bean(destroyMethod = "close")
     public StatsClient statClient(DiscoveryClient discoveryClient,
                                  RetryTemplate retryTemplate) {
         return new StatsClient(discoveryClient, retryTemplate, statServiceId);
@@ -0,0 +1,119 @@
+package ru.practicum;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class ShardRingTest {
+
+    private static final int URIS = 30_000;
+
+    @Test
+    void treatsInstancesWithoutMetadataAsOneShard() {
+        ShardRing ring = ShardRing.of(List.of(instance("a", null, null), instance("b", null, null)));
+
+        assertThat(ring.shards()).containsExactly(ShardRing.DEFAULT_SHARD);
+        assertThat(ring.shardOf("/events/1")).isEqualTo(ShardRing.DEFAULT_SHARD);
+    }
+
+    @Test
+    void spreadsUrisEvenly() {
+        ShardRing ring = ShardRing.of(List.of(instance("a", "s1", null), instance("b", "s2", null),
+                instance("c", "s3", null), instance("d", "s4", null)));
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < URIS; i++) {
+            counts.merge(ring.shardOf("/events/" + i), 1, Integer::sum);
+        }
+
+        assertThat(counts).containsOnlyKeys("s1", "s2", "s3", "s4");
+        counts.values().forEach(count -> assertThat((double) count).isCloseTo(URIS / 4.0, within(URIS / 4.0 * 0.3)));
+    }
+
+    @Test
+    void movesOnlyUrisOfAddedShard() {
+        List<ServiceInstance> instances = new ArrayList<>(List.of(instance("a", "s1", null),
+                instance("b", "s2", null), instance("c", "s3", null)));
+        ShardRing before = ShardRing.of(instances);
+        instances.add(instance("d", "s4", null));
+        ShardRing after = ShardRing.of(instances);
+
+        int moved = 0;
+        for (int i = 0; i < URIS; i++) {
+            String uri = "/events/" + i;
+            if (!before.shardOf(uri).equals(after.shardOf(uri))) {
+                assertThat(after.shardOf(uri)).isEqualTo("s4");
+                moved++;
+            }
+        }
+
+        assertThat((double) moved).isCloseTo(URIS / 4.0, within(URIS / 4.0 * 0.3));
+    }
+
+    @Test
+    void routesUriToInstanceOfItsShard() {
+        ShardRing ring = ShardRing.of(List.of(instance("a", "s1", null), instance("b", "s1", null),
+                instance("c", "s2", null)));
+
+        for (int i = 0; i < 100; i++) {
+            String uri = "/events/" + i;
+            ServiceInstance target = ring.instanceFor(uri);
+            assertThat(target.getMetadata().get(ShardRing.SHARD_METADATA)).isEqualTo(ring.shardOf(uri));
+            assertThat(ring.instanceFor(uri)).isSameAs(target);
+        }
+    }
+
+    @Test
+    void queriesOnlyOwnersOfExactUris() {
+        ShardRing ring = ShardRing.of(List.of(instance("a", "s1", null), instance("b", "s2", null),
+                instance("c", "s3", null)));
+
+        Set<String> shards = ring.shardsFor(List.of("/events/1"), LocalDateTime.of(2024, 1, 1, 0, 0));
+
+        assertThat(shards).containsExactly(ring.shardOf("/events/1"));
+        assertThat(ring.shardsFor(List.of("/events/*"), LocalDateTime.of(2024, 1, 1, 0, 0)))
+                .isEqualTo(ring.shards());
+        assertThat(ring.shardsFor(null, LocalDateTime.of(2024, 1, 1, 0, 0))).isEqualTo(ring.shards());
+    }
+
+    @Test
+    void queriesAllShardsBeforeRingChange() {
+        ShardRing ring = ShardRing.of(List.of(instance("a", "s1", "2024-05-01T00:00:00"),
+                instance("b", "s2", "2024-05-01T00:00:00")));
+
+        assertThat(ring.shardsFor(List.of("/events/1"), LocalDateTime.of(2024, 4, 30, 0, 0)))
+                .isEqualTo(ring.shards());
+        assertThat(ring.shardsFor(List.of("/events/1"), LocalDateTime.of(2024, 5, 1, 0, 0)))
+                .containsExactly(ring.shardOf("/events/1"));
+    }
+
+    @Test
+    void rebuildsOnlyWhenInstancesChange() {
+        List<ServiceInstance> instances = List.of(instance("a", "s1", null), instance("b", "s2", null));
+        ShardRing ring = ShardRing.of(instances);
+
+        assertThat(ring.isBuiltFrom(List.of(instances.get(1), instances.get(0)))).isTrue();
+        assertThat(ring.isBuiltFrom(List.of(instances.get(0)))).isFalse();
+    }
+
+    private static ServiceInstance instance(String host, String shard, String ringSince) {
+        Map<String, String> metadata = new HashMap<>();
+        if (shard != null) {
+            metadata.put(ShardRing.SHARD_METADATA, shard);
+        }
+        if (ringSince != null) {
+            metadata.put(ShardRing.RING_SINCE_METADATA, ringSince);
+        }
+        return new DefaultServiceInstance(host, "stats-server", host, 9090, false, metadata);
+    }
+}
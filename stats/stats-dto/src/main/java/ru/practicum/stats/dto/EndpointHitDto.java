@@ -3,6 +3,7 @@ package ru.practicum.stats.dto;
 import com.fasterxml.jackson.annotation.JsonFormat;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -30,4 +31,10 @@ public class EndpointHitDto {
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
     @NotNull(message = "Timestamp cannot be null")
     private LocalDateTime timestamp;
+
+    /**
+     * Необязательный id хита, создаваемый клиентом: повтор запроса с тем же id сервер не записывает.
+     */
+    @Size(max = 64, message = "Request id must be at most 64 characters")
+    private String requestId;
 }
@@ -0,0 +1,38 @@
+package ru.practicum.stats.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.time.LocalDateTime;
+
+/**
+ * Бинарный формат Smile для /hit и /stats. Время хита передаётся массивом чисел
+ * вместо строки "yyyy-MM-dd HH:mm:ss", повторяющиеся имена приложений и URI — ссылками.
+ */
+public final class StatsWireFormat {
+
+    public static final String SMILE = "application/x-jackson-smile";
+
+    private StatsWireFormat() {
+    }
+
+    public static ObjectMapper smileMapper() {
+        SmileFactory factory = SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build();
+        return new ObjectMapper(factory)
+                .registerModule(new JavaTimeModule())
+                .addMixIn(EndpointHitDto.class, EndpointHitMixIn.class)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    private abstract static class EndpointHitMixIn {
+
+        @JsonFormat(shape = JsonFormat.Shape.ARRAY)
+        private LocalDateTime timestamp;
+    }
+}
@@ -0,0 +1,18 @@
+package ru.practicum.stats.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ViewSeriesDto {
+    private String app;
+    private String uri;
+    private List<ViewPointDto> points;
+}
@@ -0,0 +1,21 @@
+package ru.practicum.stats.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * IP, смотревшие URI приложения за диапазон. В запросе к /stats/viewers передаются только app и uri.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ViewersDto {
+    private String app;
+    private String uri;
+    private List<String> ips;
+}
@@ -0,0 +1,75 @@
+-- Сравнение прежнего и компактного формата строк endpoint_hits.
+-- Запуск: psql -d ewm_stats_db -v rows=10000000 -f hit-storage.sql
+-- Скрипт работает во временных таблицах и не трогает данные сервиса.
+
+\set ON_ERROR_STOP on
+\if :{?rows}
+\else
+\set rows 10000000
+\endif
+\timing on
+
+CREATE TEMP TABLE hits_legacy (
+    id BIGSERIAL PRIMARY KEY,
+    app_id BIGINT NOT NULL,
+    uri_id BIGINT NOT NULL,
+    ip VARCHAR(45) NOT NULL,
+    timestamp TIMESTAMP(6) NOT NULL
+);
+
+CREATE TEMP TABLE hits_compact (
+    id BIGSERIAL,
+    timestamp TIMESTAMP NOT NULL,
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    ip_id INT NOT NULL,
+    PRIMARY KEY (id, timestamp)
+);
+
+-- Одинаковые данные: 1000 URI, 200 тысяч различных IP, хиты равномерно за год
+INSERT INTO hits_legacy (app_id, uri_id, ip, timestamp)
+SELECT 1,
+       1 + (g % 1000),
+       '10.' || (g % 200000 / 65536) || '.' || (g % 65536 / 256) || '.' || (g % 256),
+       TIMESTAMP '2024-01-01' + (g % 31536000) * INTERVAL '1 second'
+FROM generate_series(1, :rows) g;
+
+INSERT INTO hits_compact (timestamp, app_id, uri_id, ip_id)
+SELECT TIMESTAMP '2024-01-01' + (g % 31536000) * INTERVAL '1 second',
+       1,
+       1 + (g % 1000),
+       1 + (g % 200000)
+FROM generate_series(1, :rows) g;
+
+CREATE INDEX ON hits_legacy (uri_id, timestamp);
+CREATE INDEX ON hits_compact (uri_id, timestamp);
+VACUUM ANALYZE hits_legacy;
+VACUUM ANALYZE hits_compact;
+
+SELECT 'legacy' AS layout,
+       pg_size_pretty(pg_relation_size('hits_legacy')) AS heap,
+       pg_size_pretty(pg_indexes_size('hits_legacy')) AS indexes,
+       pg_size_pretty(pg_total_relation_size('hits_legacy')) AS total
+UNION ALL
+SELECT 'compact',
+       pg_size_pretty(pg_relation_size('hits_compact')),
+       pg_size_pretty(pg_indexes_size('hits_compact')),
+       pg_size_pretty(pg_total_relation_size('hits_compact'));
+
+-- Полный скан с подсчётом уникальных посетителей, как в прежнем getUniqueStats
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT uri_id, COUNT(DISTINCT ip) FROM hits_legacy GROUP BY uri_id;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT uri_id, COUNT(DISTINCT ip_id) FROM hits_compact GROUP BY uri_id;
+
+-- Скан неполного края диапазона по индексу (uri_id, timestamp)
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT uri_id, COUNT(*) FROM hits_legacy
+WHERE uri_id IN (1, 2, 3) AND timestamp >= '2024-06-01' AND timestamp < '2024-06-02 12:00'
+GROUP BY uri_id;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT uri_id, COUNT(*) FROM hits_compact
+WHERE uri_id IN (1, 2, 3) AND timestamp >= '2024-06-01' AND timestamp < '2024-06-02 12:00'
+GROUP BY uri_id;
@@ -0,0 +1,325 @@
+package ru.practicum.server.stats.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Отдельный пул соединений для запросов статистики. Тяжёлые запросы занимают соединения только
+ * этого пула, поэтому запись хитов через основной пул не ждёт освобождения соединения.
+ * Пул не объявлен бином DataSource, чтобы не отключать автоконфигурацию основного источника данных.
+ * <p>
+ * Если задана реплика, запросы идут в неё, пока её отставание не превышает max-lag; при большем
+ * отставании или недоступности реплики запросы возвращаются в основную БД до следующей проверки.
+ */
+@Slf4j
+@Component
+public class QueryDatabase {
+
+    private static final String QUERY_CANCELED = "57014";
+    // Реплика без входящих изменений не отстаёт, хотя время последнего применённого изменения старое
+    private static final String POSTGRES_LAG_QUERY = "SELECT CASE " +
+            "WHEN NOT pg_is_in_recovery() THEN 0 " +
+            "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) END";
+    private static final String PRIMARY_LSN_QUERY = "SELECT CAST(pg_current_wal_lsn() AS VARCHAR)";
+    private static final String REPLAYED_QUERY = "SELECT pg_last_wal_replay_lsn() >= CAST(? AS pg_lsn)";
+
+    private enum Target {
+        PRIMARY, REPLICA
+    }
+
+    private final HikariDataSource primary;
+    private final HikariDataSource replica;
+    private final DataSource dataSource;
+    private final JdbcTemplate lagJdbcTemplate;
+    private final JdbcTemplate primaryLsnJdbcTemplate;
+    private final String lagQuery;
+    private final Duration maxLag;
+    private volatile boolean replicaActive;
+    private volatile double replicaLag = Double.NaN;
+    private boolean replicaChecked;
+    // Позиция WAL основной БД, снятая прошлой проверкой, и момент снятия
+    private String pendingLsn;
+    private Instant pendingLsnAt;
+    private volatile Instant replicaConsistentAt;
+    private final ThreadLocal<Boolean> forcePrimary = ThreadLocal.withInitial(() -> false);
+    // Потоки, запросы которых можно отменить из другого потока, см. track()
+    private final Map<Thread, RunningQuery> running = new ConcurrentHashMap<>();
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Duration statementTimeout;
+
+    public QueryDatabase(MeterRegistry meterRegistry,
+                         @Value("${stats.query.datasource.url:${spring.datasource.url}}") String url,
+                         @Value("${stats.query.datasource.username:${spring.datasource.username:}}") String username,
+                         @Value("${stats.query.datasource.password:${spring.datasource.password:}}") String password,
+                         @Value("${stats.query.datasource.maximum-pool-size:8}") int maxPoolSize,
+                         @Value("${stats.query.datasource.connection-timeout:PT2S}") Duration connectionTimeout,
+                         @Value("${stats.query.statement-timeout:PT10S}") Duration statementTimeout,
+                         @Value("${stats.query.replica.url:}") String replicaUrl,
+                         @Value("${stats.query.replica.username:${spring.datasource.username:}}") String replicaUser,
+                         @Value("${stats.query.replica.password:${spring.datasource.password:}}") String replicaPass,
+                         @Value("${stats.query.replica.max-lag:PT5S}") Duration maxLag,
+                         @Value("${stats.query.replica.lag-query:}") String lagQuery) {
+        MicrometerMetricsTrackerFactory metrics = new MicrometerMetricsTrackerFactory(meterRegistry);
+        this.primary = pool("stats-query", url, username, password, maxPoolSize, connectionTimeout, metrics);
+        this.maxLag = maxLag;
+        this.lagQuery = lagQuery.isBlank() ? POSTGRES_LAG_QUERY : lagQuery;
+        if (replicaUrl.isBlank()) {
+            this.replica = null;
+            this.lagJdbcTemplate = null;
+            this.primaryLsnJdbcTemplate = null;
+            this.dataSource = primary;
+        } else {
+            this.replica = pool("stats-query-replica", replicaUrl, replicaUser, replicaPass,
+                    maxPoolSize, connectionTimeout, metrics);
+            this.lagJdbcTemplate = new JdbcTemplate(replica);
+            lagJdbcTemplate.setQueryTimeout((int) Math.max(1, connectionTimeout.toSeconds()));
+            this.primaryLsnJdbcTemplate = new JdbcTemplate(primary);
+            primaryLsnJdbcTemplate.setQueryTimeout((int) Math.max(1, connectionTimeout.toSeconds()));
+            this.dataSource = routing();
+            Gauge.builder("stats.query.replica.active", this, db -> db.replicaActive ? 1 : 0)
+                    .register(meterRegistry);
+            Gauge.builder("stats.query.replica.lag", this, db -> db.replicaLag)
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+        }
+        this.statementTimeout = statementTimeout;
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate(0, statementTimeout));
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Шаблон с ограничением времени запроса: по истечении драйвер отменяет запрос на сервере БД.
+     */
+    public NamedParameterJdbcTemplate jdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    /**
+     * Шаблон для чтения курсором порциями fetchSize; курсор открывается только внутри {@link #readOnly()}.
+     */
+    public NamedParameterJdbcTemplate streamingJdbcTemplate(int fetchSize) {
+        return new NamedParameterJdbcTemplate(jdbcTemplate(fetchSize, statementTimeout));
+    }
+
+    /**
+     * Курсор со своим ограничением времени — для выгрузок, длительность которых зависит от объёма.
+     */
+    public NamedParameterJdbcTemplate streamingJdbcTemplate(int fetchSize, Duration timeout) {
+        return new NamedParameterJdbcTemplate(jdbcTemplate(fetchSize, timeout));
+    }
+
+    /**
+     * Запросы текущего потока до {@link #release()} можно отменить из другого потока через {@link #cancel}.
+     */
+    public void track() {
+        running.put(Thread.currentThread(), new RunningQuery());
+    }
+
+    public void release() {
+        running.remove(Thread.currentThread());
+    }
+
+    /**
+     * Отменяет выполняющийся запрос потока; следующие запросы потока до {@link #release()} не выполняются.
+     */
+    public void cancel(Thread thread) {
+        RunningQuery query = running.get(thread);
+        if (query == null) {
+            return;
+        }
+        query.cancelled = true;
+        Statement statement = query.statement;
+        if (statement == null) {
+            return;
+        }
+        try {
+            statement.cancel();
+        } catch (SQLException e) {
+            log.debug("Не удалось отменить запрос статистики", e);
+        }
+    }
+
+    public TransactionTemplate readOnly() {
+        return readOnlyTransaction;
+    }
+
+    public boolean hasReplica() {
+        return replica != null;
+    }
+
+    /**
+     * Момент, все зафиксированные до которого изменения основной БД уже применены в реплике:
+     * позиция WAL основной БД в этот момент не больше применённой репликой. Пустое значение —
+     * запросы идут в основную БД или момент неизвестен.
+     */
+    public Instant replicaConsistentAt() {
+        return replicaActive ? replicaConsistentAt : null;
+    }
+
+    /**
+     * Выполняет запросы загрузчика в основной БД независимо от выбора реплики.
+     */
+    public <T> T onPrimary(Supplier<T> loader) {
+        if (forcePrimary.get()) {
+            return loader.get();
+        }
+        forcePrimary.set(true);
+        try {
+            return loader.get();
+        } finally {
+            forcePrimary.remove();
+        }
+    }
+
+    /**
+     * Проверяет отставание реплики и переключает запросы между репликой и основной БД.
+     * Первая проверка выполняется при старте, до неё запросы идут в основную БД.
+     */
+    @Scheduled(fixedDelayString = "${stats.query.replica.check-interval:PT5S}")
+    public void checkReplica() {
+        if (replica == null) {
+            return;
+        }
+        boolean active;
+        try {
+            Double lag = lagJdbcTemplate.queryForObject(lagQuery, Double.class);
+            replicaLag = lag == null ? 0 : lag;
+            active = replicaLag * 1000 <= maxLag.toMillis();
+        } catch (RuntimeException e) {
+            replicaLag = Double.NaN;
+            active = false;
+            if (replicaActive || !replicaChecked) {
+                log.warn("Реплика недоступна, запросы статистики переключены на основную БД", e);
+            }
+        }
+        if (active) {
+            checkReplayed();
+        }
+        if (active != replicaActive) {
+            if (active) {
+                log.info("Отставание реплики {} с, запросы статистики переключены на реплику", replicaLag);
+            } else if (!Double.isNaN(replicaLag)) {
+                log.warn("Отставание реплики {} с больше {}, запросы статистики переключены на основную БД",
+                        replicaLag, maxLag);
+            }
+            replicaActive = active;
+        }
+        replicaChecked = true;
+    }
+
+    /**
+     * Сравнивает применённую репликой позицию WAL с позицией основной БД на прошлой проверке
+     * и снимает новую позицию. Для БД без этих функций момент согласованности остаётся неизвестным.
+     */
+    private void checkReplayed() {
+        try {
+            if (pendingLsn != null && Boolean.TRUE.equals(
+                    lagJdbcTemplate.queryForObject(REPLAYED_QUERY, Boolean.class, pendingLsn))) {
+                replicaConsistentAt = pendingLsnAt;
+            }
+            pendingLsnAt = Instant.now();
+            pendingLsn = primaryLsnJdbcTemplate.queryForObject(PRIMARY_LSN_QUERY, String.class);
+        } catch (RuntimeException e) {
+            pendingLsn = null;
+            replicaConsistentAt = null;
+            log.debug("Не удалось сравнить позиции WAL основной БД и реплики", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        primary.close();
+        if (replica != null) {
+            replica.close();
+        }
+    }
+
+    private static HikariDataSource pool(String name, String url, String username, String password,
+                                         int maxPoolSize, Duration connectionTimeout,
+                                         MicrometerMetricsTrackerFactory metrics) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setPoolName(name);
+        pool.setJdbcUrl(url);
+        pool.setUsername(username);
+        pool.setPassword(password);
+        pool.setMaximumPoolSize(maxPoolSize);
+        pool.setConnectionTimeout(connectionTimeout.toMillis());
+        pool.setReadOnly(true);
+        pool.setMetricsTrackerFactory(metrics);
+        return pool;
+    }
+
+    /**
+     * Источник выбирается при получении соединения, поэтому транзакция и курсор целиком
+     * выполняются в одной БД, даже если реплику переключили посреди запроса.
+     */
+    private DataSource routing() {
+        AbstractRoutingDataSource routing = new AbstractRoutingDataSource() {
+            @Override
+            protected Object determineCurrentLookupKey() {
+                return replicaActive && !forcePrimary.get() ? Target.REPLICA : Target.PRIMARY;
+            }
+        };
+        routing.setTargetDataSources(Map.of(Target.PRIMARY, primary, Target.REPLICA, replica));
+        routing.setDefaultTargetDataSource(primary);
+        routing.afterPropertiesSet();
+        return routing;
+    }
+
+    private JdbcTemplate jdbcTemplate(int fetchSize, Duration timeout) {
+        JdbcTemplate template = new JdbcTemplate(dataSource) {
+            @Override
+            protected void applyStatementSettings(Statement statement) throws SQLException {
+                super.applyStatementSettings(statement);
+                RunningQuery query = running.get(Thread.currentThread());
+                if (query != null) {
+                    query.statement = statement;
+                    if (query.cancelled) {
+                        throw new QueryTimeoutException("Запрос статистики отменён: истекло время ответа");
+                    }
+                }
+            }
+        };
+        template.setFetchSize(fetchSize);
+        // Таймаут меньше секунды округляется вверх: ноль означал бы запрос без ограничения времени
+        template.setQueryTimeout((int) Math.max(1, timeout.toSeconds()));
+        // Отмена по таймауту приходит от PostgreSQL как обычная ошибка с кодом 57014
+        SQLExceptionTranslator translator = template.getExceptionTranslator();
+        template.setExceptionTranslator((task, sql, ex) -> QUERY_CANCELED.equals(ex.getSQLState())
+                ? new QueryTimeoutException(task + ": " + ex.getMessage(), ex)
+                : translator.translate(task, sql, ex));
+        return template;
+    }
+
+    private static final class RunningQuery {
+        private volatile Statement statement;
+        private volatile boolean cancelled;
+    }
+}
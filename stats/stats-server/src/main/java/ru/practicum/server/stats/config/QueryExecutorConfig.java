@@ -0,0 +1,107 @@
+package ru.practicum.server.stats.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Изоляция запросов статистики от записи хитов. Обработчики /stats возвращают Callable и выполняются
+ * в отдельном пуле ограниченного размера с ограниченной очередью: поток Tomcat сразу освобождается
+ * для /hit, а сверх очереди запрос отклоняется с 503 вместо ожидания. По истечении request-timeout
+ * запрос к БД, который ещё выполняется для этого обработчика, отменяется, и поток пула освобождается.
+ * Потоковый ответ пишется столько, сколько читается из БД, поэтому его обработчик задаёт собственное
+ * ограничение атрибутом запроса {@link #TIMEOUT_ATTRIBUTE}.
+ */
+@Configuration
+public class QueryExecutorConfig implements WebMvcConfigurer {
+
+    /**
+     * Атрибут запроса с ограничением времени его асинхронной обработки (Duration) вместо request-timeout;
+     * PT0S — без ограничения. Задаётся обработчиком до возврата результата.
+     */
+    public static final String TIMEOUT_ATTRIBUTE = QueryExecutorConfig.class.getName() + ".timeout";
+
+    private final ThreadPoolTaskExecutor queryExecutor;
+    private final QueryDatabase queryDatabase;
+    private final Duration requestTimeout;
+    // Обработчик -> поток пула, в котором он выполняется
+    private final Map<Callable<?>, Thread> workers = new ConcurrentHashMap<>();
+
+    public QueryExecutorConfig(MeterRegistry meterRegistry,
+                               QueryDatabase queryDatabase,
+                               @Value("${stats.query.threads:8}") int threads,
+                               @Value("${stats.query.queue-capacity:32}") int queueCapacity,
+                               @Value("${stats.query.request-timeout:PT15S}") Duration requestTimeout) {
+        this.queryDatabase = queryDatabase;
+        this.requestTimeout = requestTimeout;
+        this.queryExecutor = new ThreadPoolTaskExecutor();
+        queryExecutor.setCorePoolSize(threads);
+        queryExecutor.setMaxPoolSize(threads);
+        queryExecutor.setQueueCapacity(queueCapacity);
+        queryExecutor.setThreadNamePrefix("stats-query-");
+        queryExecutor.initialize();
+        Gauge.builder("stats.query.active", queryExecutor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("Количество выполняющихся запросов статистики")
+                .register(meterRegistry);
+        Gauge.builder("stats.query.queued", queryExecutor, executor -> executor.getQueueSize())
+                .description("Количество запросов статистики в очереди")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(queryExecutor);
+        configurer.setDefaultTimeout(requestTimeout.toMillis());
+        configurer.registerCallableInterceptors(new CallableProcessingInterceptor() {
+            @Override
+            public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+                // Вызывается до начала асинхронной обработки, когда ограничение ещё можно сменить
+                Object timeout = request.getAttribute(TIMEOUT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+                if (timeout instanceof Duration duration && request instanceof AsyncWebRequest asyncRequest) {
+                    asyncRequest.setTimeout(duration.toMillis());
+                }
+            }
+
+            @Override
+            public <T> void preProcess(NativeWebRequest request, Callable<T> task) {
+                workers.put(task, Thread.currentThread());
+                queryDatabase.track();
+            }
+
+            @Override
+            public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object concurrentResult) {
+                queryDatabase.release();
+                workers.remove(task);
+            }
+
+            @Override
+            public <T> Object handleTimeout(NativeWebRequest request, Callable<T> task) {
+                Thread worker = workers.get(task);
+                if (worker != null) {
+                    queryDatabase.cancel(worker);
+                }
+                // Ответ 503 по таймауту формирует обработчик по умолчанию
+                return RESULT_NONE;
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        queryExecutor.shutdown();
+    }
+}
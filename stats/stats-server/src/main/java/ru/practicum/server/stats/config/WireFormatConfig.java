@@ -0,0 +1,24 @@
+package ru.practicum.server.stats.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import ru.practicum.stats.dto.StatsWireFormat;
+
+import java.util.List;
+
+/**
+ * Smile для клиентов, приславших Accept или Content-Type application/x-jackson-smile.
+ * Конвертер добавляется после JSON, поэтому без явного запроса ответ остаётся в JSON.
+ */
+@Configuration
+public class WireFormatConfig implements WebMvcConfigurer {
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        // Стандартный Smile-конвертер не знает о компактном формате времени хита
+        converters.removeIf(converter -> converter instanceof MappingJackson2SmileHttpMessageConverter);
+        converters.add(new MappingJackson2SmileHttpMessageConverter(StatsWireFormat.smileMapper()));
+    }
+}
@@ -0,0 +1,68 @@
+package ru.practicum.server.stats.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.practicum.server.stats.config.QueryExecutorConfig;
+import ru.practicum.server.stats.dto.StatsParamDto;
+import ru.practicum.server.stats.service.HitExporter;
+import ru.practicum.server.stats.service.HitImporter;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Выгрузка сырых хитов за диапазон. Строки уходят клиенту по мере чтения курсором,
+ * поэтому расход памяти не зависит от размера диапазона. Выгрузка пишется в пуле запросов статистики,
+ * как и /stats, и ограничена по времени stats.export.timeout вместо обычного request-timeout.
+ */
+@RestController
+@RequestMapping("/admin/hits/export")
+@RequiredArgsConstructor
+public class HitExportController {
+
+    public static final String GZIP = "application/gzip";
+
+    private final HitExporter hitExporter;
+
+    @Value("${stats.export.timeout:PT30M}")
+    private Duration exportTimeout;
+
+    @GetMapping
+    public ResponseEntity<StreamingResponseBody> exportHits(
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+            @RequestParam(required = false) List<String> uris,
+            @RequestParam(required = false) String app,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            HttpServletRequest request
+    ) {
+        HitImporter.Format exportFormat = HitImporter.formatOf(format);
+        StatsParamDto params = StatsParamDto.builder()
+                .start(start)
+                .end(end)
+                .uris(uris)
+                .app(app)
+                .build();
+        String extension = exportFormat.name().toLowerCase() + (gzip ? ".gz" : "");
+        request.setAttribute(QueryExecutorConfig.TIMEOUT_ATTRIBUTE, exportTimeout);
+        StreamingResponseBody body = output -> hitExporter.exportHits(params, exportFormat, gzip, output);
+        // Архив отдаётся файлом, а не через Content-Encoding, чтобы клиент не распаковывал его сам
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(gzip ? GZIP
+                        : exportFormat == HitImporter.Format.CSV ? HitImportController.CSV : StatsController.NDJSON))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"hits." + extension + "\"")
+                .body(body);
+    }
+}
@@ -0,0 +1,34 @@
+package ru.practicum.server.stats.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ru.practicum.server.stats.dto.ImportResultDto;
+import ru.practicum.server.stats.service.HitImporter;
+
+import java.io.IOException;
+
+/**
+ * Импорт исторических хитов. Тело запроса читается потоком и не собирается в памяти целиком.
+ */
+@RestController
+@RequestMapping("/admin/hits/import")
+@RequiredArgsConstructor
+public class HitImportController {
+
+    public static final String CSV = "text/csv";
+
+    private final HitImporter hitImporter;
+
+    @PostMapping(consumes = CSV)
+    public ImportResultDto importCsv(HttpServletRequest request) throws IOException {
+        return hitImporter.importHits(request.getInputStream(), HitImporter.Format.CSV);
+    }
+
+    @PostMapping(consumes = StatsController.NDJSON)
+    public ImportResultDto importNdjson(HttpServletRequest request) throws IOException {
+        return hitImporter.importHits(request.getInputStream(), HitImporter.Format.NDJSON);
+    }
+}
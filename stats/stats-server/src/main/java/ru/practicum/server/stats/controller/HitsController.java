@@ -1,6 +1,7 @@
 package ru.practicum.server.stats.controller;
 
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -8,20 +9,74 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import ru.practicum.server.stats.exceptions.UnavailableException;
+import ru.practicum.server.stats.service.HitBuffer;
+import ru.practicum.server.stats.service.HitDeduplicator;
 import ru.practicum.server.stats.service.StatsService;
 import ru.practicum.stats.dto.EndpointHitDto;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/hit")
 @RequiredArgsConstructor
 public class HitsController {
 
     private final StatsService statsService;
+    private final HitBuffer hitBuffer;
+    private final HitDeduplicator hitDeduplicator;
 
+    /**
+     * Повтор или схлопнутый хит не записывается, но отвечается 200, чтобы клиент не повторял его снова.
+     * Повтор хита, запись которого ещё идёт, отвечается 409. Хит, не принятый буфером, записывается синхронно.
+     * Пока буфер не может записать накопленное, новые хиты отклоняются с 503.
+     */
     @PostMapping
     public ResponseEntity<EndpointHitDto> saveHit(@RequestBody @Valid EndpointHitDto hitDto) {
-        EndpointHitDto saved = statsService.saveHit(hitDto);
-        return ResponseEntity.status(HttpStatus.CREATED).body(saved);
+        checkBuffer();
+        if (!hitDeduplicator.accept(hitDto)) {
+            return ResponseEntity.ok(hitDto);
+        }
+        if (hitBuffer.isEnabled() && hitBuffer.offer(hitDto)) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(hitDto);
+        }
+        try {
+            EndpointHitDto saved = statsService.saveHit(hitDto);
+            hitDeduplicator.confirmAll(List.of(hitDto));
+            return ResponseEntity.status(HttpStatus.CREATED).body(saved);
+        } catch (RuntimeException e) {
+            hitDeduplicator.forgetAll(List.of(hitDto));
+            throw e;
+        }
+    }
+
+    @PostMapping("/batch")
+    public ResponseEntity<Void> saveHits(@RequestBody @NotEmpty List<@Valid EndpointHitDto> hitDtos) {
+        checkBuffer();
+        List<EndpointHitDto> accepted = hitDeduplicator.acceptAll(hitDtos);
+        if (accepted.isEmpty()) {
+            return ResponseEntity.ok().build();
+        }
+        List<EndpointHitDto> direct = hitBuffer.isEnabled() ? hitBuffer.offerAll(accepted) : accepted;
+        if (direct.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).build();
+        }
+        try {
+            statsService.saveHits(direct);
+            hitDeduplicator.confirmAll(direct);
+        } catch (RuntimeException e) {
+            hitDeduplicator.forgetAll(direct);
+            throw e;
+        }
+        // Часть пачки могла остаться в буфере и ещё не записана
+        HttpStatus status = direct.size() == accepted.size() ? HttpStatus.CREATED : HttpStatus.ACCEPTED;
+        return ResponseEntity.status(status).build();
+    }
+
+    private void checkBuffer() {
+        if (hitBuffer.isFailing()) {
+            throw new UnavailableException("Запись хитов временно недоступна: не удаётся сохранить накопленные хиты");
+        }
     }
 
 }
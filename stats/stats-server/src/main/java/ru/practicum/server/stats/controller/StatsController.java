@@ -1,31 +1,145 @@
 package ru.practicum.server.stats.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.practicum.server.stats.config.QueryExecutorConfig;
+import ru.practicum.server.stats.dto.StatsParamDto;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.TimeBucket;
 import ru.practicum.server.stats.service.StatsService;
+import ru.practicum.stats.dto.ViewSeriesDto;
 import ru.practicum.stats.dto.ViewStatsDto;
+import ru.practicum.stats.dto.ViewersDto;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 @RestController
 @RequestMapping("/stats")
 @RequiredArgsConstructor
 public class StatsController {
 
+    public static final String NDJSON = "application/x-ndjson";
+
     private final StatsService statsService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${stats.query.stream-timeout:PT10M}")
+    private Duration streamTimeout;
 
+    /**
+     * Элемент uris, оканчивающийся на "*", задаёт префикс: uris=/events/* — все URI событий.
+     * Запросы статистики выполняются в пуле запросов (QueryExecutorConfig), а не в потоках Tomcat.
+     */
     @GetMapping
-    public List<ViewStatsDto> getStats(
+    public Callable<List<ViewStatsDto>> getStats(
             @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
             @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
             @RequestParam(required = false) List<String> uris,
+            @RequestParam(required = false) String app,
+            @RequestParam(defaultValue = "false") boolean unique,
+            @RequestParam(defaultValue = "false") boolean approximate,
+            @RequestParam(required = false) Integer limit
+    ) {
+        StatsParamDto params = toParams(start, end, uris, app, unique, approximate, limit);
+        return () -> statsService.getStats(params);
+    }
+
+    /**
+     * Та же статистика построчно в формате NDJSON: ответ уходит клиенту частями по мере чтения из БД.
+     * Ответ пишется дольше обычного запроса, поэтому ограничен stats.query.stream-timeout, а не request-timeout.
+     */
+    @GetMapping(produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamStats(
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+            @RequestParam(required = false) List<String> uris,
+            @RequestParam(required = false) String app,
+            @RequestParam(defaultValue = "false") boolean unique,
+            @RequestParam(defaultValue = "false") boolean approximate,
+            @RequestParam(required = false) Integer limit,
+            HttpServletRequest request
+    ) {
+        StatsParamDto params = toParams(start, end, uris, app, unique, approximate, limit);
+        request.setAttribute(QueryExecutorConfig.TIMEOUT_ATTRIBUTE, streamTimeout);
+        StreamingResponseBody body = output -> {
+            try (SequenceWriter writer = objectMapper.writer()
+                    .withRootValueSeparator("\n")
+                    .writeValues(output)) {
+                statsService.streamStats(params, stat -> {
+                    try {
+                        writer.write(stat);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(body);
+    }
+
+    /**
+     * Временной ряд по бакетам minute, hour или day для каждой пары приложение — URI.
+     */
+    @GetMapping("/timeseries")
+    public Callable<List<ViewSeriesDto>> getTimeSeries(
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+            @RequestParam(required = false) List<String> uris,
+            @RequestParam(required = false) String app,
+            @RequestParam(defaultValue = "hour") String bucket,
             @RequestParam(defaultValue = "false") boolean unique
     ) {
-        return statsService.getStats(start, end, uris, unique);
+        StatsParamDto params = toParams(start, end, uris, app, unique, false, null);
+        params.setBucket(TimeBucket.of(bucket));
+        return () -> statsService.getTimeSeries(params);
+    }
+
+    /**
+     * IP, смотревшие каждую пару приложение — URI из тела запроса. Пары передаются телом, а не параметром uris,
+     * поэтому "*" и запятая в URI не меняют смысла запроса. Клиент объединяет эти множества по шардам,
+     * чтобы точно посчитать уникальные просмотры URI, история которого лежит на нескольких шардах.
+     */
+    @PostMapping("/viewers")
+    public Callable<List<ViewersDto>> getViewers(
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+            @RequestBody List<ViewersDto> keys
+    ) {
+        StatsParamDto params = toParams(start, end, null, null, true, false, null);
+        List<StatsKey> statsKeys = keys.stream().map(key -> new StatsKey(key.getApp(), key.getUri())).toList();
+        return () -> statsService.getViewers(params, statsKeys);
+    }
+
+    private StatsParamDto toParams(LocalDateTime start, LocalDateTime end, List<String> uris, String app,
+                                   boolean unique, boolean approximate, Integer limit) {
+        return StatsParamDto.builder()
+                .start(start)
+                .end(end)
+                .uris(uris)
+                .app(app)
+                .unique(unique)
+                .approximate(approximate)
+                .limit(limit)
+                .build();
     }
 }
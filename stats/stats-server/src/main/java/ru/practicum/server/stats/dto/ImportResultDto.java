@@ -0,0 +1,15 @@
+package ru.practicum.server.stats.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class ImportResultDto {
+    private long imported;
+    private long skipped;
+    // Записанные хиты уже запечатанных дней: они видны в статистике только после следующего запечатывания
+    private long sealedPending;
+    private double seconds;
+    private long rowsPerSecond;
+}
@@ -0,0 +1,21 @@
+package ru.practicum.server.stats.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import ru.practicum.server.stats.model.TimeBucket;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder(toBuilder = true)
+public class StatsParamDto {
+    private LocalDateTime start;
+    private LocalDateTime end;
+    private List<String> uris;
+    private String app;
+    private boolean unique;
+    private boolean approximate;
+    private Integer limit;
+    private TimeBucket bucket;
+}
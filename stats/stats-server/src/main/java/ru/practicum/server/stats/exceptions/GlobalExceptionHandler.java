@@ -2,11 +2,15 @@ package ru.practicum.server.stats.exceptions;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import java.util.concurrent.RejectedExecutionException;
+
 @Slf4j
 @RestControllerAdvice
 public class GlobalExceptionHandler {
@@ -15,19 +19,58 @@ public class GlobalExceptionHandler {
     @ExceptionHandler(NotFoundException.class)
     public ResponseEntity<ErrorResponse> handleNotFoundException(NotFoundException e) {
         log.error("Объект не найден");
-        return new ResponseEntity<>(new ErrorResponse(e.getMessage()), HttpStatus.NOT_FOUND);
+        return errorResponse(e, HttpStatus.NOT_FOUND);
     }
 
     @ExceptionHandler(ValidationException.class)
     public ResponseEntity<ErrorResponse> handleValidationException(ValidationException e) {
         log.error("Ошибка с заполнением полей");
-        return new ResponseEntity<>(new ErrorResponse(e.getMessage()), HttpStatus.BAD_REQUEST);
+        return errorResponse(e, HttpStatus.BAD_REQUEST);
     }
 
     @ExceptionHandler(DuplicateException.class)
     public ResponseEntity<ErrorResponse> handleException(Exception e) {
         log.error("Данное действие уже выполнено");
-        return new ResponseEntity<>(new ErrorResponse(e.getMessage()), HttpStatus.BAD_REQUEST);
+        return errorResponse(e, HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Повтор хита, запись которого ещё идёт: клиент повторит его позже и получит ответ по итогу записи.
+     */
+    @ExceptionHandler(ConflictException.class)
+    public ResponseEntity<ErrorResponse> handleConflictException(ConflictException e) {
+        log.warn("Повтор хита до завершения записи: {}", e.getMessage());
+        return errorResponse(e, HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler(UnavailableException.class)
+    public ResponseEntity<ErrorResponse> handleUnavailableException(UnavailableException e) {
+        log.warn(e.getMessage());
+        return errorResponse(e, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Пул запросов статистики и его очередь заняты: запрос отклоняется сразу, а не ждёт в потоке Tomcat.
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<ErrorResponse> handleRejectedExecutionException(RejectedExecutionException e) {
+        log.warn("Запрос статистики отклонён: пул запросов перегружен");
+        return errorResponse(new RuntimeException("Слишком много одновременных запросов статистики"),
+                HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @ExceptionHandler(QueryTimeoutException.class)
+    public ResponseEntity<ErrorResponse> handleQueryTimeoutException(QueryTimeoutException e) {
+        log.warn("Запрос статистики отменён по таймауту", e);
+        return errorResponse(new RuntimeException("Запрос статистики не уложился в отведённое время"),
+                HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    private ResponseEntity<ErrorResponse> errorResponse(Exception e, HttpStatus status) {
+        // Тип задаётся явно, чтобы ошибка потокового запроса с Accept: application/x-ndjson тоже отдавалась в JSON
+        return ResponseEntity.status(status)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(new ErrorResponse(e.getMessage()));
     }
 
     @Getter
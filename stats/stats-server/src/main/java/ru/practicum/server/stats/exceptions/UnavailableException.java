@@ -0,0 +1,7 @@
+package ru.practicum.server.stats.exceptions;
+
+public class UnavailableException extends RuntimeException {
+    public UnavailableException(String message) {
+        super(message);
+    }
+}
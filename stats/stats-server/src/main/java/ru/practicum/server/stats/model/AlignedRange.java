@@ -0,0 +1,34 @@
+package ru.practicum.server.stats.model;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Диапазон [start, end], разбитый на целые бакеты [alignedStart, alignedEnd)
+ * и два неполных края: [start, alignedStart) и [alignedEnd, end].
+ */
+public record AlignedRange(LocalDateTime start,
+                           LocalDateTime alignedStart,
+                           LocalDateTime alignedEnd,
+                           LocalDateTime end) {
+
+    public static AlignedRange of(LocalDateTime start, LocalDateTime end, ChronoUnit bucket) {
+        LocalDateTime alignedStart = start.truncatedTo(bucket);
+        if (alignedStart.isBefore(start)) {
+            alignedStart = alignedStart.plus(1, bucket);
+        }
+        LocalDateTime alignedEnd = end.truncatedTo(bucket);
+        if (!alignedStart.isBefore(alignedEnd)) {
+            // Ни одного целого бакета: весь диапазон считается краем
+            return raw(start, end);
+        }
+        return new AlignedRange(start, alignedStart, alignedEnd, end);
+    }
+
+    /**
+     * Диапазон без целых бакетов: всё читается из сырых строк.
+     */
+    public static AlignedRange raw(LocalDateTime start, LocalDateTime end) {
+        return new AlignedRange(start, start, start, end);
+    }
+}
@@ -1,34 +0,0 @@
-package ru.practicum.server.stats.model;
-
-import jakarta.persistence.*;
-import lombok.*;
-
-import java.time.LocalDateTime;
-
-@Entity
-@Table(name = "endpoint_hits")
-@Getter
-@Setter
-@NoArgsConstructor
-@AllArgsConstructor
-@Builder
-public class EndpointHit {
-
-    @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
-    private Long id;
-
-    @ManyToOne
-    @JoinColumn(name = "app_id", nullable = false)
-    private App app;
-
-    @ManyToOne
-    @JoinColumn(name = "uri_id", nullable = false)
-    private Uri uri;
-
-    @Column(nullable = false, length = 45)
-    private String ip;
-
-    @Column(nullable = false)
-    private LocalDateTime timestamp;
-}
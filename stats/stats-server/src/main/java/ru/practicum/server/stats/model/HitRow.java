@@ -0,0 +1,6 @@
+package ru.practicum.server.stats.model;
+
+import java.time.LocalDateTime;
+
+public record HitRow(long appId, long uriId, String ip, long ipId, LocalDateTime timestamp) {
+}
@@ -0,0 +1,6 @@
+package ru.practicum.server.stats.model;
+
+import java.time.LocalDateTime;
+
+public record HourlyRow(long appId, long uriId, LocalDateTime bucket, long hits) {
+}
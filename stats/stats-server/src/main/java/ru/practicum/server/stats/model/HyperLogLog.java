@@ -0,0 +1,197 @@
+package ru.practicum.server.stats.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Скетч HyperLogLog для приблизительного подсчёта уникальных значений.
+ * Занимает 2^precision байт, стандартная относительная ошибка — 1.04 / sqrt(2^precision).
+ * Скетчи сливаются без потерь, поэтому суммы по любым диапазонам бакетов считаются слиянием.
+ * В сериализованном виде скетч с малым числом заполненных регистров хранится разреженно, по 3 байта
+ * на регистр: дневной скетч URI с десятком зрителей занимает десятки байт, а не 2^precision.
+ */
+public final class HyperLogLog {
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+
+    // Флаг разреженного формата в байте точности
+    private static final int SPARSE = 0x80;
+    // Разреженный регистр: индекс (до 18 бит) и ранг (до 6 бит) в 3 байтах
+    private static final int SPARSE_ENTRY_BYTES = 3;
+    private static final int RANK_BITS = 6;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Точность HLL должна быть от " + MIN_PRECISION + " до " + MAX_PRECISION);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    private HyperLogLog(int precision, byte[] registers) {
+        this.precision = precision;
+        this.registers = registers;
+    }
+
+    /**
+     * Плотный формат: первый байт — точность, далее все регистры. Разреженный: первый байт — точность
+     * с флагом 0x80, далее непустые регистры по возрастанию индекса, каждый — (индекс << 6 | ранг) в 3 байтах.
+     */
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        int precision = bytes[0] & ~SPARSE;
+        if ((bytes[0] & SPARSE) == 0) {
+            return new HyperLogLog(precision, Arrays.copyOfRange(bytes, 1, 1 + (1 << precision)));
+        }
+        byte[] registers = new byte[1 << precision];
+        for (int offset = 1; offset + SPARSE_ENTRY_BYTES <= bytes.length; offset += SPARSE_ENTRY_BYTES) {
+            int entry = (bytes[offset] & 0xff) << 16 | (bytes[offset + 1] & 0xff) << 8 | bytes[offset + 2] & 0xff;
+            registers[entry >>> RANK_BITS] = (byte) (entry & ((1 << RANK_BITS) - 1));
+        }
+        return new HyperLogLog(precision, registers);
+    }
+
+    /**
+     * Сериализует скетч в более короткий из двух форматов.
+     */
+    public byte[] toBytes() {
+        int filled = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                filled++;
+            }
+        }
+        if (filled * SPARSE_ENTRY_BYTES >= registers.length) {
+            byte[] bytes = new byte[registers.length + 1];
+            bytes[0] = (byte) precision;
+            System.arraycopy(registers, 0, bytes, 1, registers.length);
+            return bytes;
+        }
+        byte[] bytes = new byte[1 + filled * SPARSE_ENTRY_BYTES];
+        bytes[0] = (byte) (precision | SPARSE);
+        int offset = 1;
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] != 0) {
+                int entry = i << RANK_BITS | registers[i];
+                bytes[offset++] = (byte) (entry >>> 16);
+                bytes[offset++] = (byte) (entry >>> 8);
+                bytes[offset++] = (byte) entry;
+            }
+        }
+        return bytes;
+    }
+
+    public static double standardError(int precision) {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void add(String value) {
+        long hash = hash(value.getBytes(StandardCharsets.UTF_8));
+        int index = (int) (hash >>> (64 - precision));
+        // Ранг — позиция первой единицы в оставшихся битах; сторожевой бит ограничивает его сверху
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Сливает другой скетч в текущий. Скетч большей точности предварительно сворачивается до текущей.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision < precision) {
+            throw new IllegalArgumentException("Нельзя слить скетч меньшей точности в скетч большей точности");
+        }
+        HyperLogLog source = other.precision == precision ? other : other.fold(precision);
+        for (int i = 0; i < registers.length; i++) {
+            if (source.registers[i] > registers[i]) {
+                registers[i] = source.registers[i];
+            }
+        }
+    }
+
+    public HyperLogLog copy() {
+        return new HyperLogLog(precision, registers.clone());
+    }
+
+    /**
+     * Объединение двух скетчей в новый, исходные скетчи не меняются.
+     */
+    public static HyperLogLog union(HyperLogLog first, HyperLogLog second) {
+        HyperLogLog result = first.precision <= second.precision ? first.copy() : first.fold(second.precision);
+        result.merge(second);
+        return result;
+    }
+
+    public HyperLogLog fold(int targetPrecision) {
+        if (targetPrecision > precision) {
+            throw new IllegalArgumentException("Свернуть скетч можно только до меньшей точности");
+        }
+        HyperLogLog folded = new HyperLogLog(targetPrecision);
+        int shift = precision - targetPrecision;
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] == 0) {
+                continue;
+            }
+            // Младшие биты старого индекса становятся старшими битами остатка хэша
+            int droppedBits = i & ((1 << shift) - 1);
+            int rank = droppedBits == 0
+                    ? shift + registers[i]
+                    : Integer.numberOfLeadingZeros(droppedBits) - (32 - shift) + 1;
+            int index = i >>> shift;
+            if (rank > folded.registers[index]) {
+                folded.registers[index] = (byte) rank;
+            }
+        }
+        return folded;
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // Поправка линейного счёта для малых мощностей
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    private static double alpha(int m) {
+        return switch (m) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / m);
+        };
+    }
+
+    private static long hash(byte[] bytes) {
+        // FNV-1a с финализатором MurmurHash3 для равномерного распределения старших битов
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,6 @@
+package ru.practicum.server.stats.model;
+
+import java.time.LocalDate;
+
+public record SegmentRow(LocalDate day, int seq, String file, long rows) {
+}
@@ -0,0 +1,4 @@
+package ru.practicum.server.stats.model;
+
+public record StatsKey(String app, String uri) {
+}
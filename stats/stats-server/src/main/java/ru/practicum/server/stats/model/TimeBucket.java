@@ -0,0 +1,39 @@
+package ru.practicum.server.stats.model;
+
+import ru.practicum.server.stats.exceptions.ValidationException;
+
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Размер бакета временного ряда. Имя совпадает с единицей date_trunc в PostgreSQL.
+ */
+public enum TimeBucket {
+    MINUTE("minute", ChronoUnit.MINUTES),
+    HOUR("hour", ChronoUnit.HOURS),
+    DAY("day", ChronoUnit.DAYS);
+
+    private final String sqlUnit;
+    private final ChronoUnit unit;
+
+    TimeBucket(String sqlUnit, ChronoUnit unit) {
+        this.sqlUnit = sqlUnit;
+        this.unit = unit;
+    }
+
+    public String sqlUnit() {
+        return sqlUnit;
+    }
+
+    public ChronoUnit unit() {
+        return unit;
+    }
+
+    public static TimeBucket of(String name) {
+        for (TimeBucket bucket : values()) {
+            if (bucket.sqlUnit.equalsIgnoreCase(name)) {
+                return bucket;
+            }
+        }
+        throw new ValidationException("Размер бакета должен быть minute, hour или day");
+    }
+}
@@ -0,0 +1,6 @@
+package ru.practicum.server.stats.model;
+
+import java.time.LocalDateTime;
+
+public record TimeSeriesPoint(StatsKey key, LocalDateTime bucket, long count) {
+}
@@ -0,0 +1,9 @@
+package ru.practicum.server.stats.model;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.time.LocalDateTime;
+
+public record TotalsRow(long appId, long uriId, long hits, RoaringBitmap viewers,
+                        LocalDateTime firstHit, LocalDateTime lastHit) {
+}
@@ -0,0 +1,61 @@
+package ru.practicum.server.stats.model;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Фильтр запроса статистики: точные URI, префиксы (шаблоны вида "/events/*") и приложение.
+ * Списки отсортированы без повторов, поэтому одинаковые фильтры равны и годятся как ключ кэша.
+ */
+public record UriFilter(boolean anyUri, List<String> uris, List<String> prefixes, String app) {
+
+    public static final String WILDCARD = "*";
+
+    public static UriFilter of(List<String> patterns, String app) {
+        String appFilter = app == null || app.isBlank() ? null : app;
+        if (patterns == null || patterns.isEmpty()) {
+            return new UriFilter(true, List.of(), List.of(), appFilter);
+        }
+        List<String> prefixes = patterns.stream()
+                .filter(pattern -> pattern.endsWith(WILDCARD))
+                .map(pattern -> pattern.substring(0, pattern.length() - WILDCARD.length()))
+                .distinct()
+                .sorted()
+                .toList();
+        if (prefixes.contains("")) {
+            return new UriFilter(true, List.of(), List.of(), appFilter);
+        }
+        List<String> uris = patterns.stream()
+                .filter(pattern -> !pattern.endsWith(WILDCARD))
+                .distinct()
+                .sorted()
+                .toList();
+        return new UriFilter(false, uris, prefixes, appFilter);
+    }
+
+    /**
+     * Фильтр только по точным URI: "*" в конце URI не задаёт префикс.
+     */
+    public static UriFilter exact(Collection<String> uris) {
+        return new UriFilter(false, uris.stream().distinct().sorted().toList(), List.of(), null);
+    }
+
+    public boolean matches(String app, String uri) {
+        if (this.app != null && !this.app.equals(app)) {
+            return false;
+        }
+        return matchesUri(uri);
+    }
+
+    public boolean matchesUri(String uri) {
+        return anyUri || uris.contains(uri) || prefixes.stream().anyMatch(uri::startsWith);
+    }
+
+    /**
+     * Верхняя граница диапазона строк с данным префиксом: префикс с увеличенным последним символом.
+     */
+    public static String prefixUpperBound(String prefix) {
+        int last = prefix.codePointBefore(prefix.length());
+        return prefix.substring(0, prefix.length() - Character.charCount(last)) + Character.toString(last + 1);
+    }
+}
@@ -0,0 +1,6 @@
+package ru.practicum.server.stats.model;
+
+import java.time.LocalDate;
+
+public record ViewerDelta(long appId, long uriId, LocalDate bucket, long ipId, String ip) {
+}
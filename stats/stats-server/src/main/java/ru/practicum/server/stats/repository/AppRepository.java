@@ -1,10 +0,0 @@
-package ru.practicum.server.stats.repository;
-
-import org.springframework.data.jpa.repository.JpaRepository;
-import ru.practicum.server.stats.model.App;
-
-import java.util.Optional;
-
-public interface AppRepository extends JpaRepository<App, Long> {
-    Optional<App> findByName(String name);
-}
\ No newline at end of file
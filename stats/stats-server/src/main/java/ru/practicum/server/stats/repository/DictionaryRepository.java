@@ -0,0 +1,76 @@
+package ru.practicum.server.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+@RequiredArgsConstructor
+public class DictionaryRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public long getOrCreate(Dictionary dictionary, String value) {
+        // При конфликте RETURNING ничего не вернёт — значит запись уже вставил кто-то другой
+        List<Long> inserted = jdbcTemplate.queryForList(dictionary.insertSql, Long.class, value);
+        if (!inserted.isEmpty()) {
+            return inserted.getFirst();
+        }
+        return jdbcTemplate.queryForObject(dictionary.selectSql, Long.class, value);
+    }
+
+    /**
+     * Создаёт недостающие записи и возвращает id всех значений двумя запросами на весь набор.
+     */
+    public Map<String, Long> getOrCreateAll(Dictionary dictionary, Collection<String> values) {
+        String[] array = values.toArray(String[]::new);
+        PreparedStatementSetter bindValues = ps -> ps.setArray(1, ps.getConnection().createArrayOf("text", array));
+        jdbcTemplate.update(dictionary.insertAllSql, bindValues);
+        Map<String, Long> ids = new HashMap<>();
+        jdbcTemplate.query(dictionary.selectAllSql, bindValues,
+                rs -> {
+                    ids.put(rs.getString(2), rs.getLong(1));
+                });
+        return ids;
+    }
+
+    public Map<String, Long> findLatest(Dictionary dictionary, int limit) {
+        Map<String, Long> entries = new HashMap<>();
+        jdbcTemplate.query(dictionary.latestSql,
+                rs -> {
+                    entries.put(rs.getString(2), rs.getLong(1));
+                },
+                limit);
+        return entries;
+    }
+
+    public enum Dictionary {
+        APPS("apps", "name"),
+        URIS("uris", "uri"),
+        IPS("ips", "ip");
+
+        private final String insertSql;
+        private final String selectSql;
+        private final String latestSql;
+        private final String insertAllSql;
+        private final String selectAllSql;
+
+        Dictionary(String table, String column) {
+            this.insertSql = "INSERT INTO " + table + " (" + column + ") VALUES (?) " +
+                    "ON CONFLICT (" + column + ") DO NOTHING RETURNING id";
+            this.selectSql = "SELECT id FROM " + table + " WHERE " + column + " = ?";
+            this.latestSql = "SELECT id, " + column + " FROM " + table + " ORDER BY id DESC LIMIT ?";
+            // Сортировка задаёт одинаковый порядок блокировок при параллельных вставках
+            this.insertAllSql = "INSERT INTO " + table + " (" + column + ") " +
+                    "SELECT value FROM unnest(?::text[]) AS value ORDER BY value " +
+                    "ON CONFLICT (" + column + ") DO NOTHING";
+            this.selectAllSql = "SELECT id, " + column + " FROM " + table + " WHERE " + column + " = ANY(?::text[])";
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ru.practicum.server.stats.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.server.stats.config.QueryDatabase;
+import ru.practicum.server.stats.model.UriFilter;
+import ru.practicum.stats.dto.EndpointHitDto;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Выгрузка сырых хитов курсором: в памяти одновременно находится не больше одной порции строк.
+ */
+@Repository
+public class HitExportRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public HitExportRepository(QueryDatabase queryDatabase,
+                               @Value("${stats.export.fetch-size:10000}") int fetchSize,
+                               @Value("${stats.export.statement-timeout:PT30M}") Duration statementTimeout) {
+        // Длительность выгрузки зависит от объёма, поэтому ограничение времени у неё своё, больше обычного
+        this.jdbcTemplate = queryDatabase.streamingJdbcTemplate(fetchSize, statementTimeout);
+    }
+
+    /**
+     * Хиты диапазона [start, end] в порядке хранения, без сортировки: сортировка большого диапазона
+     * потребовала бы от БД материализовать его целиком. Должен вызываться в транзакции
+     * QueryDatabase.readOnly(), иначе драйвер PostgreSQL не открывает курсор и читает результат целиком.
+     */
+    public void streamHits(LocalDateTime start, LocalDateTime end, UriFilter filter,
+                           Consumer<EndpointHitDto> consumer) {
+        MapSqlParameterSource params = UriFilterSql.addParams(new MapSqlParameterSource()
+                .addValue("start", start)
+                .addValue("end", end), filter);
+        jdbcTemplate.query("SELECT h.id, a.name AS app, u.uri AS uri, i.ip AS ip, h.timestamp " +
+                        "FROM endpoint_hits h " +
+                        "JOIN apps a ON a.id = h.app_id " +
+                        "JOIN uris u ON u.id = h.uri_id " +
+                        "JOIN ips i ON i.id = h.ip_id " +
+                        "WHERE h.timestamp >= :start AND h.timestamp <= :end " +
+                        UriFilterSql.condition(filter, "h.uri_id", "h.app_id"),
+                params,
+                rs -> {
+                    consumer.accept(EndpointHitDto.builder()
+                            .id(rs.getLong("id"))
+                            .app(rs.getString("app"))
+                            .uri(rs.getString("uri"))
+                            .ip(rs.getString("ip"))
+                            .timestamp(rs.getObject("timestamp", LocalDateTime.class))
+                            .build());
+                });
+    }
+
+    /**
+     * Адреса по id справочника ips для хитов, выгруженных из сегментов.
+     */
+    public Map<Integer, String> findIps(Collection<Integer> ids) {
+        Map<Integer, String> ips = new HashMap<>();
+        if (ids.isEmpty()) {
+            return ips;
+        }
+        jdbcTemplate.query("SELECT id, ip FROM ips WHERE id IN (:ids)", new MapSqlParameterSource("ids", ids),
+                rs -> {
+                    ips.put(rs.getInt("id"), rs.getString("ip"));
+                });
+        return ips;
+    }
+}
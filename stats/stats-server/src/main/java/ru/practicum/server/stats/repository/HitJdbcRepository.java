@@ -0,0 +1,105 @@
+package ru.practicum.server.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+import ru.practicum.server.stats.model.HitRow;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Objects;
+
+@Repository
+@RequiredArgsConstructor
+public class HitJdbcRepository {
+
+    private static final String INSERT_HIT =
+            "INSERT INTO endpoint_hits (timestamp, app_id, uri_id, ip_id) VALUES (?, ?, ?, ?)";
+
+    private static final String COPY_HITS =
+            "COPY endpoint_hits (timestamp, app_id, uri_id, ip_id) FROM STDIN WITH (FORMAT csv)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${stats.ingest.jdbc-batch-size:500}")
+    private int jdbcBatchSize;
+
+    public long save(HitRow hit) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(INSERT_HIT, new String[]{"id"});
+            bind(ps, hit);
+            return ps;
+        }, keyHolder);
+        return Objects.requireNonNull(keyHolder.getKey()).longValue();
+    }
+
+    public void saveAll(List<HitRow> hits) {
+        jdbcTemplate.batchUpdate(INSERT_HIT, hits, jdbcBatchSize, this::bind);
+    }
+
+    /**
+     * Записывает хиты одной командой COPY. Вне PostgreSQL — пакетными INSERT.
+     */
+    public void copyAll(List<HitRow> hits) {
+        Boolean copied = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            if (!connection.isWrapperFor(PGConnection.class)) {
+                return false;
+            }
+            StringBuilder data = new StringBuilder(hits.size() * 48);
+            for (HitRow hit : hits) {
+                data.append(hit.timestamp()).append(',')
+                        .append(hit.appId()).append(',')
+                        .append(hit.uriId()).append(',')
+                        .append(hit.ipId()).append('\n');
+            }
+            try {
+                connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_HITS, new StringReader(data.toString()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        });
+        if (!Boolean.TRUE.equals(copied)) {
+            saveAll(hits);
+        }
+    }
+
+    public boolean hasLegacyIpColumn() {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM information_schema.columns " +
+                "WHERE table_name = 'endpoint_hits' AND column_name = 'ip')", Boolean.class));
+    }
+
+    /**
+     * Переводит хиты на компактный формат: IP заменяется id из справочника ips,
+     * id приложения и URI хранятся как INT.
+     */
+    public void migrateToCompactLayout() {
+        jdbcTemplate.update("INSERT INTO ips (ip) SELECT DISTINCT ip FROM endpoint_hits ON CONFLICT (ip) DO NOTHING");
+        jdbcTemplate.execute("ALTER TABLE endpoint_hits ADD COLUMN ip_id INT");
+        jdbcTemplate.update("UPDATE endpoint_hits h SET ip_id = i.id FROM ips i WHERE i.ip = h.ip");
+        // Смена типа колонок переписывает таблицу, заодно освобождая место после UPDATE
+        jdbcTemplate.execute("ALTER TABLE endpoint_hits " +
+                "ALTER COLUMN ip_id SET NOT NULL, " +
+                "ALTER COLUMN app_id TYPE INT, " +
+                "ALTER COLUMN uri_id TYPE INT, " +
+                "DROP COLUMN ip");
+        jdbcTemplate.execute("ALTER TABLE endpoint_hits ADD FOREIGN KEY (ip_id) REFERENCES ips(id) ON DELETE CASCADE");
+    }
+
+    private void bind(PreparedStatement ps, HitRow hit) throws SQLException {
+        ps.setObject(1, hit.timestamp());
+        ps.setLong(2, hit.appId());
+        ps.setLong(3, hit.uriId());
+        ps.setLong(4, hit.ipId());
+    }
+}
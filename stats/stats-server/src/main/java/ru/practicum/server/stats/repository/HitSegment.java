@@ -0,0 +1,233 @@
+package ru.practicum.server.stats.repository;
+
+import org.roaringbitmap.RoaringBitmap;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.UriFilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Неизменяемый сегмент хитов одного дня, отображённый в память. Хиты сгруппированы по (uri, app),
+ * каждая группа — две колонки varint: разности времени от начала дня и id IP из справочника ips.
+ * В конце файла лежат индекс групп и заголовок; индекс читается в кучу, колонки — прямо из отображения.
+ */
+public final class HitSegment {
+
+    static final int MAGIC = 0x48534731;
+    static final String TMP_SUFFIX = ".tmp";
+    public static final String PREFIX = "hits-";
+    public static final String SUFFIX = ".seg";
+    private static final int FOOTER_BYTES = 40;
+
+    private final LocalDate day;
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final long rows;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final List<Group> groups;
+    private final Map<String, List<Group>> groupsByUri;
+
+    private HitSegment(LocalDate day, Path file, ByteBuffer buffer, long rows, long minTimestamp,
+                       long maxTimestamp, List<Group> groups) {
+        this.day = day;
+        this.file = file;
+        this.buffer = buffer;
+        this.rows = rows;
+        this.minTimestamp = minTimestamp;
+        this.maxTimestamp = maxTimestamp;
+        this.groups = groups;
+        this.groupsByUri = new HashMap<>();
+        groups.forEach(group -> groupsByUri.computeIfAbsent(group.key().uri(), uri -> new ArrayList<>()).add(group));
+    }
+
+    public static String fileName(LocalDate day, int seq) {
+        return PREFIX + day + "-" + seq + SUFFIX;
+    }
+
+    public static HitSegment open(LocalDate day, Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Отображение остаётся действительным и после закрытия канала
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int footer = buffer.limit() - FOOTER_BYTES;
+        if (footer < 0 || buffer.getInt(buffer.limit() - Integer.BYTES) != MAGIC) {
+            throw new IOException("Файл " + file + " не является сегментом хитов");
+        }
+        long indexOffset = buffer.getLong(footer);
+        int groupCount = buffer.getInt(footer + 8);
+        long rows = buffer.getLong(footer + 12);
+        long minTimestamp = buffer.getLong(footer + 20);
+        long maxTimestamp = buffer.getLong(footer + 28);
+        ByteBuffer index = buffer.duplicate().position((int) indexOffset);
+        List<Group> groups = new ArrayList<>(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            index.getInt();
+            index.getInt();
+            int groupRows = index.getInt();
+            int offset = index.getInt();
+            int timestampsLength = index.getInt();
+            long groupMin = index.getLong();
+            long groupMax = index.getLong();
+            String app = readString(index);
+            String uri = readString(index);
+            groups.add(new Group(new StatsKey(app, uri), groupRows, offset, timestampsLength, groupMin, groupMax));
+        }
+        return new HitSegment(day, file, buffer, rows, minTimestamp, maxTimestamp, List.copyOf(groups));
+    }
+
+    public LocalDate day() {
+        return day;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public long rows() {
+        return rows;
+    }
+
+    public boolean overlaps(long from, long to) {
+        return rows > 0 && minTimestamp <= to && maxTimestamp >= from;
+    }
+
+    /**
+     * Группы, подходящие под фильтр. Точные URI ищутся по индексу, без перебора всех групп.
+     */
+    public void forEachGroup(UriFilter filter, Consumer<Group> consumer) {
+        Collection<Group> candidates = groups;
+        if (!filter.anyUri() && filter.prefixes().isEmpty()) {
+            candidates = filter.uris().stream()
+                    .flatMap(uri -> groupsByUri.getOrDefault(uri, List.of()).stream())
+                    .toList();
+        }
+        for (Group group : candidates) {
+            if (filter.matches(group.key().app(), group.key().uri())) {
+                consumer.accept(group);
+            }
+        }
+    }
+
+    /**
+     * Хиты группы в интервале [from, to]. Группа, целиком попавшая в интервал, не декодируется.
+     */
+    public long countHits(Group group, long from, long to) {
+        if (group.minTimestamp() >= from && group.maxTimestamp() <= to) {
+            return group.rows();
+        }
+        if (group.maxTimestamp() < from || group.minTimestamp() > to) {
+            return 0;
+        }
+        ByteBuffer timestamps = buffer.duplicate().position(group.offset());
+        long timestamp = dayStart();
+        long count = 0;
+        for (int i = 0; i < group.rows(); i++) {
+            timestamp += readVarint(timestamps);
+            if (timestamp > to) {
+                break;
+            }
+            if (timestamp >= from) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Добавляет id IP хитов группы в интервале [from, to] в битовую карту зрителей.
+     */
+    public void addViewers(Group group, long from, long to, RoaringBitmap viewers) {
+        if (group.maxTimestamp() < from || group.minTimestamp() > to) {
+            return;
+        }
+        ByteBuffer ips = buffer.duplicate().position(group.offset() + group.timestampsLength());
+        if (group.minTimestamp() >= from && group.maxTimestamp() <= to) {
+            for (int i = 0; i < group.rows(); i++) {
+                viewers.add(readVarint(ips));
+            }
+            return;
+        }
+        forEachHit(group, from, to, (timestamp, ipId) -> viewers.add(ipId));
+    }
+
+    /**
+     * Хиты группы в интервале [from, to] по возрастанию времени.
+     */
+    public void forEachHit(Group group, long from, long to, HitVisitor visitor) {
+        if (group.maxTimestamp() < from || group.minTimestamp() > to) {
+            return;
+        }
+        ByteBuffer timestamps = buffer.duplicate().position(group.offset());
+        ByteBuffer ips = buffer.duplicate().position(group.offset() + group.timestampsLength());
+        long timestamp = dayStart();
+        for (int i = 0; i < group.rows(); i++) {
+            timestamp += readVarint(timestamps);
+            int ipId = readVarint(ips);
+            if (timestamp > to) {
+                return;
+            }
+            if (timestamp >= from) {
+                visitor.accept(timestamp, ipId);
+            }
+        }
+    }
+
+    /**
+     * Время хита в секундах эпохи без учёта часового пояса, как и в таблице endpoint_hits.
+     */
+    public static long toSeconds(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    public static LocalDateTime toDateTime(long seconds) {
+        return LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+    }
+
+    private long dayStart() {
+        return toSeconds(day.atStartOfDay());
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public record Group(StatsKey key, int rows, int offset, int timestampsLength,
+                        long minTimestamp, long maxTimestamp) {
+    }
+
+    @FunctionalInterface
+    public interface HitVisitor {
+        void accept(long timestamp, int ipId);
+    }
+}
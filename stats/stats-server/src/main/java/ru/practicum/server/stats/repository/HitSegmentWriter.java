@@ -0,0 +1,184 @@
+package ru.practicum.server.stats.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Запись сегмента хитов одного дня в формате {@link HitSegment}. Строки принимаются упорядоченными
+ * по (uri_id, app_id, timestamp); в памяти держатся только колонки текущей группы и индекс.
+ * Файл пишется во временный и переименовывается после fsync, поэтому недописанный сегмент не виден.
+ * После переименования fsync проходит и по каталогу, иначе при сбое питания новое имя могло бы пропасть,
+ * хотя строки дня уже удалены из БД.
+ */
+public class HitSegmentWriter implements Closeable {
+
+    private final Path file;
+    private final Path tmpFile;
+    private final long dayStart;
+    private final FileOutputStream fileOutput;
+    private final DataOutputStream output;
+    private final List<IndexEntry> index = new ArrayList<>();
+    private final VarintBuffer timestamps = new VarintBuffer();
+    private final VarintBuffer ips = new VarintBuffer();
+    private long position;
+    private long rows;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+    private boolean finished;
+
+    private int groupUriId;
+    private int groupAppId;
+    private String groupApp;
+    private String groupUri;
+    private int groupRows;
+    private long groupMin;
+    private long lastTimestamp;
+
+    public HitSegmentWriter(Path file, LocalDate day) throws IOException {
+        this.file = file;
+        this.tmpFile = file.resolveSibling(file.getFileName() + HitSegment.TMP_SUFFIX);
+        this.dayStart = HitSegment.toSeconds(day.atStartOfDay());
+        this.fileOutput = new FileOutputStream(tmpFile.toFile());
+        this.output = new DataOutputStream(new BufferedOutputStream(fileOutput, 1 << 16));
+    }
+
+    public long rows() {
+        return rows;
+    }
+
+    /**
+     * Добавляет хит; timestamp — секунды эпохи в кодировке {@link HitSegment#toSeconds}.
+     */
+    public void add(int uriId, int appId, String app, String uri, long timestamp, int ipId) throws IOException {
+        if (groupRows == 0 || uriId != groupUriId || appId != groupAppId) {
+            flushGroup();
+            groupUriId = uriId;
+            groupAppId = appId;
+            groupApp = app;
+            groupUri = uri;
+            groupMin = timestamp;
+            lastTimestamp = dayStart;
+        }
+        // Внутри группы время не убывает, поэтому хранится разностями от предыдущего хита
+        timestamps.write((int) (timestamp - lastTimestamp));
+        ips.write(ipId);
+        lastTimestamp = timestamp;
+        groupRows++;
+        rows++;
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+    }
+
+    /**
+     * Дописывает индекс и заголовок в конце файла и делает сегмент видимым под итоговым именем.
+     */
+    public void finish() throws IOException {
+        flushGroup();
+        long indexOffset = position;
+        for (IndexEntry entry : index) {
+            output.writeInt(entry.uriId());
+            output.writeInt(entry.appId());
+            output.writeInt(entry.rows());
+            output.writeInt(entry.offset());
+            output.writeInt(entry.timestampsLength());
+            output.writeLong(entry.minTimestamp());
+            output.writeLong(entry.maxTimestamp());
+            writeString(entry.app());
+            writeString(entry.uri());
+        }
+        output.writeLong(indexOffset);
+        output.writeInt(index.size());
+        output.writeLong(rows);
+        output.writeLong(minTimestamp);
+        output.writeLong(maxTimestamp);
+        output.writeInt(HitSegment.MAGIC);
+        output.flush();
+        fileOutput.getFD().sync();
+        output.close();
+        Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+        try (FileChannel directory = FileChannel.open(file.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    /**
+     * Без {@link #finish()} удаляет недописанный файл.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            output.close();
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    private void flushGroup() throws IOException {
+        if (groupRows == 0) {
+            return;
+        }
+        if (position + timestamps.size() + ips.size() > Integer.MAX_VALUE) {
+            // Сегмент отображается в память одним буфером, размер которого ограничен int
+            throw new IOException("Сегмент дня больше 2 ГБ: " + file);
+        }
+        index.add(new IndexEntry(groupUriId, groupAppId, groupApp, groupUri, groupRows, (int) position,
+                timestamps.size(), groupMin, lastTimestamp));
+        position += timestamps.writeTo(output);
+        position += ips.writeTo(output);
+        groupRows = 0;
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    private record IndexEntry(int uriId, int appId, String app, String uri, int rows, int offset,
+                              int timestampsLength, long minTimestamp, long maxTimestamp) {
+    }
+
+    /**
+     * Колонка текущей группы в кодировке varint: 7 бит значения на байт, старший бит — продолжение.
+     */
+    private static final class VarintBuffer {
+
+        private byte[] bytes = new byte[1 << 12];
+        private int size;
+
+        void write(int value) {
+            if (size + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7f) != 0) {
+                bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int writeTo(DataOutputStream output) throws IOException {
+            int written = size;
+            output.write(bytes, 0, size);
+            size = 0;
+            return written;
+        }
+    }
+}
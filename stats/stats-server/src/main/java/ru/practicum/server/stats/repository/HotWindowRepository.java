@@ -0,0 +1,64 @@
+package ru.practicum.server.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Загрузка последних хитов для окна в памяти: только id и время, без строк справочников.
+ */
+@Repository
+@RequiredArgsConstructor
+public class HotWindowRepository {
+
+    private static final int FETCH_SIZE = 10000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Хиты с временем не раньше from в порядке чтения. Курсор открывается только внутри транзакции.
+     */
+    public void findSince(LocalDateTime from, HitConsumer consumer) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(
+                    "SELECT timestamp, app_id, uri_id, ip_id FROM endpoint_hits WHERE timestamp >= ?");
+            ps.setTimestamp(1, Timestamp.valueOf(from));
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            consumer.accept(rs.getObject("timestamp", LocalDateTime.class),
+                    rs.getInt("app_id"), rs.getInt("uri_id"), rs.getInt("ip_id"));
+        });
+    }
+
+    public Map<Integer, String> findAppNames(LocalDateTime from) {
+        return findNames("SELECT id, name FROM apps " +
+                "WHERE id IN (SELECT app_id FROM endpoint_hits WHERE timestamp >= ?)", from);
+    }
+
+    public Map<Integer, String> findUriNames(LocalDateTime from) {
+        return findNames("SELECT id, uri FROM uris " +
+                "WHERE id IN (SELECT uri_id FROM endpoint_hits WHERE timestamp >= ?)", from);
+    }
+
+    private Map<Integer, String> findNames(String sql, LocalDateTime from) {
+        Map<Integer, String> names = new HashMap<>();
+        jdbcTemplate.query(sql,
+                rs -> {
+                    names.put(rs.getInt(1), rs.getString(2));
+                },
+                from);
+        return names;
+    }
+
+    @FunctionalInterface
+    public interface HitConsumer {
+        void accept(LocalDateTime timestamp, int appId, int uriId, int ipId);
+    }
+}
@@ -0,0 +1,182 @@
+package ru.practicum.server.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Помесячные секции endpoint_hits. Хиты вне созданных секций попадают в endpoint_hits_default,
+ * откуда переносятся в свою секцию при её создании.
+ */
+@Repository
+@RequiredArgsConstructor
+public class PartitionRepository {
+
+    private static final String DEFAULT_PARTITION = "endpoint_hits_default";
+    private static final String PARTITION_PREFIX = "endpoint_hits_";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("'y'yyyy'm'MM");
+    private static final DateTimeFormatter BOUND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Ключ блокировки перестройки и обслуживания секций, общей для экземпляров, работающих с одной БД
+    private static final long PARTITION_LOCK = 0x48505431L;
+    private static final String MOVING_TABLE = "endpoint_hits_moving";
+
+    private static final List<String> INDEXES = List.of(
+            "CREATE INDEX IF NOT EXISTS endpoint_hits_uri_timestamp_idx ON endpoint_hits (uri_id, timestamp)",
+            "CREATE INDEX IF NOT EXISTS endpoint_hits_timestamp_brin_idx ON endpoint_hits USING BRIN (timestamp)");
+
+    private static final List<String> AGGREGATE_TABLES = List.of(
+            "endpoint_hits_hourly", "endpoint_hits_daily_hll", "endpoint_hits_daily_viewers",
+            "endpoint_hits_viewer_delta");
+    // Агрегаты, которые запросы читают только для незапечатанных дней. Остаток зрителей не входит:
+    // его строки ещё не слиты в счётчики ViewTotals
+    private static final List<String> SEALED_AGGREGATE_TABLES = List.of(
+            "endpoint_hits_hourly", "endpoint_hits_daily_hll", "endpoint_hits_daily_viewers");
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Блокировка секций до конца текущей транзакции: экземпляры, запущенные одновременно,
+     * перестраивают и обслуживают секции по очереди.
+     */
+    public void lock() {
+        jdbcTemplate.queryForList("SELECT pg_advisory_xact_lock(?)", PARTITION_LOCK);
+    }
+
+    public boolean isPartitioned() {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT relkind = 'p' FROM pg_class WHERE oid = 'endpoint_hits'::regclass", Boolean.class));
+    }
+
+    /**
+     * Переводит обычную таблицу endpoint_hits на секционирование: прежняя таблица становится
+     * секцией по умолчанию, данные из неё затем разносятся по месяцам через {@link #createPartition}.
+     */
+    public void convertToPartitioned() {
+        long maxId = Objects.requireNonNull(
+                jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM endpoint_hits", Long.class));
+        jdbcTemplate.execute("ALTER TABLE endpoint_hits RENAME TO " + DEFAULT_PARTITION);
+        // Таблица могла быть создана Hibernate с identity-колонкой и первичным ключом только по id
+        jdbcTemplate.execute("ALTER TABLE " + DEFAULT_PARTITION + " ALTER COLUMN id DROP IDENTITY IF EXISTS");
+        jdbcTemplate.execute("ALTER TABLE " + DEFAULT_PARTITION + " ALTER COLUMN id DROP DEFAULT");
+        jdbcTemplate.queryForList("SELECT conname FROM pg_constraint WHERE conrelid = ?::regclass AND contype = 'p'",
+                        String.class, DEFAULT_PARTITION)
+                .forEach(name -> jdbcTemplate.execute(
+                        "ALTER TABLE " + DEFAULT_PARTITION + " DROP CONSTRAINT \"" + name + "\""));
+
+        jdbcTemplate.execute("CREATE TABLE endpoint_hits (LIKE " + DEFAULT_PARTITION + ") " +
+                "PARTITION BY RANGE (timestamp)");
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS endpoint_hits_id_seq");
+        jdbcTemplate.execute("ALTER SEQUENCE endpoint_hits_id_seq OWNED BY endpoint_hits.id");
+        jdbcTemplate.queryForObject("SELECT setval('endpoint_hits_id_seq', ?, false)", Long.class, maxId + 1);
+        jdbcTemplate.execute("ALTER TABLE endpoint_hits ALTER COLUMN id SET DEFAULT nextval('endpoint_hits_id_seq')");
+        jdbcTemplate.execute("ALTER TABLE endpoint_hits ADD PRIMARY KEY (id, timestamp)");
+        jdbcTemplate.execute("ALTER TABLE endpoint_hits " +
+                "ADD FOREIGN KEY (app_id) REFERENCES apps(id) ON DELETE CASCADE");
+        jdbcTemplate.execute("ALTER TABLE endpoint_hits " +
+                "ADD FOREIGN KEY (uri_id) REFERENCES uris(id) ON DELETE CASCADE");
+        jdbcTemplate.execute("ALTER TABLE endpoint_hits ATTACH PARTITION " + DEFAULT_PARTITION + " DEFAULT");
+
+        // Индексы, созданные schema.sql на прежней таблице, пересоздаются на секционированной
+        jdbcTemplate.execute("DROP INDEX IF EXISTS endpoint_hits_timestamp_idx, endpoint_hits_uri_timestamp_idx, " +
+                "endpoint_hits_timestamp_brin_idx");
+        INDEXES.forEach(jdbcTemplate::execute);
+    }
+
+    public void createDefaultPartition() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + DEFAULT_PARTITION + " PARTITION OF endpoint_hits DEFAULT");
+    }
+
+    public List<YearMonth> findPartitions() {
+        return jdbcTemplate.queryForList("SELECT c.relname FROM pg_inherits i " +
+                                "JOIN pg_class c ON c.oid = i.inhrelid " +
+                                "WHERE i.inhparent = 'endpoint_hits'::regclass",
+                        String.class).stream()
+                .map(PartitionRepository::parseMonth)
+                .filter(Objects::nonNull)
+                .sorted()
+                .toList();
+    }
+
+    public List<YearMonth> findMonthsInDefaultPartition() {
+        return jdbcTemplate.queryForList("SELECT DISTINCT date_trunc('month', timestamp) FROM " + DEFAULT_PARTITION,
+                        LocalDateTime.class).stream()
+                .map(YearMonth::from)
+                .sorted()
+                .toList();
+    }
+
+    /**
+     * Создаёт секцию месяца, перенося в неё уже попавшие в секцию по умолчанию хиты. Повторный вызов
+     * для существующей секции ничего не меняет. Хиты месяца на время создания секции откладываются
+     * во временную таблицу: секцию нельзя создать, пока подходящие ей строки лежат в секции по умолчанию.
+     */
+    public void createPartition(YearMonth month) {
+        String name = partitionName(month);
+        LocalDateTime from = month.atDay(1).atStartOfDay();
+        LocalDateTime to = month.plusMonths(1).atDay(1).atStartOfDay();
+        // Блокировка не даёт вставить в секцию по умолчанию хит месяца, который не попал бы в перенос
+        jdbcTemplate.execute("LOCK TABLE " + DEFAULT_PARTITION + " IN SHARE ROW EXCLUSIVE MODE");
+        jdbcTemplate.execute("CREATE TEMPORARY TABLE " + MOVING_TABLE + " (LIKE endpoint_hits) ON COMMIT DROP");
+        int moved = jdbcTemplate.update("WITH moved AS (DELETE FROM " + DEFAULT_PARTITION +
+                        " WHERE timestamp >= ? AND timestamp < ? RETURNING *) " +
+                        "INSERT INTO " + MOVING_TABLE + " SELECT * FROM moved",
+                from, to);
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF endpoint_hits" +
+                " FOR VALUES FROM ('" + from.format(BOUND_FORMAT) + "') TO ('" + to.format(BOUND_FORMAT) + "')");
+        if (moved > 0) {
+            jdbcTemplate.update("INSERT INTO endpoint_hits SELECT * FROM " + MOVING_TABLE);
+        }
+    }
+
+    public void dropPartition(YearMonth month) {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + partitionName(month));
+    }
+
+    /**
+     * Освобождает место секции месяца, все дни которого перенесены в сегменты. TRUNCATE, в отличие от DELETE,
+     * сразу возвращает файлы секции ОС; блокировка не даёт вставить хит между проверкой и очисткой.
+     */
+    public boolean truncateIfEmpty(YearMonth month) {
+        String name = partitionName(month);
+        jdbcTemplate.execute("LOCK TABLE " + name + " IN ACCESS EXCLUSIVE MODE");
+        if (!jdbcTemplate.queryForList("SELECT 1 FROM " + name + " LIMIT 1").isEmpty()) {
+            return false;
+        }
+        jdbcTemplate.execute("TRUNCATE " + name);
+        return true;
+    }
+
+    public void deleteAggregatesBefore(LocalDateTime cutoff) {
+        AGGREGATE_TABLES.forEach(table -> jdbcTemplate.update("DELETE FROM " + table + " WHERE bucket < ?", cutoff));
+    }
+
+    /**
+     * Удаляет агрегаты дней раньше sealedUntil: запросы по этим дням читают сегменты.
+     */
+    public void deleteSealedAggregatesBefore(LocalDateTime sealedUntil) {
+        SEALED_AGGREGATE_TABLES.forEach(table ->
+                jdbcTemplate.update("DELETE FROM " + table + " WHERE bucket < ?", sealedUntil));
+    }
+
+    private static String partitionName(YearMonth month) {
+        return PARTITION_PREFIX + month.format(PARTITION_SUFFIX);
+    }
+
+    private static YearMonth parseMonth(String partitionName) {
+        if (!partitionName.startsWith(PARTITION_PREFIX)) {
+            return null;
+        }
+        try {
+            return YearMonth.parse(partitionName.substring(PARTITION_PREFIX.length()), PARTITION_SUFFIX);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
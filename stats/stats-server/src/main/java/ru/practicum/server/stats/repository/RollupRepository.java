@@ -0,0 +1,56 @@
+package ru.practicum.server.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.server.stats.model.HourlyRow;
+
+import java.util.Comparator;
+import java.util.List;
+
+@Repository
+@RequiredArgsConstructor
+public class RollupRepository {
+
+    private static final String UPSERT_HOURLY =
+            "INSERT INTO endpoint_hits_hourly (app_id, uri_id, bucket, hits) VALUES (?, ?, ?, ?) " +
+                    "ON CONFLICT (app_id, uri_id, bucket) " +
+                    "DO UPDATE SET hits = endpoint_hits_hourly.hits + EXCLUDED.hits";
+
+    private static final String INSERT_FROM_HITS =
+            "INSERT INTO endpoint_hits_hourly (app_id, uri_id, bucket, hits) " +
+                    "SELECT app_id, uri_id, date_trunc('hour', timestamp), COUNT(*) " +
+                    "FROM endpoint_hits " +
+                    "GROUP BY app_id, uri_id, date_trunc('hour', timestamp)";
+
+    private static final Comparator<HourlyRow> KEY_ORDER = Comparator.comparingLong(HourlyRow::appId)
+            .thenComparingLong(HourlyRow::uriId)
+            .thenComparing(HourlyRow::bucket);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Прибавляет приращения к почасовым счётчикам.
+     */
+    public void addHits(List<HourlyRow> increments) {
+        // Сортировка задаёт одинаковый порядок блокировок строк во всех транзакциях
+        List<HourlyRow> sorted = increments.stream().sorted(KEY_ORDER).toList();
+        jdbcTemplate.batchUpdate(UPSERT_HOURLY, sorted, sorted.size(), (ps, increment) -> {
+            ps.setLong(1, increment.appId());
+            ps.setLong(2, increment.uriId());
+            ps.setObject(3, increment.bucket());
+            ps.setLong(4, increment.hits());
+        });
+    }
+
+    public boolean isEmpty() {
+        return jdbcTemplate.queryForList("SELECT 1 FROM endpoint_hits_hourly LIMIT 1").isEmpty();
+    }
+
+    /**
+     * Заполняет почасовые счётчики по всем накопленным хитам; вызывается только для пустой таблицы.
+     */
+    public void rebuildFromHits() {
+        jdbcTemplate.update(INSERT_FROM_HITS);
+    }
+}
@@ -0,0 +1,126 @@
+package ru.practicum.server.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.server.stats.config.QueryDatabase;
+import ru.practicum.server.stats.model.SegmentRow;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Учёт сегментов хитов и перенос хитов запечатываемого дня из endpoint_hits.
+ */
+@Repository
+@RequiredArgsConstructor
+public class SegmentRepository {
+
+    private static final int FETCH_SIZE = 10000;
+    // Ключ блокировки запечатывания, общей для экземпляров, работающих с одной БД
+    private static final long SEAL_LOCK = 0x48534731L;
+    private static final String SELECT_SEALED_UNTIL = "SELECT sealed_until FROM hit_segments_state WHERE id = 1";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final QueryDatabase queryDatabase;
+
+    /**
+     * Блокировка запечатывания до конца текущей транзакции; false, если её держит другой экземпляр.
+     */
+    public boolean tryLock() {
+        return Boolean.TRUE.equals(
+                jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(?)", Boolean.class, SEAL_LOCK));
+    }
+
+    public List<SegmentRow> findAll() {
+        return jdbcTemplate.query("SELECT day, seq, file, rows FROM hit_segments ORDER BY day, seq",
+                (rs, rowNum) -> new SegmentRow(rs.getObject("day", LocalDate.class), rs.getInt("seq"),
+                        rs.getString("file"), rs.getLong("rows")));
+    }
+
+    public Optional<LocalDate> findSealedUntil() {
+        return jdbcTemplate.queryForList(SELECT_SEALED_UNTIL, LocalDate.class)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Граница для запросов статистики: читается через пул запросов, чтобы проверка не ждала соединения
+     * пула записи хитов, и всегда в основной БД, где её сдвигает запечатывание.
+     */
+    public Optional<LocalDate> findSealedUntilForQuery() {
+        return queryDatabase.onPrimary(() -> queryDatabase.jdbcTemplate().getJdbcOperations()
+                        .queryForList(SELECT_SEALED_UNTIL, LocalDate.class))
+                .stream()
+                .findFirst();
+    }
+
+    public void updateSealedUntil(LocalDate sealedUntil) {
+        jdbcTemplate.update("INSERT INTO hit_segments_state (id, sealed_until) VALUES (1, ?) " +
+                "ON CONFLICT (id) DO UPDATE SET sealed_until = " +
+                "GREATEST(hit_segments_state.sealed_until, EXCLUDED.sealed_until)", sealedUntil);
+    }
+
+    /**
+     * Дни раньше cutoff, за которые в endpoint_hits ещё есть хиты, по возрастанию.
+     */
+    public List<LocalDate> findDaysWithHitsBefore(LocalDate cutoff) {
+        return jdbcTemplate.queryForList("SELECT DISTINCT CAST(timestamp AS DATE) AS day FROM endpoint_hits " +
+                "WHERE timestamp < ? ORDER BY day", LocalDate.class, cutoff.atStartOfDay());
+    }
+
+    public int nextSeq(LocalDate day) {
+        return Objects.requireNonNull(jdbcTemplate.queryForObject(
+                "SELECT COALESCE(MAX(seq), 0) + 1 FROM hit_segments WHERE day = ?", Integer.class, day));
+    }
+
+    public void insert(SegmentRow segment) {
+        jdbcTemplate.update("INSERT INTO hit_segments (day, seq, file, rows) VALUES (?, ?, ?, ?)",
+                segment.day(), segment.seq(), segment.file(), segment.rows());
+    }
+
+    /**
+     * Удаляет учёт сегментов раньше cutoff и возвращает их файлы для удаления после фиксации.
+     */
+    public List<String> deleteBefore(LocalDate cutoff) {
+        return jdbcTemplate.queryForList("DELETE FROM hit_segments WHERE day < ? RETURNING file", String.class, cutoff);
+    }
+
+    /**
+     * Удаляет хиты дня из endpoint_hits и передаёт их потребителю в порядке (uri_id, app_id, timestamp).
+     * Удалённые строки вернутся на место, если транзакция откатится. Курсор открывается только в транзакции.
+     */
+    public void deleteDay(LocalDate day, SealedHitConsumer consumer) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(
+                    "WITH d AS (DELETE FROM endpoint_hits WHERE timestamp >= ? AND timestamp < ? " +
+                            "RETURNING timestamp, app_id, uri_id, ip_id) " +
+                            "SELECT d.timestamp, d.app_id, d.uri_id, d.ip_id, a.name AS app, u.uri AS uri " +
+                            "FROM d JOIN apps a ON a.id = d.app_id JOIN uris u ON u.id = d.uri_id " +
+                            "ORDER BY d.uri_id, d.app_id, d.timestamp");
+            ps.setObject(1, day.atStartOfDay());
+            ps.setObject(2, day.plusDays(1).atStartOfDay());
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            try {
+                consumer.accept(rs.getInt("uri_id"), rs.getInt("app_id"), rs.getString("app"), rs.getString("uri"),
+                        HitSegment.toSeconds(rs.getObject("timestamp", LocalDateTime.class)),
+                        rs.getInt("ip_id"));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    public interface SealedHitConsumer {
+        void accept(int uriId, int appId, String app, String uri, long timestamp, int ipId) throws IOException;
+    }
+}
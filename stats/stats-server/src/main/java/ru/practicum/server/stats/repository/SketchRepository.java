@@ -0,0 +1,184 @@
+package ru.practicum.server.stats.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.server.stats.config.QueryDatabase;
+import ru.practicum.server.stats.model.AlignedRange;
+import ru.practicum.server.stats.model.HyperLogLog;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.UriFilter;
+import ru.practicum.server.stats.model.ViewerDelta;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+@Repository
+public class SketchRepository {
+
+    private static final String INSERT_EMPTY =
+            "INSERT INTO endpoint_hits_daily_hll (app_id, uri_id, bucket, sketch) VALUES (?, ?, ?, ?) " +
+                    "ON CONFLICT (app_id, uri_id, bucket) DO NOTHING";
+
+    private static final String SELECT_FOR_UPDATE =
+            "SELECT sketch FROM endpoint_hits_daily_hll WHERE app_id = ? AND uri_id = ? AND bucket = ? FOR UPDATE";
+
+    private static final String UPDATE_SKETCH =
+            "UPDATE endpoint_hits_daily_hll SET sketch = ? WHERE app_id = ? AND uri_id = ? AND bucket = ?";
+
+    private static final String SELECT_ALL_HITS =
+            "SELECT h.app_id, h.uri_id, CAST(h.timestamp AS DATE) AS bucket, i.ip " +
+                    "FROM endpoint_hits h " +
+                    "JOIN ips i ON i.id = h.ip_id " +
+                    "ORDER BY h.app_id, h.uri_id, bucket";
+
+    private static final int REBUILD_FETCH_SIZE = 10000;
+
+    private static final Comparator<BucketKey> KEY_ORDER = Comparator.comparingLong(BucketKey::appId)
+            .thenComparingLong(BucketKey::uriId)
+            .thenComparing(BucketKey::bucket);
+
+    private final JdbcTemplate jdbcTemplate;
+    // Чтение агрегатов для запросов идёт через пул запросов, запись — через основной
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    public SketchRepository(JdbcTemplate jdbcTemplate, QueryDatabase queryDatabase) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = queryDatabase.jdbcTemplate();
+    }
+
+    /**
+     * Сливает накопленных зрителей в дневные скетчи: одна перезапись скетча на (app, uri, день)
+     * за всё слияние, а не на каждую пачку хитов.
+     */
+    public void addDeltas(List<ViewerDelta> deltas, int precision) {
+        // Сортировка задаёт одинаковый порядок блокировок строк во всех транзакциях
+        Map<BucketKey, List<String>> ipsByBucket = deltas.stream()
+                .collect(Collectors.groupingBy(
+                        delta -> new BucketKey(delta.appId(), delta.uriId(), delta.bucket()),
+                        () -> new TreeMap<>(KEY_ORDER),
+                        Collectors.mapping(ViewerDelta::ip, Collectors.toList())));
+        ipsByBucket.forEach((key, ips) -> merge(key, ips, precision));
+    }
+
+    /**
+     * Досчитывает скетчи по всем накопленным хитам, читая их курсором в порядке бакетов.
+     * Слияние скетчей идемпотентно, поэтому дни, уже имеющие скетч, от повторного добавления не портятся.
+     */
+    public void rebuildFromHits(int precision) {
+        BucketKey[] current = new BucketKey[1];
+        List<String> ips = new ArrayList<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(SELECT_ALL_HITS);
+            ps.setFetchSize(REBUILD_FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            BucketKey key = new BucketKey(rs.getLong("app_id"), rs.getLong("uri_id"),
+                    rs.getObject("bucket", LocalDate.class));
+            if (current[0] != null && !current[0].equals(key)) {
+                merge(current[0], ips, precision);
+                ips.clear();
+            }
+            current[0] = key;
+            ips.add(rs.getString("ip"));
+        });
+        if (current[0] != null) {
+            merge(current[0], ips, precision);
+        }
+    }
+
+    private void merge(BucketKey key, List<String> ips, int precision) {
+        jdbcTemplate.update(INSERT_EMPTY, key.appId(), key.uriId(), key.bucket(), new HyperLogLog(precision).toBytes());
+        byte[] stored = jdbcTemplate.queryForObject(SELECT_FOR_UPDATE, byte[].class,
+                key.appId(), key.uriId(), key.bucket());
+        HyperLogLog sketch = HyperLogLog.fromBytes(stored);
+        ips.forEach(sketch::add);
+        jdbcTemplate.update(UPDATE_SKETCH, sketch.toBytes(), key.appId(), key.uriId(), key.bucket());
+    }
+
+    /**
+     * Сливает дневные скетчи дней [from, to) вместе с ещё не слитыми зрителями. Скетчи и остаток
+     * читаются одним запросом: отдельные запросы могли бы увидеть слияние между ними и потерять зрителей.
+     */
+    public Map<StatsKey, HyperLogLog> mergeBuckets(LocalDateTime from, LocalDateTime to, UriFilter filter,
+                                                   int precision) {
+        MapSqlParameterSource params = UriFilterSql.addParams(new MapSqlParameterSource()
+                .addValue("from", from.toLocalDate())
+                .addValue("to", to.toLocalDate()), filter);
+        Map<StatsKey, HyperLogLog> sketches = new HashMap<>();
+        namedJdbcTemplate.query("SELECT a.name AS app, u.uri AS uri, s.sketch AS sketch, " +
+                        "CAST(NULL AS VARCHAR) AS ip " +
+                        "FROM endpoint_hits_daily_hll s " +
+                        "JOIN apps a ON a.id = s.app_id " +
+                        "JOIN uris u ON u.id = s.uri_id " +
+                        "WHERE s.bucket >= :from AND s.bucket < :to " +
+                        UriFilterSql.condition(filter, "s.uri_id", "s.app_id") +
+                        "UNION ALL " +
+                        "SELECT a.name, u.uri, CAST(NULL AS BYTEA), i.ip " +
+                        "FROM endpoint_hits_viewer_delta d " +
+                        "JOIN apps a ON a.id = d.app_id " +
+                        "JOIN uris u ON u.id = d.uri_id " +
+                        "JOIN ips i ON i.id = d.ip_id " +
+                        "WHERE d.bucket >= :from AND d.bucket < :to " +
+                        UriFilterSql.condition(filter, "d.uri_id", "d.app_id"),
+                params,
+                rs -> {
+                    StatsKey key = new StatsKey(rs.getString("app"), rs.getString("uri"));
+                    byte[] bytes = rs.getBytes("sketch");
+                    if (bytes == null) {
+                        sketches.computeIfAbsent(key, k -> new HyperLogLog(precision)).add(rs.getString("ip"));
+                        return;
+                    }
+                    HyperLogLog stored = HyperLogLog.fromBytes(bytes);
+                    HyperLogLog target = sketches.get(key);
+                    if (target == null) {
+                        sketches.put(key, stored.getPrecision() > precision ? stored.fold(precision) : stored);
+                        return;
+                    }
+                    if (stored.getPrecision() < target.getPrecision()) {
+                        // Скетчи, записанные с меньшей точностью, сливаются после сворачивания результата
+                        target = target.fold(stored.getPrecision());
+                        sketches.put(key, target);
+                    }
+                    target.merge(stored);
+                });
+        return sketches;
+    }
+
+    /**
+     * Добавляет в скетчи IP из сырых строк неполных краёв диапазона.
+     */
+    public void addEdges(AlignedRange range, UriFilter filter, int precision, Map<StatsKey, HyperLogLog> sketches) {
+        MapSqlParameterSource params = UriFilterSql.addParams(new MapSqlParameterSource()
+                .addValue("start", range.start())
+                .addValue("alignedStart", range.alignedStart())
+                .addValue("alignedEnd", range.alignedEnd())
+                .addValue("end", range.end()), filter);
+        namedJdbcTemplate.query("SELECT DISTINCT a.name AS app, u.uri AS uri, i.ip AS ip " +
+                        "FROM endpoint_hits h " +
+                        "JOIN ips i ON i.id = h.ip_id " +
+                        "JOIN apps a ON a.id = h.app_id " +
+                        "JOIN uris u ON u.id = h.uri_id " +
+                        "WHERE ((h.timestamp >= :start AND h.timestamp < :alignedStart) " +
+                        "OR (h.timestamp >= :alignedEnd AND h.timestamp <= :end)) " +
+                        UriFilterSql.condition(filter, "h.uri_id", "h.app_id"),
+                params,
+                rs -> {
+                    sketches.computeIfAbsent(new StatsKey(rs.getString("app"), rs.getString("uri")),
+                                    key -> new HyperLogLog(precision))
+                            .add(rs.getString("ip"));
+                });
+    }
+
+    private record BucketKey(long appId, long uriId, LocalDate bucket) {
+    }
+}
@@ -0,0 +1,120 @@
+package ru.practicum.server.stats.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.server.stats.config.QueryDatabase;
+import ru.practicum.server.stats.model.AlignedRange;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.UriFilter;
+import ru.practicum.stats.dto.ViewStatsDto;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+@Repository
+public class StatsQueryRepository {
+
+    private static final RowMapper<ViewStatsDto> VIEW_STATS_MAPPER = (rs, rowNum) ->
+            new ViewStatsDto(rs.getString("app"), rs.getString("uri"), rs.getLong("hits"));
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate streamingJdbcTemplate;
+
+    public StatsQueryRepository(QueryDatabase queryDatabase,
+                                @Value("${stats.query.fetch-size:1000}") int fetchSize) {
+        this.jdbcTemplate = queryDatabase.jdbcTemplate();
+        // Отдельный шаблон с fetch size, чтобы потоковые запросы читали результат курсором, а не целиком
+        this.streamingJdbcTemplate = queryDatabase.streamingJdbcTemplate(fetchSize);
+    }
+
+    public List<ViewStatsDto> getStats(AlignedRange range, UriFilter filter, Integer limit) {
+        return jdbcTemplate.query(statsSql(filter, limit), statsParams(range, filter, limit), VIEW_STATS_MAPPER);
+    }
+
+    /**
+     * Поток строк статистики, читаемый курсором. Должен вызываться в транзакции QueryDatabase.readOnly()
+     * и закрываться после чтения.
+     */
+    public Stream<ViewStatsDto> streamStats(AlignedRange range, UriFilter filter, Integer limit) {
+        return streamingJdbcTemplate.queryForStream(statsSql(filter, limit), statsParams(range, filter, limit),
+                VIEW_STATS_MAPPER);
+    }
+
+    /**
+     * Число хитов по целым часам [from, to) из endpoint_hits_hourly.
+     */
+    public Map<StatsKey, Long> countBuckets(LocalDateTime from, LocalDateTime to, UriFilter filter) {
+        MapSqlParameterSource params = UriFilterSql.addParams(new MapSqlParameterSource()
+                .addValue("from", from)
+                .addValue("to", to), filter);
+        Map<StatsKey, Long> hits = new HashMap<>();
+        jdbcTemplate.query("SELECT a.name AS app, u.uri AS uri, SUM(h.hits) AS hits " +
+                        "FROM endpoint_hits_hourly h " +
+                        "JOIN apps a ON a.id = h.app_id " +
+                        "JOIN uris u ON u.id = h.uri_id " +
+                        "WHERE h.bucket >= :from AND h.bucket < :to " +
+                        UriFilterSql.condition(filter, "h.uri_id", "h.app_id") +
+                        "GROUP BY a.name, u.uri",
+                params,
+                rs -> {
+                    hits.put(new StatsKey(rs.getString("app"), rs.getString("uri")), rs.getLong("hits"));
+                });
+        return hits;
+    }
+
+    /**
+     * Добавляет число хитов из сырых строк неполных краёв диапазона.
+     */
+    public void addEdges(AlignedRange range, UriFilter filter, Map<StatsKey, Long> hits) {
+        jdbcTemplate.query("SELECT a.name AS app, u.uri AS uri, COUNT(*) AS hits " +
+                        "FROM endpoint_hits h " +
+                        "JOIN apps a ON a.id = h.app_id " +
+                        "JOIN uris u ON u.id = h.uri_id " +
+                        "WHERE ((h.timestamp >= :start AND h.timestamp < :alignedStart) " +
+                        "OR (h.timestamp >= :alignedEnd AND h.timestamp <= :end)) " +
+                        UriFilterSql.condition(filter, "h.uri_id", "h.app_id") +
+                        "GROUP BY a.name, u.uri",
+                statsParams(range, filter, null),
+                rs -> {
+                    hits.merge(new StatsKey(rs.getString("app"), rs.getString("uri")), rs.getLong("hits"), Long::sum);
+                });
+    }
+
+    /**
+     * Целые часы берутся из endpoint_hits_hourly, сырые строки читаются только для неполных краёв диапазона.
+     * С LIMIT PostgreSQL держит в сортировке только top-N групп вместо сортировки всего набора.
+     */
+    private String statsSql(UriFilter filter, Integer limit) {
+        String uriFilter = UriFilterSql.condition(filter, "uri_id", "app_id");
+        return "SELECT a.name AS app, u.uri AS uri, SUM(h.hits) AS hits " +
+                "FROM (" +
+                "SELECT app_id, uri_id, hits FROM endpoint_hits_hourly " +
+                "WHERE bucket >= :alignedStart AND bucket < :alignedEnd " + uriFilter +
+                "UNION ALL " +
+                "SELECT app_id, uri_id, COUNT(*) FROM endpoint_hits " +
+                "WHERE ((timestamp >= :start AND timestamp < :alignedStart) " +
+                "OR (timestamp >= :alignedEnd AND timestamp <= :end)) " + uriFilter +
+                "GROUP BY app_id, uri_id" +
+                ") h " +
+                "JOIN apps a ON a.id = h.app_id " +
+                "JOIN uris u ON u.id = h.uri_id " +
+                "GROUP BY a.name, u.uri " +
+                "ORDER BY hits DESC" +
+                (limit == null ? "" : " LIMIT :limit");
+    }
+
+    private MapSqlParameterSource statsParams(AlignedRange range, UriFilter filter, Integer limit) {
+        return UriFilterSql.addParams(new MapSqlParameterSource(), filter)
+                .addValue("start", range.start())
+                .addValue("alignedStart", range.alignedStart())
+                .addValue("alignedEnd", range.alignedEnd())
+                .addValue("end", range.end())
+                .addValue("limit", limit);
+    }
+}
@@ -0,0 +1,105 @@
+package ru.practicum.server.stats.repository;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.server.stats.config.QueryDatabase;
+import ru.practicum.server.stats.model.AlignedRange;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.TimeBucket;
+import ru.practicum.server.stats.model.TimeSeriesPoint;
+import ru.practicum.server.stats.model.UriFilter;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Временные ряды по бакетам. Целые бакеты диапазона читаются из агрегатов,
+ * сырые строки — только для неполных краёв.
+ */
+@Repository
+public class TimeSeriesRepository {
+
+    private static final RowMapper<TimeSeriesPoint> POINT_MAPPER = (rs, rowNum) -> new TimeSeriesPoint(
+            new StatsKey(rs.getString("app"), rs.getString("uri")),
+            rs.getObject("bucket", LocalDateTime.class),
+            rs.getLong("hits"));
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public TimeSeriesRepository(QueryDatabase queryDatabase) {
+        this.jdbcTemplate = queryDatabase.jdbcTemplate();
+    }
+
+    /**
+     * Хиты по бакетам: целые часы из endpoint_hits_hourly сворачиваются до размера бакета.
+     * Для минутных бакетов диапазон передаётся без целых часов и читается из сырых строк.
+     */
+    public List<TimeSeriesPoint> countHits(AlignedRange range, TimeBucket bucket, UriFilter filter) {
+        String unit = bucket.sqlUnit();
+        return jdbcTemplate.query("SELECT a.name AS app, u.uri AS uri, t.bucket AS bucket, SUM(t.hits) AS hits " +
+                        "FROM (" +
+                        "SELECT app_id, uri_id, date_trunc('" + unit + "', bucket) AS bucket, hits " +
+                        "FROM endpoint_hits_hourly " +
+                        "WHERE bucket >= :alignedStart AND bucket < :alignedEnd " +
+                        UriFilterSql.condition(filter, "uri_id", "app_id") +
+                        "UNION ALL " +
+                        "SELECT app_id, uri_id, date_trunc('" + unit + "', timestamp), COUNT(*) " +
+                        "FROM endpoint_hits " +
+                        "WHERE ((timestamp >= :start AND timestamp < :alignedStart) " +
+                        "OR (timestamp >= :alignedEnd AND timestamp <= :end)) " +
+                        UriFilterSql.condition(filter, "uri_id", "app_id") +
+                        "GROUP BY 1, 2, 3" +
+                        ") t " +
+                        "JOIN apps a ON a.id = t.app_id " +
+                        "JOIN uris u ON u.id = t.uri_id " +
+                        "GROUP BY a.name, u.uri, t.bucket",
+                params(range, filter), POINT_MAPPER);
+    }
+
+    /**
+     * Уникальные IP по бакетам. Целые дни — мощность дневных битовых карт, остальное —
+     * COUNT(DISTINCT) по сырым строкам; поэтому целые бакеты передаются только для дневного ряда.
+     */
+    public List<TimeSeriesPoint> countViewers(AlignedRange range, TimeBucket bucket, UriFilter filter) {
+        MapSqlParameterSource params = params(range, filter);
+        List<TimeSeriesPoint> points = new ArrayList<>();
+        jdbcTemplate.query("SELECT a.name AS app, u.uri AS uri, v.bucket AS bucket, v.viewers AS viewers " +
+                        "FROM endpoint_hits_daily_viewers v " +
+                        "JOIN apps a ON a.id = v.app_id " +
+                        "JOIN uris u ON u.id = v.uri_id " +
+                        "WHERE v.bucket >= :alignedStartDay AND v.bucket < :alignedEndDay " +
+                        UriFilterSql.condition(filter, "v.uri_id", "v.app_id"),
+                params,
+                rs -> {
+                    points.add(new TimeSeriesPoint(new StatsKey(rs.getString("app"), rs.getString("uri")),
+                            rs.getObject("bucket", LocalDate.class).atStartOfDay(),
+                            ViewerBitmapRepository.deserialize(rs.getBytes("viewers")).getLongCardinality()));
+                });
+        points.addAll(jdbcTemplate.query("SELECT a.name AS app, u.uri AS uri, " +
+                        "date_trunc('" + bucket.sqlUnit() + "', h.timestamp) AS bucket, " +
+                        "COUNT(DISTINCT h.ip_id) AS hits " +
+                        "FROM endpoint_hits h " +
+                        "JOIN apps a ON a.id = h.app_id " +
+                        "JOIN uris u ON u.id = h.uri_id " +
+                        "WHERE ((h.timestamp >= :start AND h.timestamp < :alignedStart) " +
+                        "OR (h.timestamp >= :alignedEnd AND h.timestamp <= :end)) " +
+                        UriFilterSql.condition(filter, "h.uri_id", "h.app_id") +
+                        "GROUP BY 1, 2, 3",
+                params, POINT_MAPPER));
+        return points;
+    }
+
+    private MapSqlParameterSource params(AlignedRange range, UriFilter filter) {
+        return UriFilterSql.addParams(new MapSqlParameterSource(), filter)
+                .addValue("start", range.start())
+                .addValue("alignedStart", range.alignedStart())
+                .addValue("alignedEnd", range.alignedEnd())
+                .addValue("alignedStartDay", range.alignedStart().toLocalDate())
+                .addValue("alignedEndDay", range.alignedEnd().toLocalDate())
+                .addValue("end", range.end());
+    }
+}
@@ -0,0 +1,211 @@
+package ru.practicum.server.stats.repository;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.server.stats.config.QueryDatabase;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.TotalsRow;
+import ru.practicum.server.stats.model.UriFilter;
+import ru.practicum.server.stats.model.ViewerDelta;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+/**
+ * Счётчики хитов и уникальных зрителей по (app_id, uri_id) за всё время. Хиты прибавляются
+ * периодическим сбросом накопленных в памяти приращений, зрители сливаются из endpoint_hits_viewer_delta
+ * вместе с дневными картами.
+ */
+@Repository
+public class TotalsRepository {
+
+    private static final String UPSERT_TOTALS =
+            "INSERT INTO endpoint_hits_totals (app_id, uri_id, hits, viewers, first_hit, last_hit) " +
+                    "VALUES (?, ?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (app_id, uri_id) DO UPDATE SET hits = endpoint_hits_totals.hits + EXCLUDED.hits, " +
+                    "first_hit = LEAST(endpoint_hits_totals.first_hit, EXCLUDED.first_hit), " +
+                    "last_hit = GREATEST(endpoint_hits_totals.last_hit, EXCLUDED.last_hit)";
+
+    // Строка для зрителей, чьи хиты ещё не сброшены: время хита известно с точностью до дня
+    private static final String INSERT_EMPTY =
+            "INSERT INTO endpoint_hits_totals (app_id, uri_id, hits, viewers, first_hit, last_hit) " +
+                    "VALUES (?, ?, 0, ?, ?, ?) ON CONFLICT (app_id, uri_id) DO NOTHING";
+
+    private static final String SELECT_VIEWERS_FOR_UPDATE =
+            "SELECT viewers FROM endpoint_hits_totals WHERE app_id = ? AND uri_id = ? FOR UPDATE";
+
+    private static final String UPDATE_VIEWERS =
+            "UPDATE endpoint_hits_totals SET viewers = ? WHERE app_id = ? AND uri_id = ?";
+
+    private static final String SELECT_ALL_VIEWERS =
+            "SELECT app_id, uri_id, viewers FROM endpoint_hits_daily_viewers";
+
+    private static final int REBUILD_FETCH_SIZE = 1000;
+
+    private static final Comparator<TotalsRow> KEY_ORDER = Comparator.comparingLong(TotalsRow::appId)
+            .thenComparingLong(TotalsRow::uriId);
+
+    private static final Comparator<TotalsKey> TOTALS_KEY_ORDER = Comparator.comparingLong(TotalsKey::appId)
+            .thenComparingLong(TotalsKey::uriId);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate queryJdbcTemplate;
+
+    public TotalsRepository(JdbcTemplate jdbcTemplate, QueryDatabase queryDatabase) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.queryJdbcTemplate = queryDatabase.jdbcTemplate();
+    }
+
+    public boolean isEmpty() {
+        return jdbcTemplate.queryForList("SELECT 1 FROM endpoint_hits_totals LIMIT 1").isEmpty();
+    }
+
+    /**
+     * До конца транзакции не даёт другим экземплярам прибавлять хиты: построение по агрегатам
+     * не должно затереть строки, вставленные параллельной записью.
+     */
+    public void lock() {
+        jdbcTemplate.execute("LOCK TABLE endpoint_hits_totals IN SHARE ROW EXCLUSIVE MODE");
+    }
+
+    /**
+     * Прибавляет приращения хитов к счётчикам. Зрители в строку не пишутся: их сливает фоновая свёртка.
+     */
+    public void addHits(List<TotalsRow> rows) {
+        // Сортировка задаёт одинаковый порядок блокировок строк во всех транзакциях
+        List<TotalsRow> sorted = rows.stream().sorted(KEY_ORDER).toList();
+        jdbcTemplate.batchUpdate(UPSERT_TOTALS, sorted, sorted.size(), (ps, row) -> {
+            ps.setLong(1, row.appId());
+            ps.setLong(2, row.uriId());
+            ps.setLong(3, row.hits());
+            ps.setBytes(4, ViewerBitmapRepository.serialize(
+                    row.viewers() == null ? new RoaringBitmap() : row.viewers()));
+            ps.setObject(5, row.firstHit());
+            ps.setObject(6, row.lastHit());
+        });
+    }
+
+    /**
+     * Объединяет id зрителей с картами счётчиков. Если хиты ключа ещё не сброшены, строка создаётся пустой.
+     */
+    public void addViewers(List<ViewerDelta> deltas) {
+        // Сортировка задаёт одинаковый порядок блокировок строк во всех транзакциях
+        Map<TotalsKey, RoaringBitmap> viewersByKey = deltas.stream()
+                .collect(Collectors.groupingBy(
+                        delta -> new TotalsKey(delta.appId(), delta.uriId()),
+                        () -> new TreeMap<>(TOTALS_KEY_ORDER),
+                        Collector.of(RoaringBitmap::new,
+                                (viewers, delta) -> viewers.add((int) delta.ipId()),
+                                (left, right) -> {
+                                    left.or(right);
+                                    return left;
+                                })));
+        Map<TotalsKey, LocalDateTime> firstDays = deltas.stream()
+                .collect(Collectors.toMap(delta -> new TotalsKey(delta.appId(), delta.uriId()),
+                        delta -> delta.bucket().atStartOfDay(), TotalsRepository::min));
+        viewersByKey.forEach((key, added) -> {
+            LocalDateTime day = firstDays.get(key);
+            jdbcTemplate.update(INSERT_EMPTY, key.appId(), key.uriId(),
+                    ViewerBitmapRepository.serialize(new RoaringBitmap()), day, day);
+            byte[] stored = jdbcTemplate.queryForObject(SELECT_VIEWERS_FOR_UPDATE, byte[].class,
+                    key.appId(), key.uriId());
+            RoaringBitmap viewers = ViewerBitmapRepository.deserialize(stored);
+            viewers.or(added);
+            jdbcTemplate.update(UPDATE_VIEWERS, ViewerBitmapRepository.serialize(viewers), key.appId(), key.uriId());
+        });
+    }
+
+    /**
+     * Самый ранний и самый поздний хит среди всех счётчиков; пусто, если счётчиков нет.
+     */
+    public Optional<Bounds> findBounds() {
+        return jdbcTemplate.query("SELECT MIN(first_hit) AS first_hit, MAX(last_hit) AS last_hit " +
+                        "FROM endpoint_hits_totals",
+                (rs, rowNum) -> new Bounds(rs.getObject("first_hit", LocalDateTime.class),
+                        rs.getObject("last_hit", LocalDateTime.class)))
+                .stream()
+                .filter(bounds -> bounds.firstHit() != null)
+                .findFirst();
+    }
+
+    /**
+     * Счётчики ключей, подходящих под фильтр; карты зрителей читаются, только если они нужны.
+     */
+    public Map<StatsKey, TotalsRow> findMatching(UriFilter filter, boolean withViewers) {
+        Map<StatsKey, TotalsRow> totals = new HashMap<>();
+        queryJdbcTemplate.query("SELECT t.app_id, t.uri_id, a.name AS app, u.uri AS uri, t.hits, " +
+                        (withViewers ? "t.viewers, " : "") + "t.first_hit, t.last_hit " +
+                        "FROM endpoint_hits_totals t " +
+                        "JOIN apps a ON a.id = t.app_id " +
+                        "JOIN uris u ON u.id = t.uri_id " +
+                        "WHERE TRUE " +
+                        UriFilterSql.condition(filter, "t.uri_id", "t.app_id"),
+                UriFilterSql.addParams(new MapSqlParameterSource(), filter),
+                rs -> {
+                    totals.put(new StatsKey(rs.getString("app"), rs.getString("uri")),
+                            new TotalsRow(rs.getLong("app_id"), rs.getLong("uri_id"), rs.getLong("hits"),
+                                    withViewers ? ViewerBitmapRepository.deserialize(rs.getBytes("viewers")) : null,
+                                    rs.getObject("first_hit", LocalDateTime.class),
+                                    rs.getObject("last_hit", LocalDateTime.class)));
+                });
+        return totals;
+    }
+
+    /**
+     * Строит счётчики по агрегатам: хиты — из почасовых бакетов, зрители — объединением дневных карт
+     * и ещё не слитых зрителей. Время первого и последнего хита известно с точностью до часа и берётся с запасом.
+     * Вызывается на пустой таблице под {@link #lock()}.
+     */
+    public void rebuildFromAggregates() {
+        Map<TotalsKey, TotalsRow> totals = new HashMap<>();
+        jdbcTemplate.query("SELECT app_id, uri_id, SUM(hits) AS hits, MIN(bucket) AS first_hit, " +
+                        "MAX(bucket) + INTERVAL '1 hour' AS last_hit " +
+                        "FROM endpoint_hits_hourly GROUP BY app_id, uri_id",
+                rs -> {
+                    long appId = rs.getLong("app_id");
+                    long uriId = rs.getLong("uri_id");
+                    totals.put(new TotalsKey(appId, uriId), new TotalsRow(appId, uriId, rs.getLong("hits"),
+                            new RoaringBitmap(),
+                            rs.getObject("first_hit", LocalDateTime.class),
+                            rs.getObject("last_hit", LocalDateTime.class)));
+                });
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(SELECT_ALL_VIEWERS);
+            ps.setFetchSize(REBUILD_FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            TotalsRow row = totals.get(new TotalsKey(rs.getLong("app_id"), rs.getLong("uri_id")));
+            if (row != null) {
+                row.viewers().or(ViewerBitmapRepository.deserialize(rs.getBytes("viewers")));
+            }
+        });
+        jdbcTemplate.query("SELECT app_id, uri_id, ip_id FROM endpoint_hits_viewer_delta", rs -> {
+            TotalsRow row = totals.get(new TotalsKey(rs.getLong("app_id"), rs.getLong("uri_id")));
+            if (row != null) {
+                row.viewers().add(rs.getInt("ip_id"));
+            }
+        });
+        addHits(List.copyOf(totals.values()));
+    }
+
+    private static LocalDateTime min(LocalDateTime left, LocalDateTime right) {
+        return right.isBefore(left) ? right : left;
+    }
+
+    private record TotalsKey(long appId, long uriId) {
+    }
+
+    public record Bounds(LocalDateTime firstHit, LocalDateTime lastHit) {
+    }
+}
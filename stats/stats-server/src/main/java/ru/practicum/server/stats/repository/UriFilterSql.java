@@ -0,0 +1,48 @@
+package ru.practicum.server.stats.repository;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import ru.practicum.server.stats.model.UriFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Условие фильтра по URI и приложению для запросов к хитам и агрегатам.
+ * Точные URI и диапазоны префиксов разрешаются в id по индексам справочника uris,
+ * поэтому список всех подходящих URI в запрос не передаётся.
+ */
+final class UriFilterSql {
+
+    private UriFilterSql() {
+    }
+
+    static String condition(UriFilter filter, String uriIdColumn, String appIdColumn) {
+        StringBuilder sql = new StringBuilder();
+        if (!filter.anyUri()) {
+            List<String> matches = new ArrayList<>();
+            if (!filter.uris().isEmpty()) {
+                matches.add("uri IN (:uris)");
+            }
+            for (int i = 0; i < filter.prefixes().size(); i++) {
+                // Сравнение в порядке байтов: по индексу uris_uri_prefix_idx выбирается диапазон строк с префиксом
+                matches.add("(uri COLLATE \"C\" >= :prefixFrom" + i + " AND uri COLLATE \"C\" < :prefixTo" + i + ")");
+            }
+            sql.append("AND ").append(uriIdColumn).append(" IN (SELECT id FROM uris WHERE ")
+                    .append(String.join(" OR ", matches)).append(") ");
+        }
+        if (filter.app() != null) {
+            sql.append("AND ").append(appIdColumn).append(" = (SELECT id FROM apps WHERE name = :app) ");
+        }
+        return sql.toString();
+    }
+
+    static MapSqlParameterSource addParams(MapSqlParameterSource params, UriFilter filter) {
+        params.addValue("uris", filter.uris());
+        for (int i = 0; i < filter.prefixes().size(); i++) {
+            String prefix = filter.prefixes().get(i);
+            params.addValue("prefixFrom" + i, prefix);
+            params.addValue("prefixTo" + i, UriFilter.prefixUpperBound(prefix));
+        }
+        return params.addValue("app", filter.app());
+    }
+}
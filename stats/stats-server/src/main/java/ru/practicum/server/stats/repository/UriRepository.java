@@ -1,10 +0,0 @@
-package ru.practicum.server.stats.repository;
-
-import org.springframework.data.jpa.repository.JpaRepository;
-import ru.practicum.server.stats.model.Uri;
-
-import java.util.Optional;
-
-public interface UriRepository extends JpaRepository<Uri, Long> {
-    Optional<Uri> findByUri(String uri);
-}
\ No newline at end of file
@@ -0,0 +1,221 @@
+package ru.practicum.server.stats.repository;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.server.stats.config.QueryDatabase;
+import ru.practicum.server.stats.model.AlignedRange;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.UriFilter;
+import ru.practicum.server.stats.model.ViewerDelta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+/**
+ * Сжатые битовые карты id зрителей (IP из справочника ips) по (app_id, uri_id, день).
+ */
+@Repository
+public class ViewerBitmapRepository {
+
+    private static final String INSERT_EMPTY =
+            "INSERT INTO endpoint_hits_daily_viewers (app_id, uri_id, bucket, viewers) VALUES (?, ?, ?, ?) " +
+                    "ON CONFLICT (app_id, uri_id, bucket) DO NOTHING";
+
+    private static final String SELECT_FOR_UPDATE =
+            "SELECT viewers FROM endpoint_hits_daily_viewers " +
+                    "WHERE app_id = ? AND uri_id = ? AND bucket = ? FOR UPDATE";
+
+    private static final String UPDATE_VIEWERS =
+            "UPDATE endpoint_hits_daily_viewers SET viewers = ? WHERE app_id = ? AND uri_id = ? AND bucket = ?";
+
+    private static final String SELECT_DAY_HITS =
+            "SELECT app_id, uri_id, ip_id FROM endpoint_hits " +
+                    "WHERE timestamp >= ? AND timestamp < ? " +
+                    "ORDER BY app_id, uri_id";
+
+    private static final int REBUILD_FETCH_SIZE = 10000;
+
+    private static final Comparator<BucketKey> KEY_ORDER = Comparator.comparingLong(BucketKey::appId)
+            .thenComparingLong(BucketKey::uriId)
+            .thenComparing(BucketKey::bucket);
+
+    private final JdbcTemplate jdbcTemplate;
+    // Чтение агрегатов для запросов идёт через пул запросов, запись — через основной
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    public ViewerBitmapRepository(JdbcTemplate jdbcTemplate, QueryDatabase queryDatabase) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = queryDatabase.jdbcTemplate();
+    }
+
+    public void addDeltas(List<ViewerDelta> deltas) {
+        // Сортировка задаёт одинаковый порядок блокировок строк во всех транзакциях
+        Map<BucketKey, RoaringBitmap> viewersByBucket = deltas.stream()
+                .collect(Collectors.groupingBy(
+                        delta -> new BucketKey(delta.appId(), delta.uriId(), delta.bucket()),
+                        () -> new TreeMap<>(KEY_ORDER),
+                        Collector.of(RoaringBitmap::new,
+                                (viewers, delta) -> viewers.add((int) delta.ipId()),
+                                (left, right) -> {
+                                    left.or(right);
+                                    return left;
+                                })));
+        viewersByBucket.forEach(this::merge);
+    }
+
+    public boolean isEmpty() {
+        return jdbcTemplate.queryForList("SELECT 1 FROM endpoint_hits_daily_viewers LIMIT 1").isEmpty();
+    }
+
+    /**
+     * Первый и последний день с сырыми хитами; пусто, если хитов нет.
+     */
+    public Optional<HitDays> findHitDays() {
+        return jdbcTemplate.query("SELECT CAST(MIN(timestamp) AS DATE) AS first_day, " +
+                                "CAST(MAX(timestamp) AS DATE) AS last_day FROM endpoint_hits",
+                        (rs, rowNum) -> new HitDays(rs.getObject("first_day", LocalDate.class),
+                                rs.getObject("last_day", LocalDate.class))).stream()
+                .filter(days -> days.first() != null)
+                .findFirst();
+    }
+
+    /**
+     * Добавляет в битовые карты дня всех зрителей его сырых хитов, читая их курсором в порядке ключей.
+     * Добавление объединяет множества, поэтому повтор и параллельное слияние остатка карты не портят.
+     */
+    public void rebuildDay(LocalDate day) {
+        BucketKey[] current = new BucketKey[1];
+        RoaringBitmap viewers = new RoaringBitmap();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(SELECT_DAY_HITS);
+            ps.setFetchSize(REBUILD_FETCH_SIZE);
+            ps.setObject(1, day.atStartOfDay());
+            ps.setObject(2, day.plusDays(1).atStartOfDay());
+            return ps;
+        }, rs -> {
+            BucketKey key = new BucketKey(rs.getLong("app_id"), rs.getLong("uri_id"), day);
+            if (current[0] != null && !current[0].equals(key)) {
+                merge(current[0], viewers);
+                viewers.clear();
+            }
+            current[0] = key;
+            viewers.add(rs.getInt("ip_id"));
+        });
+        if (current[0] != null) {
+            merge(current[0], viewers);
+        }
+    }
+
+    /**
+     * Объединяет дневные карты дней [from, to) вместе с ещё не слитыми зрителями этих дней.
+     */
+    public Map<StatsKey, RoaringBitmap> mergeBuckets(LocalDateTime from, LocalDateTime to, UriFilter filter) {
+        MapSqlParameterSource params = UriFilterSql.addParams(new MapSqlParameterSource()
+                .addValue("from", from.toLocalDate())
+                .addValue("to", to.toLocalDate()), filter);
+        Map<StatsKey, RoaringBitmap> viewers = new HashMap<>();
+        namedJdbcTemplate.query("SELECT a.name AS app, u.uri AS uri, v.viewers AS viewers, " +
+                        "CAST(NULL AS INT) AS ip_id " +
+                        "FROM endpoint_hits_daily_viewers v " +
+                        "JOIN apps a ON a.id = v.app_id " +
+                        "JOIN uris u ON u.id = v.uri_id " +
+                        "WHERE v.bucket >= :from AND v.bucket < :to " +
+                        UriFilterSql.condition(filter, "v.uri_id", "v.app_id") +
+                        "UNION ALL " +
+                        "SELECT a.name, u.uri, CAST(NULL AS BYTEA), d.ip_id " +
+                        "FROM endpoint_hits_viewer_delta d " +
+                        "JOIN apps a ON a.id = d.app_id " +
+                        "JOIN uris u ON u.id = d.uri_id " +
+                        "WHERE d.bucket >= :from AND d.bucket < :to " +
+                        UriFilterSql.condition(filter, "d.uri_id", "d.app_id"),
+                params,
+                rs -> {
+                    RoaringBitmap target = viewers.computeIfAbsent(
+                            new StatsKey(rs.getString("app"), rs.getString("uri")), key -> new RoaringBitmap());
+                    byte[] bytes = rs.getBytes("viewers");
+                    if (bytes == null) {
+                        target.add(rs.getInt("ip_id"));
+                    } else {
+                        target.or(deserialize(bytes));
+                    }
+                });
+        return viewers;
+    }
+
+    /**
+     * Добавляет id зрителей из сырых строк неполных краёв диапазона.
+     */
+    public void addEdges(AlignedRange range, UriFilter filter, Map<StatsKey, RoaringBitmap> viewers) {
+        MapSqlParameterSource params = UriFilterSql.addParams(new MapSqlParameterSource()
+                .addValue("start", range.start())
+                .addValue("alignedStart", range.alignedStart())
+                .addValue("alignedEnd", range.alignedEnd())
+                .addValue("end", range.end()), filter);
+        namedJdbcTemplate.query("SELECT DISTINCT a.name AS app, u.uri AS uri, h.ip_id AS ip_id " +
+                        "FROM endpoint_hits h " +
+                        "JOIN apps a ON a.id = h.app_id " +
+                        "JOIN uris u ON u.id = h.uri_id " +
+                        "WHERE ((h.timestamp >= :start AND h.timestamp < :alignedStart) " +
+                        "OR (h.timestamp >= :alignedEnd AND h.timestamp <= :end)) " +
+                        UriFilterSql.condition(filter, "h.uri_id", "h.app_id"),
+                params,
+                rs -> {
+                    viewers.computeIfAbsent(new StatsKey(rs.getString("app"), rs.getString("uri")),
+                                    key -> new RoaringBitmap())
+                            .add(rs.getInt("ip_id"));
+                });
+    }
+
+    private void merge(BucketKey key, RoaringBitmap added) {
+        jdbcTemplate.update(INSERT_EMPTY, key.appId(), key.uriId(), key.bucket(), serialize(new RoaringBitmap()));
+        byte[] stored = jdbcTemplate.queryForObject(SELECT_FOR_UPDATE, byte[].class,
+                key.appId(), key.uriId(), key.bucket());
+        RoaringBitmap viewers = deserialize(stored);
+        viewers.or(added);
+        jdbcTemplate.update(UPDATE_VIEWERS, serialize(viewers), key.appId(), key.uriId(), key.bucket());
+    }
+
+    static byte[] serialize(RoaringBitmap bitmap) {
+        bitmap.runOptimize();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(bitmap.serializedSizeInBytes());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            bitmap.serialize(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static RoaringBitmap deserialize(byte[] bytes) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        try {
+            bitmap.deserialize(ByteBuffer.wrap(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bitmap;
+    }
+
+    private record BucketKey(long appId, long uriId, LocalDate bucket) {
+    }
+
+    public record HitDays(LocalDate first, LocalDate last) {
+    }
+}
@@ -0,0 +1,78 @@
+package ru.practicum.server.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.server.stats.model.HitRow;
+import ru.practicum.server.stats.model.ViewerDelta;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Зрители новых хитов до слияния в дневные скетчи и битовые карты. Запись только дописывает строки,
+ * поэтому писатели одного URI не ждут друг друга на блокировке строки агрегата.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ViewerDeltaRepository {
+
+    private static final String INSERT_DELTA =
+            "INSERT INTO endpoint_hits_viewer_delta (app_id, uri_id, bucket, ip_id) VALUES (?, ?, ?, ?)";
+
+    // Занятые параллельным слиянием строки пропускаются, а не ожидаются
+    private static final String DRAIN =
+            "WITH d AS (DELETE FROM endpoint_hits_viewer_delta WHERE ctid = ANY(ARRAY(" +
+                    "SELECT ctid FROM endpoint_hits_viewer_delta LIMIT ? FOR UPDATE SKIP LOCKED)) " +
+                    "RETURNING app_id, uri_id, bucket, ip_id) " +
+                    "SELECT d.app_id, d.uri_id, d.bucket, d.ip_id, i.ip FROM d JOIN ips i ON i.id = d.ip_id";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void addHits(List<HitRow> hits) {
+        // Повторы зрителя внутри пачки на результат слияния не влияют
+        Set<DeltaKey> deltas = hits.stream()
+                .map(hit -> new DeltaKey(hit.appId(), hit.uriId(), hit.timestamp().toLocalDate(), hit.ipId()))
+                .collect(Collectors.toSet());
+        jdbcTemplate.batchUpdate(INSERT_DELTA, deltas, deltas.size(), (ps, delta) -> {
+            ps.setLong(1, delta.appId());
+            ps.setLong(2, delta.uriId());
+            ps.setObject(3, delta.bucket());
+            ps.setLong(4, delta.ipId());
+        });
+    }
+
+    /**
+     * Удаляет и возвращает до limit строк для слияния; при откате транзакции строки вернутся.
+     */
+    public List<ViewerDelta> drain(int limit) {
+        return jdbcTemplate.query(DRAIN,
+                (rs, rowNum) -> new ViewerDelta(rs.getLong("app_id"), rs.getLong("uri_id"),
+                        rs.getObject("bucket", LocalDate.class), rs.getLong("ip_id"), rs.getString("ip")),
+                limit);
+    }
+
+    /**
+     * До конца транзакции не даёт другим экземплярам выполнять то же однократное заполнение:
+     * экземпляры, запущенные одновременно, проверяют отметку по очереди.
+     */
+    public void lockBackfill(String name) {
+        jdbcTemplate.queryForList("SELECT pg_advisory_xact_lock(hashtext(?))", name);
+    }
+
+    /**
+     * Однократное заполнение уже выполнено на этой БД.
+     */
+    public boolean isBackfilled(String name) {
+        return !jdbcTemplate.queryForList("SELECT 1 FROM aggregate_backfills WHERE name = ?", name).isEmpty();
+    }
+
+    public void markBackfilled(String name) {
+        jdbcTemplate.update("INSERT INTO aggregate_backfills (name) VALUES (?) ON CONFLICT (name) DO NOTHING", name);
+    }
+
+    private record DeltaKey(long appId, long uriId, LocalDate bucket, long ipId) {
+    }
+}
@@ -0,0 +1,116 @@
+package ru.practicum.server.stats.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.server.stats.repository.DictionaryRepository;
+import ru.practicum.server.stats.repository.DictionaryRepository.Dictionary;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Кэш справочников приложений, URI и IP-адресов: строка -> id.
+ * В установившемся режиме запись хита не делает ни одного запроса к справочникам.
+ * <p>
+ * id разрешаются до открытия транзакции записи хита: промах кэша вставляет строку справочника
+ * отдельным автофиксируемым запросом и не держит второе соединение пула, пока первое ждёт его внутри
+ * транзакции хита. Запрос к БД выполняется вне вычисления кэша, поэтому промах не блокирует соседние ключи;
+ * параллельные промахи одного значения безопасны, так как создание записи идемпотентно.
+ */
+@Slf4j
+@Component
+public class DictionaryCache {
+
+    private final DictionaryRepository dictionaryRepository;
+    private final int maxSize;
+    private final Map<Dictionary, Cache<String, Long>> caches = new EnumMap<>(Dictionary.class);
+
+    public DictionaryCache(DictionaryRepository dictionaryRepository,
+                           MeterRegistry meterRegistry,
+                           @Value("${stats.dictionary.max-size:100000}") int maxSize) {
+        this.dictionaryRepository = dictionaryRepository;
+        this.maxSize = maxSize;
+        for (Dictionary dictionary : Dictionary.values()) {
+            Cache<String, Long> cache = Caffeine.newBuilder()
+                    .maximumSize(maxSize)
+                    .recordStats()
+                    .build();
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, "stats.dictionary." + dictionary.name().toLowerCase());
+            caches.put(dictionary, cache);
+        }
+    }
+
+    public long getAppId(String name) {
+        return getId(Dictionary.APPS, name);
+    }
+
+    public long getUriId(String uri) {
+        return getId(Dictionary.URIS, uri);
+    }
+
+    public long getIpId(String ip) {
+        return getId(Dictionary.IPS, ip);
+    }
+
+    /**
+     * id набора значений: промахи кэша разрешаются одним пакетным запросом.
+     */
+    public Map<String, Long> getIds(Dictionary dictionary, Collection<String> values) {
+        Cache<String, Long> cache = caches.get(dictionary);
+        Map<String, Long> ids = new HashMap<>(cache.getAllPresent(values));
+        if (ids.size() < values.size()) {
+            List<String> missing = values.stream().filter(value -> !ids.containsKey(value)).toList();
+            checkNoTransaction();
+            Map<String, Long> created = dictionaryRepository.getOrCreateAll(dictionary, missing);
+            cache.putAll(created);
+            ids.putAll(created);
+        }
+        return ids;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            caches.forEach((dictionary, cache) -> {
+                cache.putAll(dictionaryRepository.findLatest(dictionary, maxSize));
+                log.info("Справочник {} прогрет: {} записей", dictionary, cache.estimatedSize());
+            });
+        } catch (DataAccessException e) {
+            // Без прогрева кэш просто заполнится по мере поступления хитов
+            log.warn("Не удалось прогреть кэш справочников", e);
+        }
+    }
+
+    private long getId(Dictionary dictionary, String value) {
+        Cache<String, Long> cache = caches.get(dictionary);
+        Long id = cache.getIfPresent(value);
+        if (id == null) {
+            checkNoTransaction();
+            id = dictionaryRepository.getOrCreate(dictionary, value);
+            cache.put(value, id);
+        }
+        return id;
+    }
+
+    /**
+     * Запись справочника, созданная внутри чужой транзакции, пропала бы при её откате,
+     * а id остался бы в кэше, поэтому промахи разрешаются только вне транзакций.
+     */
+    private static void checkNoTransaction() {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Справочники разрешаются до начала транзакции записи");
+        }
+    }
+}
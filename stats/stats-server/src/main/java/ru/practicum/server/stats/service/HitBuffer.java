@@ -0,0 +1,251 @@
+package ru.practicum.server.stats.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.dto.EndpointHitDto;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Буфер отложенной записи хитов: запрос /hit только кладёт хит в очередь,
+ * а отдельный поток сбрасывает накопленное в БД пачками по размеру или по таймеру.
+ * Хит, не принятый буфером (очередь заполнена или буфер остановлен), вызывающий пишет сам,
+ * поэтому буфер не теряет хиты при переполнении.
+ * Клиент уже получил 202, поэтому пачка, которую не удалось записать, не отбрасывается, а записывается
+ * повторно с нарастающей паузой. Пока записи не удаются, новые хиты не принимаются (isFailing),
+ * чтобы не копить в памяти то, что может не дойти до БД. Пачка теряется, только если и последняя
+ * попытка при остановке не удалась.
+ */
+@Slf4j
+@Component
+public class HitBuffer {
+
+    private final StatsService statsService;
+    private final HitDeduplicator hitDeduplicator;
+    private final boolean enabled;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final Duration retryBackoff;
+    private final Duration maxRetryBackoff;
+    private final BlockingQueue<EndpointHitDto> queue;
+    private final Timer flushTimer;
+    private final Counter overflowCounter;
+    private final Counter flushErrorCounter;
+    private final Counter droppedCounter;
+    // Приём хитов под блокировкой чтения: после остановки под блокировкой записи в очередь ничего не попадёт
+    private final ReadWriteLock stopLock = new ReentrantReadWriteLock();
+
+    private volatile boolean running;
+    // Последняя запись пачки не удалась; сбрасывается первой удачной записью
+    private volatile boolean failing;
+    private boolean stopped;
+    private Thread flusher;
+
+    public HitBuffer(StatsService statsService,
+                     HitDeduplicator hitDeduplicator,
+                     MeterRegistry meterRegistry,
+                     @Value("${stats.ingest.async.enabled:false}") boolean enabled,
+                     @Value("${stats.ingest.async.capacity:100000}") int capacity,
+                     @Value("${stats.ingest.async.batch-size:1000}") int batchSize,
+                     @Value("${stats.ingest.async.flush-interval:200ms}") Duration flushInterval,
+                     @Value("${stats.ingest.async.retry-backoff:1s}") Duration retryBackoff,
+                     @Value("${stats.ingest.async.max-retry-backoff:30s}") Duration maxRetryBackoff) {
+        this.statsService = statsService;
+        this.hitDeduplicator = hitDeduplicator;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.retryBackoff = retryBackoff;
+        this.maxRetryBackoff = maxRetryBackoff;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        Gauge.builder("stats.ingest.buffer.depth", queue, Collection::size)
+                .description("Количество хитов, ожидающих записи в БД")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("stats.ingest.buffer.flush")
+                .description("Время записи одной пачки хитов в БД")
+                .register(meterRegistry);
+        this.overflowCounter = Counter.builder("stats.ingest.buffer.overflow")
+                .description("Хиты, записанные синхронно из-за заполненного или остановленного буфера")
+                .register(meterRegistry);
+        this.flushErrorCounter = Counter.builder("stats.ingest.buffer.flush.errors")
+                .description("Неудачные попытки записи пачки хитов")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("stats.ingest.dropped")
+                .tag("reason", "flush-error")
+                .register(meterRegistry);
+        Gauge.builder("stats.ingest.buffer.failing", this, buffer -> buffer.failing ? 1 : 0)
+                .description("1, пока запись пачек в БД не удаётся")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * true, пока записи пачек не удаются: новые хиты нужно отклонять, а не принимать в буфер или писать мимо него.
+     */
+    public boolean isFailing() {
+        return enabled && failing;
+    }
+
+    /**
+     * Кладёт хит в очередь; false — буфер заполнен или остановлен, и хит нужно записать синхронно.
+     */
+    public boolean offer(EndpointHitDto hit) {
+        stopLock.readLock().lock();
+        try {
+            if (!stopped && queue.offer(hit)) {
+                return true;
+            }
+        } finally {
+            stopLock.readLock().unlock();
+        }
+        overflowCounter.increment();
+        return false;
+    }
+
+    /**
+     * Кладёт хиты в очередь и возвращает те, что в неё не поместились.
+     */
+    public List<EndpointHitDto> offerAll(List<EndpointHitDto> hits) {
+        List<EndpointHitDto> rejected = new ArrayList<>();
+        for (EndpointHitDto hit : hits) {
+            if (!offer(hit)) {
+                rejected.add(hit);
+            }
+        }
+        return rejected;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::runFlusher, "hit-buffer-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("Асинхронная запись хитов включена: пачка {}, интервал {}", batchSize, flushInterval);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (flusher == null) {
+            return;
+        }
+        stopLock.writeLock().lock();
+        try {
+            stopped = true;
+        } finally {
+            stopLock.writeLock().unlock();
+        }
+        // Поток сам дочитает очередь и завершится; не успевший остаток записывается здесь же
+        running = false;
+        flusher.join(flushInterval.multipliedBy(10).toMillis());
+        List<EndpointHitDto> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            flush(batch);
+            batch.clear();
+        }
+        log.info("Буфер хитов остановлен");
+    }
+
+    private void runFlusher() {
+        List<EndpointHitDto> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                collectBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void collectBatch(List<EndpointHitDto> batch) throws InterruptedException {
+        EndpointHitDto first = queue.poll(flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + flushInterval.toNanos();
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            EndpointHitDto next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * Записывает пачку, повторяя неудачные попытки с удвоением паузы до max-retry-backoff.
+     * После остановки буфера делается одна попытка.
+     */
+    private void flush(List<EndpointHitDto> batch) {
+        Duration backoff = retryBackoff;
+        while (true) {
+            try {
+                flushTimer.record(() -> statsService.saveHits(batch));
+                hitDeduplicator.confirmAll(batch);
+                failing = false;
+                return;
+            } catch (RuntimeException e) {
+                failing = true;
+                flushErrorCounter.increment();
+                if (!running) {
+                    log.error("Не удалось записать пачку из {} хитов при остановке, хиты потеряны", batch.size(), e);
+                    droppedCounter.increment(batch.size());
+                    // Пачка не записана: повтор этих хитов клиентом не должен отбрасываться как дубликат
+                    hitDeduplicator.forgetAll(batch);
+                    return;
+                }
+                log.warn("Не удалось записать пачку из {} хитов, повтор через {}", batch.size(), backoff, e);
+            }
+            awaitRetry(backoff);
+            Duration doubled = backoff.multipliedBy(2);
+            backoff = doubled.compareTo(maxRetryBackoff) > 0 ? maxRetryBackoff : doubled;
+        }
+    }
+
+    /**
+     * Пауза перед повтором; остановка буфера прерывает её, чтобы не задерживать завершение.
+     */
+    private void awaitRetry(Duration backoff) {
+        long deadline = System.nanoTime() + backoff.toNanos();
+        try {
+            while (running && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(Math.min(flushInterval.toMillis(), backoff.toMillis()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
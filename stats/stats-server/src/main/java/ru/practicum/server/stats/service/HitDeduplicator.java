@@ -0,0 +1,146 @@
+package ru.practicum.server.stats.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.server.stats.exceptions.ConflictException;
+import ru.practicum.stats.dto.EndpointHitDto;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Отбрасывает лишние хиты до записи: повторы запроса с тем же requestId в пределах окна
+ * и повторные хиты одного IP на один URI чаще окна схлопывания (быстрые обновления страницы).
+ * Состояние хранится в памяти экземпляра и ограничено по размеру и по времени жизни записей.
+ * requestId считается записанным только после фиксации хита: пока запись идёт, повтор отклоняется
+ * как конфликт, а не подтверждается как дубликат, и при неудаче исходной записи клиент повторит хит.
+ */
+@Component
+public class HitDeduplicator {
+
+    // requestId -> хит записан; false — запись ещё не зафиксирована
+    private final Cache<String, Boolean> seenRequests;
+    private final Cache<ViewerKey, LocalDateTime> lastHits;
+    private final Duration collapseWindow;
+    private final Counter duplicateCounter;
+    private final Counter collapsedCounter;
+
+    public HitDeduplicator(MeterRegistry meterRegistry,
+                           @Value("${stats.ingest.dedup.window:PT10M}") Duration dedupWindow,
+                           @Value("${stats.ingest.dedup.max-size:100000}") long dedupMaxSize,
+                           @Value("${stats.ingest.collapse.window:PT0S}") Duration collapseWindow,
+                           @Value("${stats.ingest.collapse.max-size:100000}") long collapseMaxSize) {
+        this.seenRequests = Caffeine.newBuilder()
+                .expireAfterWrite(dedupWindow)
+                .maximumSize(dedupMaxSize)
+                .build();
+        this.collapseWindow = collapseWindow;
+        // Запись живёт дольше окна с запасом на хиты, пришедшие не по порядку времени
+        this.lastHits = Caffeine.newBuilder()
+                .expireAfterWrite(collapseWindow.multipliedBy(2))
+                .maximumSize(collapseMaxSize)
+                .build();
+        this.duplicateCounter = Counter.builder("stats.ingest.dropped")
+                .tag("reason", "duplicate")
+                .register(meterRegistry);
+        this.collapsedCounter = Counter.builder("stats.ingest.dropped")
+                .tag("reason", "collapsed")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Отмечает хит как принятый; false — хит дублирует уже записанный и записывать его не нужно.
+     * Если хит с тем же requestId ещё записывается, бросает ConflictException.
+     * Принятый хит после фиксации подтверждается через confirmAll, при неудаче снимается через forgetAll.
+     */
+    public boolean accept(EndpointHitDto hit) {
+        String requestId = hit.getRequestId();
+        Boolean written = requestId == null ? null : seenRequests.asMap().putIfAbsent(requestId, Boolean.FALSE);
+        if (Boolean.TRUE.equals(written)) {
+            duplicateCounter.increment();
+            return false;
+        }
+        if (written != null) {
+            throw new ConflictException("Хит с requestId " + requestId + " ещё записывается");
+        }
+        if (!collapseWindow.isZero() && isCollapsed(hit)) {
+            // Схлопнутый хит не записан, поэтому повтор с тем же id не должен считаться дубликатом
+            forgetRequest(hit);
+            collapsedCounter.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Принимает пачку целиком или не принимает ничего: если часть хитов ещё записывается,
+     * отметки уже принятых хитов пачки снимаются, и клиент повторяет пачку полностью.
+     */
+    public List<EndpointHitDto> acceptAll(Collection<EndpointHitDto> hits) {
+        List<EndpointHitDto> accepted = new ArrayList<>(hits.size());
+        try {
+            for (EndpointHitDto hit : hits) {
+                if (accept(hit)) {
+                    accepted.add(hit);
+                }
+            }
+        } catch (ConflictException e) {
+            forgetAll(accepted);
+            throw e;
+        }
+        return accepted;
+    }
+
+    /**
+     * Отмечает хиты записанными после фиксации: повторы с теми же requestId дальше отбрасываются как дубликаты.
+     */
+    public void confirmAll(Collection<EndpointHitDto> hits) {
+        hits.forEach(hit -> {
+            if (hit.getRequestId() != null) {
+                seenRequests.asMap().replace(hit.getRequestId(), Boolean.FALSE, Boolean.TRUE);
+            }
+        });
+    }
+
+    /**
+     * Снимает отметки с хитов, запись которых не удалась, чтобы повтор клиента был принят:
+     * и по requestId, и время хита, от которого схлопывались бы следующие хиты того же IP.
+     */
+    public void forgetAll(Collection<EndpointHitDto> hits) {
+        hits.forEach(hit -> {
+            forgetRequest(hit);
+            if (!collapseWindow.isZero()) {
+                // Запись удаляется, только если её не сменил более поздний принятый хит
+                lastHits.asMap().remove(new ViewerKey(hit.getApp(), hit.getUri(), hit.getIp()), hit.getTimestamp());
+            }
+        });
+    }
+
+    private void forgetRequest(EndpointHitDto hit) {
+        if (hit.getRequestId() != null) {
+            seenRequests.invalidate(hit.getRequestId());
+        }
+    }
+
+    private boolean isCollapsed(EndpointHitDto hit) {
+        boolean[] collapsed = {false};
+        lastHits.asMap().compute(new ViewerKey(hit.getApp(), hit.getUri(), hit.getIp()), (key, last) -> {
+            if (last != null && Duration.between(last, hit.getTimestamp()).abs().compareTo(collapseWindow) < 0) {
+                collapsed[0] = true;
+                return last;
+            }
+            return hit.getTimestamp();
+        });
+        return collapsed[0];
+    }
+
+    private record ViewerKey(String app, String uri, String ip) {
+    }
+}
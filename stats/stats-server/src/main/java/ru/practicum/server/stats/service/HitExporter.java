@@ -0,0 +1,122 @@
+package ru.practicum.server.stats.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.server.stats.dto.StatsParamDto;
+import ru.practicum.stats.dto.EndpointHitDto;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Потоковая выгрузка сырых хитов в CSV или NDJSON. CSV пишется в формате импорта HitImporter,
+ * поэтому выгрузку можно загрузить обратно. Выгрузка пишет прямо в ответ и занимает поток пула
+ * запросов статистики на всё время чтения, поэтому одновременных выгрузок не больше max-concurrent,
+ * чтобы они не заняли весь пул: остальные отклоняются с 503.
+ */
+@Slf4j
+@Component
+public class HitExporter {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String CSV_HEADER = "app,uri,ip,timestamp\n";
+
+    private final StatsService statsService;
+    private final ObjectMapper objectMapper;
+    private final Semaphore permits;
+
+    public HitExporter(StatsService statsService,
+                       ObjectMapper objectMapper,
+                       @Value("${stats.export.max-concurrent:2}") int maxConcurrent) {
+        this.statsService = statsService;
+        this.objectMapper = objectMapper;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * Пишет хиты в поток, при gzip — сжатыми, и возвращает их число. Поток не закрывается.
+     * Отказ по лимиту выгрузок происходит до записи в поток, поэтому ответ ещё можно заменить ошибкой.
+     */
+    public long exportHits(StatsParamDto params, HitImporter.Format format, boolean gzip,
+                           OutputStream output) throws IOException {
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("Слишком много одновременных выгрузок хитов");
+        }
+        try {
+            if (!gzip) {
+                return export(params, format, output);
+            }
+            // Без finish() у архива не будет окончания; сам поток ответа закрывает контейнер
+            GZIPOutputStream compressed = new GZIPOutputStream(output);
+            long exported = export(params, format, compressed);
+            compressed.finish();
+            return exported;
+        } finally {
+            permits.release();
+        }
+    }
+
+    private long export(StatsParamDto params, HitImporter.Format format, OutputStream output) throws IOException {
+        long startedAt = System.nanoTime();
+        long[] exported = {0};
+        if (format == HitImporter.Format.CSV) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            writer.write(CSV_HEADER);
+            statsService.exportHits(params, hit -> {
+                try {
+                    writeCsv(writer, hit);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                exported[0]++;
+            });
+            writer.flush();
+        } else {
+            SequenceWriter writer = objectMapper.writer()
+                    .withRootValueSeparator("\n")
+                    .writeValues(output);
+            statsService.exportHits(params, hit -> {
+                try {
+                    writer.write(hit);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                exported[0]++;
+            });
+            writer.flush();
+        }
+        double seconds = (System.nanoTime() - startedAt) / 1_000_000_000.0;
+        log.info("Выгрузка хитов завершена: {} строк за {} с", exported[0], String.format("%.1f", seconds));
+        return exported[0];
+    }
+
+    private static void writeCsv(Writer writer, EndpointHitDto hit) throws IOException {
+        writer.write(csvField(hit.getApp()));
+        writer.write(',');
+        writer.write(csvField(hit.getUri()));
+        writer.write(',');
+        writer.write(csvField(hit.getIp()));
+        writer.write(',');
+        writer.write(TIMESTAMP_FORMAT.format(hit.getTimestamp()));
+        writer.write('\n');
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
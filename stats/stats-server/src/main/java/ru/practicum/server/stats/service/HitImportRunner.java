@@ -0,0 +1,61 @@
+package ru.practicum.server.stats.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+import ru.practicum.server.stats.dto.ImportResultDto;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Импорт из командной строки: --stats.import.file=hits.csv[.gz] или hits.ndjson[.gz].
+ * После импорта приложение завершается; код выхода 1 означает ошибку.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty("stats.import.file")
+public class HitImportRunner implements ApplicationRunner {
+
+    private final HitImporter hitImporter;
+    private final ConfigurableApplicationContext context;
+    @Value("${stats.import.file}")
+    private Path file;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        int exitCode = 0;
+        String name = file.getFileName().toString();
+        boolean gzip = name.endsWith(".gz");
+        String plainName = gzip ? name.substring(0, name.length() - ".gz".length()) : name;
+        HitImporter.Format format = HitImporter.formatOf(plainName.substring(plainName.lastIndexOf('.') + 1));
+        log.info("Импорт хитов из {} ({})", file, format);
+        try (InputStream input = open(gzip)) {
+            ImportResultDto result = hitImporter.importHits(input, format);
+            log.info("Импорт из {}: {} записано, {} пропущено, {} ждут запечатывания, за {} с",
+                    file, result.getImported(), result.getSkipped(), result.getSealedPending(),
+                    String.format("%.1f", result.getSeconds()));
+        } catch (Exception e) {
+            log.error("Импорт хитов из {} прерван", file, e);
+            exitCode = 1;
+        }
+        int code = exitCode;
+        System.exit(SpringApplication.exit(context, () -> code));
+    }
+
+    private InputStream open(boolean gzip) throws IOException {
+        InputStream input = new BufferedInputStream(Files.newInputStream(file));
+        return gzip ? new GZIPInputStream(input) : input;
+    }
+}
@@ -0,0 +1,215 @@
+package ru.practicum.server.stats.service;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.server.stats.dto.ImportResultDto;
+import ru.practicum.server.stats.exceptions.ValidationException;
+import ru.practicum.stats.dto.EndpointHitDto;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Потоковый импорт исторических хитов из CSV (app,uri,ip,timestamp) или NDJSON.
+ * Файл читается построчно и пишется пачками, поэтому размер импорта не ограничен памятью.
+ * Хиты дней, которые уже запечатаны в сегменты, записываются в endpoint_hits, но запросы читают эти дни
+ * из сегментов, поэтому такие хиты видны только после следующего запечатывания; их число возвращается
+ * в результате импорта.
+ */
+@Slf4j
+@Component
+public class HitImporter {
+
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String CSV_HEADER = "app,";
+
+    private final StatsService statsService;
+    private final SegmentStore segmentStore;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+
+    public HitImporter(StatsService statsService,
+                       SegmentStore segmentStore,
+                       ObjectMapper objectMapper,
+                       @Value("${stats.import.batch-size:10000}") int batchSize) {
+        this.statsService = statsService;
+        this.segmentStore = segmentStore;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+    }
+
+    public ImportResultDto importHits(InputStream input, Format format) throws IOException {
+        Progress progress = new Progress(segmentStore.view().sealedUntil());
+        List<EndpointHitDto> batch = new ArrayList<>(batchSize);
+        if (format == Format.CSV) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && line.startsWith(CSV_HEADER))) {
+                    continue;
+                }
+                EndpointHitDto hit = parseCsv(line);
+                if (hit == null) {
+                    log.warn("Пропущена строка {}: {}", lineNumber, line);
+                    progress.skipped++;
+                    continue;
+                }
+                add(batch, hit, progress);
+            }
+        } else {
+            try (MappingIterator<EndpointHitDto> hits = objectMapper.readerFor(EndpointHitDto.class)
+                    .readValues(input)) {
+                while (hits.hasNextValue()) {
+                    EndpointHitDto hit = hits.nextValue();
+                    if (!isValid(hit)) {
+                        log.warn("Пропущен хит: {}", hit);
+                        progress.skipped++;
+                        continue;
+                    }
+                    add(batch, hit, progress);
+                }
+            }
+        }
+        flush(batch, progress);
+        ImportResultDto result = progress.toResult();
+        log.info("Импорт хитов завершён: {} записано, {} пропущено, {} строк/с",
+                result.getImported(), result.getSkipped(), result.getRowsPerSecond());
+        if (result.getSealedPending() > 0) {
+            log.warn("{} импортированных хитов относятся к запечатанным дням и станут видны после "
+                    + "следующего запечатывания", result.getSealedPending());
+        }
+        return result;
+    }
+
+    private void add(List<EndpointHitDto> batch, EndpointHitDto hit, Progress progress) {
+        if (progress.sealedUntil != null && hit.getTimestamp().isBefore(progress.sealedUntil)) {
+            progress.sealedPending++;
+        }
+        batch.add(hit);
+        if (batch.size() >= batchSize) {
+            flush(batch, progress);
+        }
+    }
+
+    private void flush(List<EndpointHitDto> batch, Progress progress) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        statsService.importHits(List.copyOf(batch));
+        progress.imported += batch.size();
+        batch.clear();
+        log.info("Импорт хитов: {} записано, {} строк/с", progress.imported, progress.rowsPerSecond());
+    }
+
+    /**
+     * Разбор строки CSV: поля через запятую, поле в двойных кавычках может содержать запятые,
+     * удвоенная кавычка внутри такого поля — сама кавычка.
+     */
+    static EndpointHitDto parseCsv(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        if (fields.size() != 4) {
+            return null;
+        }
+        try {
+            EndpointHitDto hit = EndpointHitDto.builder()
+                    .app(fields.get(0).trim())
+                    .uri(fields.get(1).trim())
+                    .ip(fields.get(2).trim())
+                    .timestamp(LocalDateTime.parse(fields.get(3).trim(), TIMESTAMP_FORMAT))
+                    .build();
+            return isValid(hit) ? hit : null;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static boolean isValid(EndpointHitDto hit) {
+        return hit != null && !isBlank(hit.getApp()) && !isBlank(hit.getUri()) && !isBlank(hit.getIp())
+                && hit.getTimestamp() != null;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    public static Format formatOf(String name) {
+        try {
+            return Format.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Неизвестный формат импорта: " + name);
+        }
+    }
+
+    private static final class Progress {
+
+        private final long startedAt = System.nanoTime();
+        // Граница запечатывания на начало импорта
+        private final LocalDateTime sealedUntil;
+        private long imported;
+        private long skipped;
+        private long sealedPending;
+
+        Progress(LocalDateTime sealedUntil) {
+            this.sealedUntil = sealedUntil;
+        }
+
+        double seconds() {
+            return (System.nanoTime() - startedAt) / 1_000_000_000.0;
+        }
+
+        long rowsPerSecond() {
+            double seconds = seconds();
+            return seconds > 0 ? (long) (imported / seconds) : imported;
+        }
+
+        ImportResultDto toResult() {
+            return ImportResultDto.builder()
+                    .imported(imported)
+                    .skipped(skipped)
+                    .sealedPending(sealedPending)
+                    .seconds(seconds())
+                    .rowsPerSecond(rowsPerSecond())
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package ru.practicum.server.stats.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.stats.model.HitRow;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.UriFilter;
+import ru.practicum.server.stats.repository.HotWindowRepository;
+import ru.practicum.stats.dto.EndpointHitDto;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Хиты последних часов в памяти по колонкам: время в секундах, id приложения, URI и IP лежат
+ * в отдельных примитивных массивах, разбитых на чанки фиксированного размера. Чанк только
+ * дописывается и удаляется целиком — когда выходит из окна или когда превышен лимит строк.
+ * Запрос, диапазон которого начинается внутри окна, считается просмотром чанков параллельно без SQL.
+ * После загрузки окно пополняется только хитами своего экземпляра, поэтому включается лишь
+ * у единственного писателя БД (stats.single-writer).
+ */
+@Slf4j
+@Component
+public class HotWindow {
+
+    private final HotWindowRepository hotWindowRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final boolean enabled;
+    private final Duration duration;
+    private final int chunkSize;
+    private final int maxChunks;
+    private final Object lock = new Object();
+    private final List<Chunk> chunks = new CopyOnWriteArrayList<>();
+    private final Map<Integer, String> appNames = new ConcurrentHashMap<>();
+    private final Map<Integer, String> uriNames = new ConcurrentHashMap<>();
+    // Окно содержит все зафиксированные хиты не раньше этой секунды; до загрузки не содержит ничего
+    private volatile long coveredFrom = Long.MAX_VALUE;
+
+    public HotWindow(HotWindowRepository hotWindowRepository,
+                     PlatformTransactionManager transactionManager,
+                     MeterRegistry meterRegistry,
+                     @Value("${stats.hot-window.enabled:true}") boolean enabled,
+                     @Value("${stats.hot-window.duration:PT6H}") Duration duration,
+                     @Value("${stats.hot-window.max-rows:2000000}") long maxRows,
+                     @Value("${stats.hot-window.chunk-size:65536}") int chunkSize,
+                     @Value("${stats.single-writer:false}") boolean singleWriter) {
+        this.hotWindowRepository = hotWindowRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.enabled = enabled && singleWriter;
+        if (enabled && !singleWriter) {
+            log.info("Окно последних хитов отключено: в БД могут писать другие экземпляры");
+        }
+        this.duration = duration;
+        this.chunkSize = chunkSize;
+        // Строка занимает 20 байт: max-rows задаёт верхнюю границу памяти окна
+        this.maxChunks = (int) Math.max(1, (maxRows + chunkSize - 1) / chunkSize);
+        Gauge.builder("stats.hot-window.rows", chunks, list -> list.stream().mapToInt(Chunk::size).sum())
+                .register(meterRegistry);
+        Gauge.builder("stats.hot-window.chunks", chunks, List::size)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime from = LocalDateTime.now().minus(duration);
+        // Хиты начинают поступать после запуска веб-сервера, поэтому загрузка не пересекается с записью
+        coveredFrom = toSeconds(from);
+        readOnlyTransaction.executeWithoutResult(status -> {
+            // Имена читаются после строк: вытеснение по лимиту во время загрузки не удалит их раньше строк
+            synchronized (lock) {
+                hotWindowRepository.findSince(from, (timestamp, appId, uriId, ipId) ->
+                        append(toSeconds(timestamp), appId, uriId, ipId));
+            }
+            appNames.putAll(hotWindowRepository.findAppNames(from));
+            uriNames.putAll(hotWindowRepository.findUriNames(from));
+        });
+        log.info("Окно последних хитов загружено: {} строк в {} чанках", rows(), chunks.size());
+    }
+
+    /**
+     * Добавляет хиты после фиксации текущей транзакции, чтобы откат не попал в окно.
+     * Строки и хиты передаются в одном порядке.
+     */
+    public void recordAfterCommit(List<HitRow> rows, List<EndpointHitDto> hits) {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            record(rows, hits);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                record(rows, hits);
+            }
+        });
+    }
+
+    /**
+     * Хиты или уникальные IP по (app, uri), если диапазон начинается внутри окна, иначе пусто.
+     */
+    public Optional<Map<StatsKey, Long>> count(LocalDateTime start, LocalDateTime end, UriFilter filter,
+                                               boolean unique) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        // Порядок чтения обратен порядку удаления чанка: если в снимке чанка уже нет,
+        // сдвинутая граница окна тоже видна, и запрос уйдёт в БД
+        List<Chunk> snapshot = List.copyOf(chunks);
+        Map<Integer, String> apps = matching(appNames, app -> filter.app() == null || filter.app().equals(app));
+        Map<Integer, String> uris = matching(uriNames, filter::matchesUri);
+        long from = toSeconds(start);
+        if (from < coveredFrom) {
+            return Optional.empty();
+        }
+        long to = toSeconds(end);
+        BitSet appIds = ids(apps);
+        BitSet uriIds = ids(uris);
+        Map<Long, ?> counters;
+        ToLongFunction<Object> count;
+        if (unique) {
+            counters = HotWindow.<RoaringBitmap>scan(snapshot, chunk -> {
+                Map<Long, RoaringBitmap> viewers = new HashMap<>();
+                chunk.forEachMatch(from, to, appIds, uriIds,
+                        (key, ipId) -> viewers.computeIfAbsent(key, k -> new RoaringBitmap()).add(ipId));
+                return viewers;
+            }, (left, right) -> {
+                left.or(right);
+                return left;
+            });
+            count = viewers -> ((RoaringBitmap) viewers).getLongCardinality();
+        } else {
+            counters = HotWindow.<long[]>scan(snapshot, chunk -> {
+                Map<Long, long[]> hits = new HashMap<>();
+                chunk.forEachMatch(from, to, appIds, uriIds,
+                        (key, ipId) -> hits.computeIfAbsent(key, k -> new long[1])[0]++);
+                return hits;
+            }, (left, right) -> {
+                left[0] += right[0];
+                return left;
+            });
+            count = hits -> ((long[]) hits)[0];
+        }
+        Map<StatsKey, Long> result = new HashMap<>();
+        counters.forEach((key, counter) -> result.put(
+                new StatsKey(apps.get((int) (key >>> 32)), uris.get(key.intValue())),
+                count.applyAsLong(counter)));
+        return Optional.of(result);
+    }
+
+    /**
+     * Удаляет чанки, все хиты которых старше окна.
+     */
+    @Scheduled(fixedDelayString = "${stats.hot-window.evict-interval:PT1M}")
+    public void evictExpired() {
+        if (!enabled) {
+            return;
+        }
+        long cutoff = toSeconds(LocalDateTime.now().minus(duration));
+        synchronized (lock) {
+            boolean evicted = false;
+            for (Chunk chunk : chunks) {
+                if (chunk.size() > 0 && chunk.maxTimestamp < cutoff) {
+                    evict(chunk);
+                    evicted = true;
+                }
+            }
+            if (evicted) {
+                pruneNames();
+            }
+        }
+    }
+
+    private void record(List<HitRow> rows, List<EndpointHitDto> hits) {
+        synchronized (lock) {
+            for (int i = 0; i < rows.size(); i++) {
+                HitRow row = rows.get(i);
+                EndpointHitDto hit = hits.get(i);
+                // Имя кладётся раньше строки: читатель, увидевший строку, найдёт и имя
+                appNames.putIfAbsent((int) row.appId(), hit.getApp());
+                uriNames.putIfAbsent((int) row.uriId(), hit.getUri());
+                append(toSeconds(row.timestamp()), (int) row.appId(), (int) row.uriId(), (int) row.ipId());
+            }
+        }
+    }
+
+    private void append(long timestamp, int appId, int uriId, int ipId) {
+        if (timestamp < coveredFrom) {
+            // Запоздавший хит старше окна: диапазоны с ним окно всё равно не отвечает
+            return;
+        }
+        Chunk chunk = chunks.isEmpty() ? null : chunks.getLast();
+        if (chunk == null || chunk.isFull()) {
+            if (chunks.size() >= maxChunks) {
+                evict(chunks.getFirst());
+                pruneNames();
+            }
+            chunk = new Chunk(chunkSize);
+            chunks.add(chunk);
+        }
+        chunk.add(timestamp, appId, uriId, ipId);
+    }
+
+    /**
+     * Граница окна сдвигается до удаления чанка, см. порядок чтения в {@link #count}.
+     */
+    private void evict(Chunk chunk) {
+        if (chunk.size() > 0) {
+            coveredFrom = Math.max(coveredFrom, chunk.maxTimestamp + 1);
+        }
+        chunks.remove(chunk);
+    }
+
+    private void pruneNames() {
+        BitSet apps = new BitSet();
+        BitSet uris = new BitSet();
+        for (Chunk chunk : chunks) {
+            chunk.collectIds(apps, uris);
+        }
+        appNames.keySet().removeIf(id -> !apps.get(id));
+        uriNames.keySet().removeIf(id -> !uris.get(id));
+    }
+
+    private int rows() {
+        return chunks.stream().mapToInt(Chunk::size).sum();
+    }
+
+    private static Map<Integer, String> matching(Map<Integer, String> names, Predicate<String> predicate) {
+        Map<Integer, String> matching = new HashMap<>();
+        names.forEach((id, name) -> {
+            if (predicate.test(name)) {
+                matching.put(id, name);
+            }
+        });
+        return matching;
+    }
+
+    private static BitSet ids(Map<Integer, String> names) {
+        BitSet ids = new BitSet();
+        names.keySet().forEach(ids::set);
+        return ids;
+    }
+
+    private static <T> Map<Long, T> scan(List<Chunk> chunks, Function<Chunk, Map<Long, T>> scanner,
+                                         BinaryOperator<T> merge) {
+        return chunks.parallelStream()
+                .map(scanner)
+                .reduce((left, right) -> {
+                    right.forEach((key, value) -> left.merge(key, value, merge));
+                    return left;
+                })
+                .orElseGet(Map::of);
+    }
+
+    private static long toSeconds(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    @FunctionalInterface
+    private interface RowConsumer {
+        void accept(long key, int ipId);
+    }
+
+    /**
+     * Чанк дописывается только под общей блокировкой окна. Читатели видят строки до size:
+     * запись size идёт после записи строки и границ времени.
+     */
+    private static final class Chunk {
+
+        private final long[] timestamps;
+        private final int[] appIds;
+        private final int[] uriIds;
+        private final int[] ipIds;
+        private long minTimestamp = Long.MAX_VALUE;
+        private long maxTimestamp = Long.MIN_VALUE;
+        private volatile int size;
+
+        Chunk(int capacity) {
+            this.timestamps = new long[capacity];
+            this.appIds = new int[capacity];
+            this.uriIds = new int[capacity];
+            this.ipIds = new int[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isFull() {
+            return size == timestamps.length;
+        }
+
+        void add(long timestamp, int appId, int uriId, int ipId) {
+            int row = size;
+            timestamps[row] = timestamp;
+            appIds[row] = appId;
+            uriIds[row] = uriId;
+            ipIds[row] = ipId;
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+            size = row + 1;
+        }
+
+        void forEachMatch(long from, long to, BitSet apps, BitSet uris, RowConsumer consumer) {
+            int rows = size;
+            if (rows == 0 || maxTimestamp < from || minTimestamp > to) {
+                return;
+            }
+            for (int row = 0; row < rows; row++) {
+                long timestamp = timestamps[row];
+                if (timestamp < from || timestamp > to || !uris.get(uriIds[row]) || !apps.get(appIds[row])) {
+                    continue;
+                }
+                consumer.accept(((long) appIds[row] << 32) | uriIds[row], ipIds[row]);
+            }
+        }
+
+        void collectIds(BitSet apps, BitSet uris) {
+            int rows = size;
+            for (int row = 0; row < rows; row++) {
+                apps.set(appIds[row]);
+                uris.set(uriIds[row]);
+            }
+        }
+    }
+}
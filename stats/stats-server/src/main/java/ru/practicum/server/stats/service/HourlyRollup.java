@@ -0,0 +1,139 @@
+package ru.practicum.server.stats.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.stats.model.HitRow;
+import ru.practicum.server.stats.model.HourlyRow;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.repository.RollupRepository;
+import ru.practicum.stats.dto.EndpointHitDto;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Почасовые счётчики хитов в endpoint_hits_hourly. Хиты копятся в памяти приращениями по (app, uri, час)
+ * и сбрасываются в таблицу раз в stats.rollup.flush-interval одной транзакцией, поэтому писатели
+ * популярного URI не ждут друг друга на блокировке строки часа. Запросы по счётчикам видят хиты
+ * с задержкой до интервала сброса, диапазоны кэша с этими часами сбрасываются после сброса счётчиков.
+ * При падении экземпляра теряются приращения последнего интервала.
+ */
+@Slf4j
+@Component
+public class HourlyRollup {
+
+    private final RollupRepository rollupRepository;
+    private final StatsResultCache resultCache;
+    private final TransactionTemplate transactionTemplate;
+    // Приращения по (app_id, uri_id, час): compute блокирует только корзину ключа, сброс забирает ключ целиком
+    private final Map<HourKey, Delta> pending = new ConcurrentHashMap<>();
+
+    public HourlyRollup(RollupRepository rollupRepository,
+                        StatsResultCache resultCache,
+                        PlatformTransactionManager transactionManager) {
+        this.rollupRepository = rollupRepository;
+        this.resultCache = resultCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Учитывает хиты в приращениях после фиксации текущей транзакции, чтобы откат не попал в счётчики.
+     * rows и hits описывают одни и те же хиты в одном порядке.
+     */
+    public void addHits(List<HitRow> rows, List<EndpointHitDto> hits) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            record(rows, hits);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                record(rows, hits);
+            }
+        });
+    }
+
+    /**
+     * Сбрасывает накопленные приращения в таблицу одной транзакцией. Если транзакция не удалась,
+     * приращения возвращаются в память и уйдут со следующим сбросом.
+     */
+    @Scheduled(fixedDelayString = "${stats.rollup.flush-interval:PT1S}")
+    public synchronized void flush() {
+        Map<HourKey, Delta> flushed = new HashMap<>();
+        for (HourKey key : pending.keySet()) {
+            Delta delta = pending.remove(key);
+            if (delta != null) {
+                flushed.put(key, delta);
+            }
+        }
+        if (flushed.isEmpty()) {
+            return;
+        }
+        List<HourlyRow> rows = new ArrayList<>(flushed.size());
+        Map<StatsKey, Set<LocalDateTime>> touched = new HashMap<>();
+        flushed.forEach((key, delta) -> {
+            rows.add(new HourlyRow(key.appId(), key.uriId(), key.hour(), delta.hits));
+            touched.computeIfAbsent(delta.key, k -> new HashSet<>()).add(key.hour());
+        });
+        try {
+            transactionTemplate.executeWithoutResult(status -> rollupRepository.addHits(rows));
+        } catch (RuntimeException e) {
+            log.error("Не удалось сохранить почасовые счётчики: {} строк", rows.size(), e);
+            flushed.forEach((key, delta) -> pending.merge(key, delta, Delta::merge));
+            return;
+        }
+        resultCache.invalidate(touched);
+    }
+
+    @PreDestroy
+    public void stop() {
+        flush();
+    }
+
+    private void record(List<HitRow> rows, List<EndpointHitDto> hits) {
+        for (int i = 0; i < rows.size(); i++) {
+            HitRow row = rows.get(i);
+            EndpointHitDto hit = hits.get(i);
+            HourKey hourKey = new HourKey(row.appId(), row.uriId(), row.timestamp().truncatedTo(ChronoUnit.HOURS));
+            pending.compute(hourKey, (key, delta) -> {
+                Delta current = delta == null ? new Delta(new StatsKey(hit.getApp(), hit.getUri())) : delta;
+                current.hits++;
+                return current;
+            });
+        }
+    }
+
+    private record HourKey(long appId, long uriId, LocalDateTime hour) {
+    }
+
+    /**
+     * Несброшенные хиты ключа; изменяется только внутри compute и merge карты приращений.
+     */
+    private static final class Delta {
+
+        private final StatsKey key;
+        private long hits;
+
+        Delta(StatsKey key) {
+            this.key = key;
+        }
+
+        Delta merge(Delta other) {
+            hits += other.hits;
+            return this;
+        }
+    }
+}
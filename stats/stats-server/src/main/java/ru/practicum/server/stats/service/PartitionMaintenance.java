@@ -0,0 +1,90 @@
+package ru.practicum.server.stats.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.stats.repository.PartitionRepository;
+
+import java.time.YearMonth;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Обслуживание помесячных секций endpoint_hits: создание секций на несколько месяцев вперёд,
+ * перенос хитов из секции по умолчанию и удаление секций и сегментов старше срока хранения.
+ * Экземпляры на одной БД обслуживают секции по очереди под общей блокировкой.
+ * Счётчики за всё время (endpoint_hits_totals) при удалении секций не уменьшаются: запрос с началом
+ * не позже первого хита по-прежнему учитывает удалённые хиты, а запрос с началом после него
+ * считается по оставшимся агрегатам.
+ */
+@Slf4j
+@Component
+@DependsOn("schemaMigration")
+public class PartitionMaintenance {
+
+    private final PartitionRepository partitionRepository;
+    private final StatsResultCache resultCache;
+    private final SegmentStore segmentStore;
+    private final TransactionTemplate transactionTemplate;
+    private final int monthsAhead;
+    private final int retentionMonths;
+
+    public PartitionMaintenance(PartitionRepository partitionRepository,
+                                StatsResultCache resultCache,
+                                SegmentStore segmentStore,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${stats.partitions.months-ahead:2}") int monthsAhead,
+                                @Value("${stats.partitions.retention-months:0}") int retentionMonths) {
+        this.partitionRepository = partitionRepository;
+        this.resultCache = resultCache;
+        this.segmentStore = segmentStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.monthsAhead = monthsAhead;
+        this.retentionMonths = retentionMonths;
+    }
+
+    @PostConstruct
+    public void init() {
+        maintain();
+    }
+
+    @Scheduled(cron = "${stats.partitions.cron:0 0 3 * * *}")
+    public void maintain() {
+        YearMonth current = YearMonth.now();
+        List<YearMonth> existing = partitionRepository.findPartitions();
+
+        TreeSet<YearMonth> missing = new TreeSet<>(partitionRepository.findMonthsInDefaultPartition());
+        for (int i = 0; i <= monthsAhead; i++) {
+            missing.add(current.plusMonths(i));
+        }
+        existing.forEach(missing::remove);
+        // Каждая секция в своей транзакции, чтобы перенос одного месяца не держал блокировки остальных
+        missing.forEach(month -> transactionTemplate.executeWithoutResult(status -> {
+            partitionRepository.lock();
+            partitionRepository.createPartition(month);
+            log.info("Создана секция endpoint_hits за {}", month);
+        }));
+
+        if (retentionMonths > 0) {
+            YearMonth oldestKept = current.minusMonths(retentionMonths);
+            transactionTemplate.executeWithoutResult(status -> {
+                partitionRepository.lock();
+                partitionRepository.findPartitions().stream()
+                        .filter(month -> month.isBefore(oldestKept))
+                        .forEach(month -> {
+                            partitionRepository.dropPartition(month);
+                            log.info("Удалена секция endpoint_hits за {}", month);
+                        });
+                partitionRepository.deleteAggregatesBefore(oldestKept.atDay(1).atStartOfDay());
+                segmentStore.dropBefore(oldestKept.atDay(1));
+            });
+            // Закрытые бакеты в кэше могли включать удалённые данные
+            resultCache.invalidateAll();
+        }
+    }
+}
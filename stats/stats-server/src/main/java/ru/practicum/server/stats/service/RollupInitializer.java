@@ -0,0 +1,52 @@
+package ru.practicum.server.stats.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.stats.repository.RollupRepository;
+import ru.practicum.server.stats.repository.ViewerDeltaRepository;
+
+/**
+ * Однократно заполняет почасовые счётчики по уже накопленным хитам. Отметка о выполнении хранится в БД,
+ * а одновременно запущенные экземпляры проверяют её по очереди под рекомендательной блокировкой.
+ * Непустая таблица без отметки заполнена прежней версией схемы и только отмечается.
+ * Хиты, которые после заполнения запишут экземпляры версии без почасовых счётчиков, в счётчики
+ * не попадут, поэтому при обновлении с такой версии её экземпляры останавливаются до запуска новых.
+ */
+@Slf4j
+@Component
+@DependsOn("schemaMigration")
+public class RollupInitializer {
+
+    private static final String BACKFILL = "endpoint_hits_hourly";
+
+    private final RollupRepository rollupRepository;
+    private final ViewerDeltaRepository viewerDeltaRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    public RollupInitializer(RollupRepository rollupRepository,
+                             ViewerDeltaRepository viewerDeltaRepository,
+                             PlatformTransactionManager transactionManager) {
+        this.rollupRepository = rollupRepository;
+        this.viewerDeltaRepository = viewerDeltaRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate.executeWithoutResult(status -> {
+            viewerDeltaRepository.lockBackfill(BACKFILL);
+            if (viewerDeltaRepository.isBackfilled(BACKFILL)) {
+                return;
+            }
+            if (rollupRepository.isEmpty()) {
+                log.info("Построение почасовых счётчиков по накопленным хитам");
+                rollupRepository.rebuildFromHits();
+            }
+            viewerDeltaRepository.markBackfilled(BACKFILL);
+        });
+    }
+}
@@ -0,0 +1,50 @@
+package ru.practicum.server.stats.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.stats.repository.HitJdbcRepository;
+import ru.practicum.server.stats.repository.PartitionRepository;
+
+/**
+ * Обновляет endpoint_hits, созданную прежними версиями схемы. Изменения, которые нельзя выразить
+ * идемпотентными командами schema.sql, выполняются здесь до старта компонентов, читающих хиты.
+ */
+@Slf4j
+@Component
+public class SchemaMigration {
+
+    private final PartitionRepository partitionRepository;
+    private final HitJdbcRepository hitJdbcRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    public SchemaMigration(PartitionRepository partitionRepository,
+                           HitJdbcRepository hitJdbcRepository,
+                           PlatformTransactionManager transactionManager) {
+        this.partitionRepository = partitionRepository;
+        this.hitJdbcRepository = hitJdbcRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    public void migrate() {
+        // Проверки выполняются под блокировкой: экземпляры, запущенные одновременно, перестраивают таблицу по очереди
+        transactionTemplate.executeWithoutResult(status -> {
+            partitionRepository.lock();
+            if (!partitionRepository.isPartitioned()) {
+                log.info("Перевод endpoint_hits на помесячное секционирование");
+                partitionRepository.convertToPartitioned();
+            }
+            partitionRepository.createDefaultPartition();
+        });
+        transactionTemplate.executeWithoutResult(status -> {
+            partitionRepository.lock();
+            if (hitJdbcRepository.hasLegacyIpColumn()) {
+                log.info("Перевод endpoint_hits на компактный формат строк");
+                hitJdbcRepository.migrateToCompactLayout();
+            }
+        });
+    }
+}
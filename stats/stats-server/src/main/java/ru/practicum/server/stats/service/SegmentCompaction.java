@@ -0,0 +1,144 @@
+package ru.practicum.server.stats.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.stats.model.SegmentRow;
+import ru.practicum.server.stats.repository.HitSegment;
+import ru.practicum.server.stats.repository.HitSegmentWriter;
+import ru.practicum.server.stats.repository.PartitionRepository;
+import ru.practicum.server.stats.repository.SegmentRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+
+/**
+ * Запечатывание старых дней: хиты дня переносятся из endpoint_hits в файл сегмента и удаляются
+ * из таблицы в одной транзакции. Опоздавшие хиты уже запечатанного дня попадают в следующий
+ * сегмент того же дня при очередном запуске. Секции месяцев, все дни которых запечатаны,
+ * очищаются TRUNCATE, чтобы место вернулось ОС без ожидания VACUUM.
+ * <p>
+ * Почасовые и дневные агрегаты запечатанных дней удаляются вместе со сдвигом границы: запросы читают
+ * эти дни из сегментов. Опоздавшие хиты заново создают агрегаты своего дня, они удаляются следующим запуском.
+ * Счётчики ViewTotals, построенные по агрегатам уже после запечатывания, запечатанных дней не учитывают.
+ */
+@Slf4j
+@Component
+public class SegmentCompaction {
+
+    private final SegmentRepository segmentRepository;
+    private final PartitionRepository partitionRepository;
+    private final SegmentStore segmentStore;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int sealAfterDays;
+
+    public SegmentCompaction(SegmentRepository segmentRepository,
+                             PartitionRepository partitionRepository,
+                             SegmentStore segmentStore,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${stats.segments.enabled:false}") boolean enabled,
+                             @Value("${stats.segments.seal-after-days:30}") int sealAfterDays) {
+        this.segmentRepository = segmentRepository;
+        this.partitionRepository = partitionRepository;
+        this.segmentStore = segmentStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.sealAfterDays = sealAfterDays;
+    }
+
+    @Scheduled(cron = "${stats.segments.cron:0 30 3 * * *}")
+    public void compact() {
+        if (!enabled) {
+            return;
+        }
+        LocalDate cutoff = LocalDate.now().minusDays(sealAfterDays);
+        // Запечатывает один экземпляр шарда; остальные увидят результат при перечитывании учёта
+        Boolean locked = transactionTemplate.execute(status -> {
+            if (!segmentRepository.tryLock()) {
+                return false;
+            }
+            try {
+                segmentStore.deleteOrphans(segmentRepository.findAll());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        });
+        if (!Boolean.TRUE.equals(locked)) {
+            log.info("Запечатывание дней выполняется другим экземпляром");
+            return;
+        }
+        List<LocalDate> days = segmentRepository.findDaysWithHitsBefore(cutoff);
+        // Каждый день в своей транзакции: удаление строк одного дня не держит блокировки остальных
+        for (LocalDate day : days) {
+            Boolean sealed = transactionTemplate.execute(status -> {
+                if (!segmentRepository.tryLock()) {
+                    return false;
+                }
+                seal(day);
+                return true;
+            });
+            if (!Boolean.TRUE.equals(sealed)) {
+                // Граница не сдвигается через незапечатанный день, иначе его хиты пропали бы из запросов
+                log.info("Запечатывание прервано на дне {}: его выполняет другой экземпляр", day);
+                return;
+            }
+        }
+        // Дни без хитов тоже считаются запечатанными, иначе граница не дошла бы до cutoff
+        transactionTemplate.executeWithoutResult(status -> {
+            segmentRepository.updateSealedUntil(cutoff);
+            partitionRepository.deleteSealedAggregatesBefore(cutoff.atStartOfDay());
+            segmentStore.publishOnCommit(null, cutoff);
+        });
+        truncateSealedPartitions(cutoff);
+    }
+
+    private void seal(LocalDate day) {
+        int seq = segmentRepository.nextSeq(day);
+        String name = HitSegment.fileName(day, seq);
+        Path file = segmentStore.directory().resolve(name);
+        long rows;
+        try (HitSegmentWriter writer = new HitSegmentWriter(file, day)) {
+            segmentRepository.deleteDay(day, writer::add);
+            rows = writer.rows();
+            if (rows == 0) {
+                // Хиты дня уже запечатал другой запуск
+                return;
+            }
+            writer.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        HitSegment segment;
+        try {
+            segment = HitSegment.open(day, file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segmentRepository.insert(new SegmentRow(day, seq, name, rows));
+        segmentRepository.updateSealedUntil(day.plusDays(1));
+        segmentStore.publishOnCommit(segment, day.plusDays(1));
+        log.info("День {} запечатан в сегмент {}: {} хитов", day, name, rows);
+    }
+
+    private void truncateSealedPartitions(LocalDate cutoff) {
+        for (YearMonth month : partitionRepository.findPartitions()) {
+            if (month.plusMonths(1).atDay(1).isAfter(cutoff)) {
+                break;
+            }
+            transactionTemplate.executeWithoutResult(status -> {
+                if (partitionRepository.truncateIfEmpty(month)) {
+                    log.info("Секция endpoint_hits за {} очищена после запечатывания", month);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package ru.practicum.server.stats.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.stats.model.SegmentRow;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.TimeSeriesPoint;
+import ru.practicum.server.stats.model.UriFilter;
+import ru.practicum.server.stats.repository.HitSegment;
+import ru.practicum.server.stats.repository.SegmentRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * Сегменты запечатанных дней, отображённые в память. Запросы работают со снимком {@link View}:
+ * набор сегментов и граница sealedUntil в нём согласованы, поэтому публикация сегмента посреди
+ * запроса не приводит к двойному счёту дня из сегмента и из endpoint_hits.
+ * Каталог сегментов общий для экземпляров шарда: запечатывает один из них, остальные
+ * подхватывают изменения при периодическом перечитывании учёта, а сдвиг границы sealedUntil —
+ * на первом запросе после истечения boundary-ttl.
+ */
+@Slf4j
+@Component
+@DependsOn("schemaMigration")
+public class SegmentStore {
+
+    private final SegmentRepository segmentRepository;
+    private final StatsResultCache resultCache;
+    private final TransactionTemplate snapshotTransaction;
+    private final Path directory;
+    private final boolean enabled;
+    private final long boundaryTtlNanos;
+    private volatile View view = new View(List.of(), null);
+    // Последняя прочитанная из БД граница, чтобы не читать её на каждом запросе
+    private volatile Boundary boundary;
+    // Сегмент опубликован до фиксации запечатывания: перечитывание учёта его бы ещё не увидело
+    private boolean publishing;
+
+    public SegmentStore(SegmentRepository segmentRepository,
+                        StatsResultCache resultCache,
+                        PlatformTransactionManager transactionManager,
+                        MeterRegistry meterRegistry,
+                        @Value("${stats.segments.dir:segments}") String directory,
+                        @Value("${stats.segments.enabled:false}") boolean enabled,
+                        @Value("${stats.segments.boundary-ttl:PT1S}") Duration boundaryTtl) {
+        this.segmentRepository = segmentRepository;
+        this.resultCache = resultCache;
+        this.snapshotTransaction = new TransactionTemplate(transactionManager);
+        this.snapshotTransaction.setReadOnly(true);
+        this.snapshotTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.directory = Path.of(directory);
+        this.enabled = enabled;
+        this.boundaryTtlNanos = boundaryTtl.toNanos();
+        Gauge.builder("stats.segments.count", this, store -> store.view.segments.size())
+                .register(meterRegistry);
+        Gauge.builder("stats.segments.rows", this,
+                        store -> store.view.segments.stream().mapToLong(HitSegment::rows).sum())
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(directory);
+        refresh();
+        View loaded = view;
+        if (loaded.sealedUntil != null) {
+            log.info("Открыто {} сегментов хитов, запечатано до {}", loaded.segments.size(), loaded.sealedUntil);
+        }
+    }
+
+    /**
+     * Текущий снимок. При включённом запечатывании граница сверяется с hit_segments_state не реже раза
+     * в boundary-ttl: день, запечатанный другим экземпляром, уже удалён из endpoint_hits, и до перечитывания
+     * учёта запрос со старым снимком его бы не посчитал. Поэтому в пределах boundary-ttl после запечатывания
+     * другим экземпляром запрос может не учесть этот день. Граница сдвигается вместе с каждым новым
+     * сегментом, поэтому её совпадения достаточно, чтобы не перечитывать весь учёт.
+     */
+    public View view() {
+        View current = view;
+        if (!enabled) {
+            return current;
+        }
+        LocalDateTime sealedUntil = sealedUntil();
+        if (Objects.equals(sealedUntil, current.sealedUntil)) {
+            return current;
+        }
+        // Во время своей публикации снимок опережает БД: refresh() его не трогает
+        refresh();
+        return view;
+    }
+
+    private LocalDateTime sealedUntil() {
+        Boundary checked = boundary;
+        long now = System.nanoTime();
+        if (checked != null && now - checked.checkedAt() < boundaryTtlNanos) {
+            return checked.sealedUntil();
+        }
+        LocalDateTime sealedUntil = segmentRepository.findSealedUntilForQuery()
+                .map(LocalDate::atStartOfDay)
+                .orElse(null);
+        boundary = new Boundary(sealedUntil, now);
+        return sealedUntil;
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    /**
+     * Перечитывает учёт сегментов. Уже открытые сегменты переиспользуются; если набор изменился
+     * не здесь, кэш результатов сбрасывается: в нём могли остаться суммы без перенесённых дней.
+     */
+    @Scheduled(fixedDelayString = "${stats.segments.refresh-interval:PT1M}")
+    public synchronized void refresh() {
+        if (publishing) {
+            return;
+        }
+        // Учёт и граница читаются одним снимком, чтобы не разойтись с параллельным запечатыванием
+        Snapshot snapshot = Objects.requireNonNull(snapshotTransaction.execute(status -> new Snapshot(
+                segmentRepository.findAll(),
+                segmentRepository.findSealedUntil().map(LocalDate::atStartOfDay).orElse(null))));
+        View current = view;
+        Map<Path, HitSegment> opened = new HashMap<>();
+        current.segments.forEach(segment -> opened.put(segment.file(), segment));
+        List<HitSegment> segments = new ArrayList<>(snapshot.rows().size());
+        for (SegmentRow row : snapshot.rows()) {
+            Path file = directory.resolve(row.file());
+            HitSegment segment = opened.get(file);
+            if (segment == null) {
+                try {
+                    segment = HitSegment.open(row.day(), file);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Не удалось открыть сегмент хитов " + file
+                            + ": каталог сегментов должен быть общим для экземпляров шарда", e);
+                }
+            }
+            segments.add(segment);
+        }
+        View refreshed = new View(segments, snapshot.sealedUntil());
+        if (!refreshed.sameAs(current)) {
+            view = refreshed;
+            resultCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Публикует сегмент перед фиксацией текущей транзакции, которая удаляет его хиты из endpoint_hits,
+     * и снимает его при откате. Раньше фиксации сегмент безопасен: он содержит те же хиты, что и строки,
+     * а после неё строк уже нет. Без сегмента только сдвигает границу sealedUntil.
+     */
+    public void publishOnCommit(HitSegment segment, LocalDate sealedUntil) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private View previous;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                previous = publish(segment, sealedUntil.atStartOfDay());
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                finishPublishing(status == STATUS_COMMITTED ? null : previous);
+                if (status != STATUS_COMMITTED && segment != null) {
+                    deleteFiles(List.of(segment.file()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Удаляет сегменты дней раньше cutoff. Вызывается в транзакции; файлы удаляются после её фиксации,
+     * отображения в памяти остаются действительными до конца уже начатых запросов.
+     */
+    public void dropBefore(LocalDate cutoff) {
+        List<String> files = segmentRepository.deleteBefore(cutoff);
+        if (files.isEmpty()) {
+            return;
+        }
+        Runnable drop = () -> {
+            synchronized (this) {
+                View current = view;
+                view = new View(current.segments.stream()
+                        .filter(segment -> !segment.day().isBefore(cutoff))
+                        .toList(), current.sealedUntil);
+            }
+            deleteFiles(files.stream().map(directory::resolve).toList());
+            log.info("Удалено {} сегментов хитов раньше {}", files.size(), cutoff);
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            drop.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                drop.run();
+            }
+        });
+    }
+
+    /**
+     * Удаляет из каталога файлы, которых нет в учёте: следы прерванного запечатывания.
+     * Вызывается только под блокировкой запечатывания, когда новые файлы никто не пишет.
+     */
+    public void deleteOrphans(List<SegmentRow> registered) throws IOException {
+        Set<String> known = new HashSet<>();
+        registered.forEach(row -> known.add(row.file()));
+        List<Path> orphans;
+        try (Stream<Path> files = Files.list(directory)) {
+            orphans = files.filter(file -> !known.contains(file.getFileName().toString()))
+                    .filter(file -> file.getFileName().toString().startsWith(HitSegment.PREFIX))
+                    .toList();
+        }
+        if (!orphans.isEmpty()) {
+            log.warn("Удаляются файлы сегментов без учёта: {}", orphans);
+            deleteFiles(orphans);
+        }
+    }
+
+    private synchronized View publish(HitSegment segment, LocalDateTime sealedUntil) {
+        View current = view;
+        List<HitSegment> segments = new ArrayList<>(current.segments);
+        if (segment != null) {
+            segments.add(segment);
+            segments.sort(Comparator.comparing(HitSegment::day));
+        }
+        LocalDateTime bound = current.sealedUntil == null || sealedUntil.isAfter(current.sealedUntil)
+                ? sealedUntil : current.sealedUntil;
+        publishing = true;
+        view = new View(segments, bound);
+        return current;
+    }
+
+    private synchronized void finishPublishing(View rollbackTo) {
+        publishing = false;
+        if (rollbackTo != null) {
+            view = rollbackTo;
+        }
+    }
+
+    private static void deleteFiles(List<Path> files) {
+        for (Path file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private record Snapshot(List<SegmentRow> rows, LocalDateTime sealedUntil) {
+    }
+
+    private record Boundary(LocalDateTime sealedUntil, long checkedAt) {
+    }
+
+    /**
+     * Согласованный снимок сегментов: все они относятся к дням раньше sealedUntil,
+     * хиты с этого момента читаются из endpoint_hits. Сегменты просматриваются параллельно.
+     */
+    public static final class View {
+
+        private final List<HitSegment> segments;
+        private final LocalDateTime sealedUntil;
+
+        private View(List<HitSegment> segments, LocalDateTime sealedUntil) {
+            this.segments = List.copyOf(segments);
+            this.sealedUntil = sealedUntil;
+        }
+
+        /**
+         * Начало диапазона приходится на запечатанные дни.
+         */
+        public boolean covers(LocalDateTime start) {
+            return sealedUntil != null && start.isBefore(sealedUntil);
+        }
+
+        public LocalDateTime sealedUntil() {
+            return sealedUntil;
+        }
+
+        public Map<StatsKey, Long> countHits(LocalDateTime start, LocalDateTime end, UriFilter filter) {
+            long from = HitSegment.toSeconds(start);
+            long to = HitSegment.toSeconds(end);
+            return collect(from, to, (segment, part) -> segment.forEachGroup(filter, group -> {
+                long hits = segment.countHits(group, from, to);
+                if (hits > 0) {
+                    part.merge(group.key(), hits, Long::sum);
+                }
+            }), Long::sum);
+        }
+
+        public Map<StatsKey, RoaringBitmap> viewers(LocalDateTime start, LocalDateTime end, UriFilter filter) {
+            long from = HitSegment.toSeconds(start);
+            long to = HitSegment.toSeconds(end);
+            BinaryOperator<RoaringBitmap> union = (left, right) -> {
+                left.or(right);
+                return left;
+            };
+            return collect(from, to, (segment, part) -> segment.forEachGroup(filter, group -> {
+                RoaringBitmap viewers = new RoaringBitmap();
+                segment.addViewers(group, from, to, viewers);
+                if (!viewers.isEmpty()) {
+                    part.merge(group.key(), viewers, union);
+                }
+            }), union);
+        }
+
+        /**
+         * Точки ряда по бакетам unit. Хиты группы идут по времени, поэтому бакет при обходе
+         * меняется не чаще, чем число бакетов, и счётчик копится без поиска в карте на каждый хит.
+         */
+        public List<TimeSeriesPoint> countSeries(LocalDateTime start, LocalDateTime end, UriFilter filter,
+                                                 ChronoUnit unit, boolean unique) {
+            if (unique) {
+                return this.<RoaringBitmap>countSeries(start, end, filter, unit,
+                        RoaringBitmap::new, RoaringBitmap::add, (left, right) -> {
+                            left.or(right);
+                            return left;
+                        }, RoaringBitmap::getLongCardinality);
+            }
+            return this.<long[]>countSeries(start, end, filter, unit,
+                    () -> new long[1], (count, ipId) -> count[0]++, (left, right) -> {
+                        left[0] += right[0];
+                        return left;
+                    }, count -> count[0]);
+        }
+
+        /**
+         * Хиты диапазона в порядке дней и групп.
+         */
+        public void forEachHit(LocalDateTime start, LocalDateTime end, UriFilter filter, SealedHitVisitor visitor) {
+            long from = HitSegment.toSeconds(start);
+            long to = HitSegment.toSeconds(end);
+            segments.stream()
+                    .filter(segment -> segment.overlaps(from, to))
+                    .forEach(segment -> segment.forEachGroup(filter, group -> segment.forEachHit(group, from, to,
+                            (timestamp, ipId) -> visitor.accept(group.key(), timestamp, ipId))));
+        }
+
+        private <T> List<TimeSeriesPoint> countSeries(LocalDateTime start, LocalDateTime end, UriFilter filter,
+                                                      ChronoUnit unit, Supplier<T> empty, ObjIntConsumer<T> add,
+                                                      BinaryOperator<T> merge, ToLongFunction<T> count) {
+            long from = HitSegment.toSeconds(start);
+            long to = HitSegment.toSeconds(end);
+            long width = unit.getDuration().getSeconds();
+            Map<SeriesKey, T> buckets = collect(from, to, (segment, part) -> segment.forEachGroup(filter, group -> {
+                Run<T> run = new Run<>();
+                segment.forEachHit(group, from, to, (timestamp, ipId) -> {
+                    long bucket = timestamp - Math.floorMod(timestamp, width);
+                    if (run.value == null || run.bucket != bucket) {
+                        run.flush(group.key(), part, merge);
+                        run.bucket = bucket;
+                        run.value = empty.get();
+                    }
+                    add.accept(run.value, ipId);
+                });
+                run.flush(group.key(), part, merge);
+            }), merge);
+            return buckets.entrySet().stream()
+                    .map(entry -> new TimeSeriesPoint(entry.getKey().key(),
+                            HitSegment.toDateTime(entry.getKey().bucket()), count.applyAsLong(entry.getValue())))
+                    .toList();
+        }
+
+        private <K, T> Map<K, T> collect(long from, long to, BiConsumer<HitSegment, Map<K, T>> scan,
+                                         BinaryOperator<T> merge) {
+            return segments.parallelStream()
+                    .filter(segment -> segment.overlaps(from, to))
+                    .map(segment -> {
+                        Map<K, T> part = new HashMap<>();
+                        scan.accept(segment, part);
+                        return part;
+                    })
+                    .reduce((left, right) -> {
+                        right.forEach((key, value) -> left.merge(key, value, merge));
+                        return left;
+                    })
+                    .orElseGet(HashMap::new);
+        }
+
+        private boolean sameAs(View other) {
+            return Objects.equals(sealedUntil, other.sealedUntil)
+                    && segments.stream().map(HitSegment::file).toList()
+                    .equals(other.segments.stream().map(HitSegment::file).toList());
+        }
+    }
+
+    private record SeriesKey(StatsKey key, long bucket) {
+    }
+
+    private static final class Run<T> {
+
+        private long bucket;
+        private T value;
+
+        void flush(StatsKey key, Map<SeriesKey, T> part, BinaryOperator<T> merge) {
+            if (value != null) {
+                part.merge(new SeriesKey(key, bucket), value, merge);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface SealedHitVisitor {
+        void accept(StatsKey key, long timestamp, int ipId);
+    }
+}
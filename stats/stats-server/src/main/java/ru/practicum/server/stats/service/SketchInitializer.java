@@ -0,0 +1,52 @@
+package ru.practicum.server.stats.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.stats.repository.SketchRepository;
+import ru.practicum.server.stats.repository.ViewerDeltaRepository;
+
+/**
+ * Однократно досчитывает дневные скетчи по уже накопленным хитам, в том числе на БД,
+ * где скетчи до этого писались только для новых хитов. Отметка о выполнении хранится в БД,
+ * а одновременно запущенные экземпляры проверяют её по очереди под рекомендательной блокировкой.
+ */
+@Slf4j
+@Component
+@DependsOn("schemaMigration")
+public class SketchInitializer {
+
+    private static final String BACKFILL = "endpoint_hits_daily_hll";
+
+    private final SketchRepository sketchRepository;
+    private final ViewerDeltaRepository viewerDeltaRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int hllPrecision;
+
+    public SketchInitializer(SketchRepository sketchRepository,
+                             ViewerDeltaRepository viewerDeltaRepository,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${stats.unique.hll-precision:14}") int hllPrecision) {
+        this.sketchRepository = sketchRepository;
+        this.viewerDeltaRepository = viewerDeltaRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.hllPrecision = hllPrecision;
+    }
+
+    @PostConstruct
+    public void init() {
+        // Одна транзакция: прерванное заполнение повторится целиком при следующем запуске
+        transactionTemplate.executeWithoutResult(status -> {
+            viewerDeltaRepository.lockBackfill(BACKFILL);
+            if (!viewerDeltaRepository.isBackfilled(BACKFILL)) {
+                log.info("Построение скетчей HyperLogLog по накопленным хитам");
+                sketchRepository.rebuildFromHits(hllPrecision);
+                viewerDeltaRepository.markBackfilled(BACKFILL);
+            }
+        });
+    }
+}
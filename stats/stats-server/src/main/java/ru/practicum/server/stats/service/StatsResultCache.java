@@ -0,0 +1,252 @@
+package ru.practicum.server.stats.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.server.stats.config.QueryDatabase;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.UriFilter;
+import ru.practicum.stats.dto.EndpointHitDto;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Кэш агрегатов по выровненным диапазонам бакетов [from, to).
+ * Диапазоны закрытых бакетов не меняются и живут до вытеснения, диапазон с текущим бакетом
+ * сбрасывается после фиксации хитов по входящим в него URI. Диапазоны, которые затрагивает хит,
+ * ищутся по индексу концов диапазонов, а не перебором всего кэша.
+ * Пока запросы идут в реплику, сброс приходит после фиксации в основной БД, а пересчёт по реплике
+ * может ещё не увидеть хиты. Поэтому результат реплики кэшируется, только если все хиты диапазона
+ * зафиксированы до момента, по который реплика догнала основную БД; иначе закрытые диапазоны
+ * считаются в основной БД, а диапазон с текущим бакетом не кэшируется.
+ * Сброс видит только хиты своего экземпляра, поэтому кэш работает лишь при stats.single-writer.
+ * Изменения в обход сервиса (ручные правки, восстановление) видны не позже expire-after-write.
+ */
+@Slf4j
+@Component
+public class StatsResultCache {
+
+    public enum Kind {
+        HITS, UNIQUE, APPROXIMATE
+    }
+
+    private final QueryDatabase queryDatabase;
+    private final boolean enabled;
+    private final Cache<ResultKey, Map<StatsKey, ?>> cache;
+    // Отметки диапазонов, которые считаются или лежат в кэше; сброс удаляет отметку, и посчитанный
+    // до сброса результат в кэш уже не кладётся. Отметки и индекс меняются под блокировкой индекса
+    private final Map<ResultKey, Object> registrations = new HashMap<>();
+    // Зарегистрированные диапазоны по концу to: хит часа h затрагивает только диапазоны с to > h
+    private final TreeMap<LocalDateTime, Set<ResultKey>> keysByEnd = new TreeMap<>();
+    // Момент последнего сброса по часу хита; часы, сброшенные до согласованности реплики, удаляются
+    private final ConcurrentSkipListMap<LocalDateTime, Instant> touchedAt = new ConcurrentSkipListMap<>();
+
+    public StatsResultCache(MeterRegistry meterRegistry,
+                            QueryDatabase queryDatabase,
+                            @Value("${stats.query.cache.enabled:true}") boolean enabled,
+                            @Value("${stats.query.cache.max-size:1000}") int maxSize,
+                            @Value("${stats.query.cache.expire-after-write:PT1H}") Duration expireAfterWrite,
+                            @Value("${stats.single-writer:false}") boolean singleWriter) {
+        this.queryDatabase = queryDatabase;
+        this.enabled = enabled && singleWriter;
+        if (enabled && !singleWriter) {
+            log.info("Кэш агрегатов отключён: в БД могут писать другие экземпляры");
+        }
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .removalListener((ResultKey key, Map<StatsKey, ?> value, RemovalCause cause) -> {
+                    // Истечение срока тоже вытеснение: диапазон убирается из индекса
+                    if (cause.wasEvicted()) {
+                        releaseIfAbsent(key);
+                    }
+                })
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "stats.query.cache");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Агрегаты диапазона из кэша или из загрузчика. Возвращаемая карта общая для всех читателей
+     * и не должна изменяться вместе со значениями.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Map<StatsKey, T> get(Kind kind, UriFilter filter, LocalDateTime from, LocalDateTime to,
+                                    Supplier<Map<StatsKey, T>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        ResultKey key = new ResultKey(kind, filter, from, to);
+        Map<StatsKey, ?> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return (Map<StatsKey, T>) cached;
+        }
+        Object registration = register(key);
+        Instant consistentAt = queryDatabase.replicaConsistentAt();
+        boolean cacheable = true;
+        Supplier<Map<StatsKey, T>> load = () -> queryDatabase.onPrimary(loader);
+        if (consistentAt != null && !isTouchedSince(from, to, consistentAt)) {
+            // Все хиты диапазона уже есть в реплике
+            load = loader;
+        } else if (consistentAt != null && to.isAfter(LocalDateTime.now().truncatedTo(ChronoUnit.HOURS))) {
+            // Текущий бакет меняется постоянно: он считается по реплике и не кэшируется
+            load = loader;
+            cacheable = false;
+        }
+        Map<StatsKey, T> loaded;
+        try {
+            loaded = Map.copyOf(load.get());
+        } catch (RuntimeException e) {
+            releaseIfAbsent(key);
+            throw e;
+        }
+        synchronized (keysByEnd) {
+            // Под блокировкой сброс не может пройти между проверкой отметки и записью в кэш
+            if (cacheable && registrations.get(key) == registration) {
+                cache.put(key, loaded);
+            } else {
+                releaseIfAbsent(key);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Сбрасывает диапазоны, в которые попадают хиты, после фиксации текущей транзакции.
+     */
+    public void invalidateAfterCommit(Collection<EndpointHitDto> hits) {
+        if (!enabled) {
+            return;
+        }
+        // Для сброса достаточно часа хита: границы и часовых, и дневных диапазонов кратны часу
+        Set<TouchedBucket> touched = hits.stream()
+                .map(hit -> new TouchedBucket(hit.getApp(), hit.getUri(),
+                        hit.getTimestamp().truncatedTo(ChronoUnit.HOURS)))
+                .collect(Collectors.toSet());
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(touched);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidate(touched);
+            }
+        });
+    }
+
+    /**
+     * Сбрасывает диапазоны, в которые попадают часы ключей, сразу: для агрегатов, зафиксированных
+     * отдельно от транзакции хитов.
+     */
+    public void invalidate(Map<StatsKey, Set<LocalDateTime>> hoursByKey) {
+        if (!enabled) {
+            return;
+        }
+        Set<TouchedBucket> touched = new HashSet<>();
+        hoursByKey.forEach((key, hours) -> hours.forEach(hour ->
+                touched.add(new TouchedBucket(key.app(), key.uri(), hour))));
+        invalidate(touched);
+    }
+
+    public void invalidateAll() {
+        synchronized (keysByEnd) {
+            keysByEnd.clear();
+            registrations.clear();
+        }
+        cache.invalidateAll();
+    }
+
+    private void invalidate(Set<TouchedBucket> touched) {
+        Instant now = Instant.now();
+        Instant consistentAt = queryDatabase.replicaConsistentAt();
+        if (consistentAt != null) {
+            touchedAt.values().removeIf(at -> at.isBefore(consistentAt));
+        }
+        if (queryDatabase.hasReplica()) {
+            touched.forEach(bucket -> touchedAt.put(bucket.hour(), now));
+        }
+        List<ResultKey> covered = new ArrayList<>();
+        synchronized (keysByEnd) {
+            for (TouchedBucket bucket : touched) {
+                keysByEnd.tailMap(bucket.hour(), false).values().forEach(keys -> keys.stream()
+                        .filter(key -> key.covers(bucket))
+                        .forEach(covered::add));
+            }
+            covered.forEach(key -> {
+                unregister(key);
+                cache.invalidate(key);
+            });
+        }
+    }
+
+    private Object register(ResultKey key) {
+        synchronized (keysByEnd) {
+            keysByEnd.computeIfAbsent(key.to(), to -> new HashSet<>()).add(key);
+            return registrations.computeIfAbsent(key, k -> new Object());
+        }
+    }
+
+    /**
+     * Убирает из индекса диапазон, которого нет в кэше: тот же диапазон мог быть уже заново положен в кэш.
+     */
+    private void releaseIfAbsent(ResultKey key) {
+        synchronized (keysByEnd) {
+            if (cache.getIfPresent(key) == null) {
+                unregister(key);
+            }
+        }
+    }
+
+    /**
+     * Убирает диапазон из индекса. Расчёт того же диапазона, начатый раньше, после этого в кэш не попадёт.
+     * Вызывается под блокировкой индекса.
+     */
+    private void unregister(ResultKey key) {
+        registrations.remove(key);
+        Set<ResultKey> keys = keysByEnd.get(key.to());
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            keysByEnd.remove(key.to());
+        }
+    }
+
+    private boolean isTouchedSince(LocalDateTime from, LocalDateTime to, Instant since) {
+        return touchedAt.subMap(from, to).values().stream().anyMatch(at -> !at.isBefore(since));
+    }
+
+    private record ResultKey(Kind kind, UriFilter filter, LocalDateTime from, LocalDateTime to) {
+
+        boolean covers(TouchedBucket bucket) {
+            return filter.matches(bucket.app(), bucket.uri())
+                    && !bucket.hour().isBefore(from) && bucket.hour().isBefore(to);
+        }
+    }
+
+    private record TouchedBucket(String app, String uri, LocalDateTime hour) {
+    }
+}
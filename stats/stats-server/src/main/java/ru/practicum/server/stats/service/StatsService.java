@@ -1,16 +1,50 @@
 package ru.practicum.server.stats.service;
 
+import ru.practicum.server.stats.dto.StatsParamDto;
+import ru.practicum.server.stats.model.StatsKey;
 import ru.practicum.stats.dto.EndpointHitDto;
+import ru.practicum.stats.dto.ViewSeriesDto;
 import ru.practicum.stats.dto.ViewStatsDto;
+import ru.practicum.stats.dto.ViewersDto;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface StatsService {
 
     EndpointHitDto saveHit(EndpointHitDto endpointHitDto);
 
+    void saveHits(List<EndpointHitDto> endpointHitDtos);
+
+    /**
+     * Массовая запись исторических хитов: справочники разрешаются пакетно, хиты пишутся через COPY.
+     */
+    void importHits(List<EndpointHitDto> endpointHitDtos);
+
     List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris);
 
-    List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique);
+    List<ViewStatsDto> getStats(StatsParamDto params);
+
+    /**
+     * Передаёт строки статистики потребителю по мере чтения, не собирая неуникальную статистику в список.
+     * Если диапазон захватывает запечатанные дни и limit не задан, строки не упорядочены по числу просмотров.
+     */
+    void streamStats(StatsParamDto params, Consumer<ViewStatsDto> consumer);
+
+    /**
+     * IP, смотревшие каждую из пар приложение — URI за диапазон params; URI сравниваются точно.
+     */
+    List<ViewersDto> getViewers(StatsParamDto params, Collection<StatsKey> keys);
+
+    /**
+     * Число хитов или уникальных IP по бакетам размера params.bucket. Пустые бакеты не возвращаются.
+     */
+    List<ViewSeriesDto> getTimeSeries(StatsParamDto params);
+
+    /**
+     * Передаёт сырые хиты диапазона потребителю по мере чтения курсором.
+     */
+    void exportHits(StatsParamDto params, Consumer<EndpointHitDto> consumer);
 }
\ No newline at end of file
@@ -1,67 +1,535 @@
 package ru.practicum.server.stats.service;
 
 import lombok.RequiredArgsConstructor;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.stats.config.QueryDatabase;
+import ru.practicum.server.stats.dto.StatsParamDto;
 import ru.practicum.server.stats.exceptions.ValidationException;
 import ru.practicum.server.stats.mapper.StatsMapper;
-import ru.practicum.server.stats.model.App;
-import ru.practicum.server.stats.model.Uri;
-import ru.practicum.server.stats.repository.AppRepository;
-import ru.practicum.server.stats.repository.StatsRepository;
-import ru.practicum.server.stats.repository.UriRepository;
+import ru.practicum.server.stats.model.AlignedRange;
+import ru.practicum.server.stats.model.HitRow;
+import ru.practicum.server.stats.model.HyperLogLog;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.TimeBucket;
+import ru.practicum.server.stats.model.TimeSeriesPoint;
+import ru.practicum.server.stats.model.UriFilter;
+import ru.practicum.server.stats.repository.DictionaryRepository.Dictionary;
+import ru.practicum.server.stats.repository.HitExportRepository;
+import ru.practicum.server.stats.repository.HitJdbcRepository;
+import ru.practicum.server.stats.repository.HitSegment;
+import ru.practicum.server.stats.repository.SketchRepository;
+import ru.practicum.server.stats.repository.StatsQueryRepository;
+import ru.practicum.server.stats.repository.TimeSeriesRepository;
+import ru.practicum.server.stats.repository.ViewerBitmapRepository;
+import ru.practicum.server.stats.repository.ViewerDeltaRepository;
+import ru.practicum.server.stats.service.StatsResultCache.Kind;
 import ru.practicum.stats.dto.EndpointHitDto;
+import ru.practicum.stats.dto.ViewPointDto;
+import ru.practicum.stats.dto.ViewSeriesDto;
 import ru.practicum.stats.dto.ViewStatsDto;
+import ru.practicum.stats.dto.ViewersDto;
 
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class StatsServiceImpl implements StatsService {
 
-    private final StatsRepository statsRepository;
-    private final AppRepository appRepository;
-    private final UriRepository uriRepository;
+    private static final Comparator<ViewStatsDto> BY_HITS_DESC =
+            Comparator.comparing(ViewStatsDto::getHits).reversed();
+
+    private final StatsQueryRepository statsQueryRepository;
+    private final HitJdbcRepository hitJdbcRepository;
+    private final HourlyRollup hourlyRollup;
+    private final SketchRepository sketchRepository;
+    private final ViewerDeltaRepository viewerDeltaRepository;
+    private final ViewerBitmapRepository viewerBitmapRepository;
+    private final DictionaryCache dictionaryCache;
+    private final StatsResultCache resultCache;
+    private final ViewTotals viewTotals;
+    private final HotWindow hotWindow;
+    private final TimeSeriesRepository timeSeriesRepository;
+    private final HitExportRepository hitExportRepository;
+    private final QueryDatabase queryDatabase;
+    private final SegmentStore segmentStore;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${stats.unique.hll-precision:14}")
+    private int hllPrecision;
+
+    @Value("${stats.timeseries.max-buckets:10000}")
+    private long maxTimeSeriesBuckets;
+
+    @Value("${stats.export.segment-batch-size:10000}")
+    private int segmentExportBatchSize;
 
-    @Transactional
     @Override
     public EndpointHitDto saveHit(EndpointHitDto endpointHitDto) {
-        // Получаем приложение или создаем новое
-        App app = getOrCreateApp(endpointHitDto);
-        // Получаем URI или создаем новый
-        Uri uri = getOrCreateUri(endpointHitDto);
-        // Преобразуем DTO в Entity и сохраняем
-        return StatsMapper.toDto(statsRepository.save(StatsMapper.toEntity(endpointHitDto, app, uri)));
+        // id приложения, URI и IP берём из кэша справочников до транзакции записи, при промахе создаём запись
+        long appId = dictionaryCache.getAppId(endpointHitDto.getApp());
+        long uriId = dictionaryCache.getUriId(endpointHitDto.getUri());
+        long ipId = dictionaryCache.getIpId(endpointHitDto.getIp());
+        HitRow row = StatsMapper.toRow(endpointHitDto, appId, uriId, ipId);
+        long id = inTransaction(() -> {
+            long saved = hitJdbcRepository.save(row);
+            addToAggregates(List.of(row), List.of(endpointHitDto));
+            return saved;
+        });
+        return StatsMapper.toDto(endpointHitDto, id);
+    }
+
+    @Override
+    public void saveHits(List<EndpointHitDto> endpointHitDtos) {
+        List<HitRow> rows = toRows(endpointHitDtos);
+        inTransaction(() -> {
+            hitJdbcRepository.saveAll(rows);
+            addToAggregates(rows, endpointHitDtos);
+            return null;
+        });
+    }
+
+    @Override
+    public void importHits(List<EndpointHitDto> endpointHitDtos) {
+        List<HitRow> rows = toRows(endpointHitDtos);
+        inTransaction(() -> {
+            hitJdbcRepository.copyAll(rows);
+            addToAggregates(rows, endpointHitDtos);
+            return null;
+        });
+    }
+
+    /**
+     * Строки хитов с id справочников. Справочники разрешаются пакетно, по одному запросу на все новые
+     * значения пачки, и до транзакции записи: иначе каждый промах держал бы второе соединение пула.
+     */
+    private List<HitRow> toRows(List<EndpointHitDto> endpointHitDtos) {
+        Map<String, Long> appIds = resolveIds(Dictionary.APPS, endpointHitDtos, EndpointHitDto::getApp);
+        Map<String, Long> uriIds = resolveIds(Dictionary.URIS, endpointHitDtos, EndpointHitDto::getUri);
+        Map<String, Long> ipIds = resolveIds(Dictionary.IPS, endpointHitDtos, EndpointHitDto::getIp);
+        return endpointHitDtos.stream()
+                .map(hit -> StatsMapper.toRow(hit,
+                        appIds.get(hit.getApp()),
+                        uriIds.get(hit.getUri()),
+                        ipIds.get(hit.getIp())))
+                .toList();
+    }
+
+    private <T> T inTransaction(Supplier<T> write) {
+        return new TransactionTemplate(transactionManager).execute(status -> write.get());
+    }
+
+    private void addToAggregates(List<HitRow> rows, List<EndpointHitDto> hits) {
+        hourlyRollup.addHits(rows, hits);
+        viewerDeltaRepository.addHits(rows);
+        resultCache.invalidateAfterCommit(hits);
+        viewTotals.addHits(rows, hits);
+        hotWindow.recordAfterCommit(rows, hits);
+    }
+
+    private Map<String, Long> resolveIds(Dictionary dictionary, List<EndpointHitDto> hits,
+                                         Function<EndpointHitDto, String> field) {
+        Set<String> values = hits.stream().map(field).collect(Collectors.toSet());
+        return dictionaryCache.getIds(dictionary, values);
     }
 
     @Override
     public List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris) {
-        if (start.isAfter(end)) {
-            throw new ValidationException("Дата начала не может быть позже даты окончания");
+        return getStats(StatsParamDto.builder()
+                .start(start)
+                .end(end)
+                .uris(uris)
+                .build());
+    }
+
+    @Override
+    public List<ViewStatsDto> getStats(StatsParamDto params) {
+        validate(params);
+        // Диапазон вида «за всё время» отвечается из счётчиков, недавний — из окна последних хитов
+        Optional<Map<StatsKey, Long>> inMemory = findInMemory(params);
+        if (inMemory.isPresent()) {
+            return toViewStats(inMemory.get(), Long::longValue, params.getLimit());
+        }
+        SegmentStore.View sealed = segmentStore.view();
+        if (sealed.covers(params.getStart())) {
+            return getStatsWithSegments(params, sealed);
+        } else if (params.isUnique() && params.isApproximate()) {
+            return getApproximateUniqueStats(params);
+        } else if (params.isUnique()) {
+            return getExactUniqueStats(params);
+        } else if (resultCache.isEnabled()) {
+            return toViewStats(countHits(params), Long::longValue, params.getLimit());
+        } else {
+            return statsQueryRepository.getStats(hourlyRange(params), filter(params), params.getLimit());
         }
-        return statsRepository.getStats(start, end, uris);
     }
 
     @Override
-    public List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique) {
-        if (start.isAfter(end)) {
-            throw new ValidationException("Дата начала не может быть позже даты окончания");
+    public void streamStats(StatsParamDto params, Consumer<ViewStatsDto> consumer) {
+        validate(params);
+        if (params.isUnique()) {
+            // Уникальные значения собираются в памяти, поэтому отдаются уже собранным списком
+            getStats(params).forEach(consumer);
+            return;
+        }
+        Optional<Map<StatsKey, Long>> inMemory = findInMemory(params);
+        if (inMemory.isPresent()) {
+            toViewStats(inMemory.get(), Long::longValue, params.getLimit()).forEach(consumer);
+            return;
+        }
+        SegmentStore.View sealed = segmentStore.view();
+        if (!sealed.covers(params.getStart())) {
+            streamLiveStats(params, consumer);
+            return;
+        }
+        if (params.getLimit() != null) {
+            // Первые limit записей выбираются по суммам сегментов и БД, поэтому отдаются собранным списком
+            getStatsWithSegments(params, sealed).forEach(consumer);
+            return;
+        }
+        // В памяти держатся только суммы запечатанных дней: строки по БД идут потоком и дополняются ими,
+        // ключи, которых в БД нет, передаются в конце
+        Map<StatsKey, Long> sealedHits = sealed.countHits(params.getStart(), params.getEnd(), filter(params));
+        liveParams(params, sealed).ifPresent(rest -> streamLiveStats(rest, stat -> {
+            Long hits = sealedHits.remove(new StatsKey(stat.getApp(), stat.getUri()));
+            if (hits != null) {
+                stat.setHits(stat.getHits() + hits);
+            }
+            consumer.accept(stat);
+        }));
+        sealedHits.forEach((key, hits) -> consumer.accept(new ViewStatsDto(key.app(), key.uri(), hits)));
+    }
+
+    private void streamLiveStats(StatsParamDto params, Consumer<ViewStatsDto> consumer) {
+        // Курсор открывается в транзакции пула запросов, а не основного пула записи хитов
+        queryDatabase.readOnly().executeWithoutResult(status -> {
+            try (Stream<ViewStatsDto> stats =
+                         statsQueryRepository.streamStats(hourlyRange(params), filter(params), params.getLimit())) {
+                stats.forEach(consumer);
+            }
+        });
+    }
+
+    @Override
+    public List<ViewersDto> getViewers(StatsParamDto params, Collection<StatsKey> keys) {
+        validate(params);
+        if (keys.isEmpty()) {
+            return List.of();
         }
-        if (unique) {
-            return statsRepository.getUniqueStats(start, end, uris);
+        // Ключи разных приложений читаются одним запросом по их URI, лишние пары отбрасываются
+        UriFilter filter = UriFilter.exact(keys.stream().map(StatsKey::uri).toList());
+        Map<StatsKey, RoaringBitmap> viewers = allViewers(params, segmentStore.view(), filter);
+        viewers.keySet().retainAll(Set.copyOf(keys));
+        RoaringBitmap ipIds = new RoaringBitmap();
+        viewers.values().forEach(ipIds::or);
+        Map<Integer, String> ips = findIps(ipIds);
+        return viewers.entrySet().stream()
+                .map(entry -> new ViewersDto(entry.getKey().app(), entry.getKey().uri(),
+                        entry.getValue().stream().mapToObj(ips::get).toList()))
+                .toList();
+    }
+
+    /**
+     * Адреса IP по id справочника, порциями по stats.export.segment-batch-size.
+     */
+    private Map<Integer, String> findIps(RoaringBitmap ipIds) {
+        Map<Integer, String> ips = new HashMap<>();
+        List<Integer> batch = new ArrayList<>(segmentExportBatchSize);
+        for (int ipId : ipIds) {
+            batch.add(ipId);
+            if (batch.size() >= segmentExportBatchSize) {
+                ips.putAll(queryDatabase.readOnly().execute(status -> hitExportRepository.findIps(batch)));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            ips.putAll(queryDatabase.readOnly().execute(status -> hitExportRepository.findIps(batch)));
+        }
+        return ips;
+    }
+
+    @Override
+    public List<ViewSeriesDto> getTimeSeries(StatsParamDto params) {
+        validate(params);
+        TimeBucket bucket = params.getBucket();
+        LocalDateTime start = params.getStart();
+        LocalDateTime end = params.getEnd();
+        long buckets = bucket.unit().between(start.truncatedTo(bucket.unit()), end) + 1;
+        if (buckets > maxTimeSeriesBuckets) {
+            throw new ValidationException("Слишком много бакетов в диапазоне: " + buckets
+                    + ", допустимо не больше " + maxTimeSeriesBuckets);
+        }
+        UriFilter filter = filter(params);
+        List<TimeSeriesPoint> points = new ArrayList<>();
+        StatsParamDto live = params;
+        SegmentStore.View sealed = segmentStore.view();
+        if (sealed.covers(start)) {
+            // Граница запечатывания приходится на полночь, поэтому бакет не делится между сегментами и БД
+            points.addAll(sealed.countSeries(start, end, filter, bucket.unit(), params.isUnique()));
+            if (end.isBefore(sealed.sealedUntil())) {
+                return toSeries(points);
+            }
+            live = params.toBuilder().start(sealed.sealedUntil()).build();
+        }
+        LocalDateTime liveStart = live.getStart();
+        if (!params.isUnique()) {
+            // Минуты мельче почасовых агрегатов, поэтому считаются только по сырым строкам
+            AlignedRange range = bucket == TimeBucket.MINUTE ? AlignedRange.raw(liveStart, end) : hourlyRange(live);
+            points.addAll(timeSeriesRepository.countHits(range, bucket, filter));
         } else {
-            return statsRepository.getStats(start, end, uris);
+            // Уникальные IP складывать нельзя: из агрегатов берутся только целые дни дневного ряда
+            AlignedRange range = bucket == TimeBucket.DAY ? dailyRange(live) : AlignedRange.raw(liveStart, end);
+            points.addAll(timeSeriesRepository.countViewers(range, bucket, filter));
         }
+        return toSeries(points);
     }
 
-    private App getOrCreateApp(EndpointHitDto endpointHitDto) {
-        return appRepository.findByName(endpointHitDto.getApp())
-                .orElseGet(() -> appRepository.save(new App(null, endpointHitDto.getApp())));
+    @Override
+    public void exportHits(StatsParamDto params, Consumer<EndpointHitDto> consumer) {
+        validate(params);
+        UriFilter filter = filter(params);
+        LocalDateTime liveStart = params.getStart();
+        SegmentStore.View sealed = segmentStore.view();
+        if (sealed.covers(liveStart)) {
+            exportSealedHits(sealed, params, filter, consumer);
+            liveStart = sealed.sealedUntil();
+        }
+        if (liveStart.isAfter(params.getEnd())) {
+            return;
+        }
+        LocalDateTime from = liveStart;
+        queryDatabase.readOnly().executeWithoutResult(status ->
+                hitExportRepository.streamHits(from, params.getEnd(), filter, consumer));
+    }
+
+    /**
+     * Хиты запечатанных дней. Сегменты хранят id IP, адреса разрешаются порциями по справочнику;
+     * id строк endpoint_hits в сегментах не сохраняются, поэтому у таких хитов id пустой.
+     */
+    private void exportSealedHits(SegmentStore.View sealed, StatsParamDto params, UriFilter filter,
+                                  Consumer<EndpointHitDto> consumer) {
+        List<SealedHit> batch = new ArrayList<>(segmentExportBatchSize);
+        sealed.forEachHit(params.getStart(), params.getEnd(), filter, (key, timestamp, ipId) -> {
+            batch.add(new SealedHit(key, timestamp, ipId));
+            if (batch.size() >= segmentExportBatchSize) {
+                emitSealedHits(batch, consumer);
+                batch.clear();
+            }
+        });
+        emitSealedHits(batch, consumer);
+    }
+
+    private void emitSealedHits(List<SealedHit> batch, Consumer<EndpointHitDto> consumer) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Set<Integer> ipIds = batch.stream().map(SealedHit::ipId).collect(Collectors.toSet());
+        Map<Integer, String> ips = queryDatabase.readOnly().execute(status -> hitExportRepository.findIps(ipIds));
+        batch.forEach(hit -> consumer.accept(EndpointHitDto.builder()
+                .app(hit.key().app())
+                .uri(hit.key().uri())
+                .ip(ips.get(hit.ipId()))
+                .timestamp(HitSegment.toDateTime(hit.timestamp()))
+                .build()));
+    }
+
+    private void validate(StatsParamDto params) {
+        if (params.getStart().isAfter(params.getEnd())) {
+            throw new ValidationException("Дата начала не может быть позже даты окончания");
+        }
+        if (params.getLimit() != null && params.getLimit() <= 0) {
+            throw new ValidationException("Количество записей должно быть положительным");
+        }
+    }
+
+    /**
+     * Запечатанные дни считаются по сегментам, остаток диапазона — обычным путём по БД начиная
+     * с границы запечатывания. Битовые карты сегментов точные, поэтому приближённый запрос уникальных
+     * в этом случае тоже считается точно: дневные HLL нельзя объединить с картами.
+     */
+    private List<ViewStatsDto> getStatsWithSegments(StatsParamDto params, SegmentStore.View sealed) {
+        UriFilter filter = filter(params);
+        if (params.isUnique()) {
+            return toViewStats(allViewers(params, sealed, filter), RoaringBitmap::getLongCardinality,
+                    params.getLimit());
+        }
+        Map<StatsKey, Long> hits = sealed.countHits(params.getStart(), params.getEnd(), filter);
+        liveParams(params, sealed).ifPresent(rest ->
+                countHits(rest).forEach((key, value) -> hits.merge(key, value, Long::sum)));
+        return toViewStats(hits, Long::longValue, params.getLimit());
+    }
+
+    /**
+     * Точные множества зрителей: запечатанные дни по сегментам, остаток диапазона по БД.
+     */
+    private Map<StatsKey, RoaringBitmap> allViewers(StatsParamDto params, SegmentStore.View sealed,
+                                                    UriFilter filter) {
+        if (!sealed.covers(params.getStart())) {
+            return exactViewers(params, filter);
+        }
+        Map<StatsKey, RoaringBitmap> viewers = sealed.viewers(params.getStart(), params.getEnd(), filter);
+        liveParams(params, sealed).ifPresent(rest -> exactViewers(rest, filter).forEach((key, value) ->
+                viewers.computeIfAbsent(key, k -> new RoaringBitmap()).or(value)));
+        return viewers;
+    }
+
+    /**
+     * Часть диапазона после запечатанных дней или пусто, если диапазон целиком в них.
+     */
+    private static Optional<StatsParamDto> liveParams(StatsParamDto params, SegmentStore.View sealed) {
+        if (params.getEnd().isBefore(sealed.sealedUntil())) {
+            return Optional.empty();
+        }
+        return Optional.of(params.toBuilder().start(sealed.sealedUntil()).build());
+    }
+
+    private Optional<Map<StatsKey, Long>> findInMemory(StatsParamDto params) {
+        Optional<Map<StatsKey, Long>> totals =
+                viewTotals.findCovering(params.getStart(), params.getEnd(), filter(params), params.isUnique());
+        if (totals.isPresent()) {
+            return totals;
+        }
+        return hotWindow.count(params.getStart(), params.getEnd(), filter(params), params.isUnique());
+    }
+
+    private static UriFilter filter(StatsParamDto params) {
+        return UriFilter.of(params.getUris(), params.getApp());
+    }
+
+    private static AlignedRange hourlyRange(StatsParamDto params) {
+        return AlignedRange.of(params.getStart(), params.getEnd(), ChronoUnit.HOURS);
+    }
+
+    private static AlignedRange dailyRange(StatsParamDto params) {
+        return AlignedRange.of(params.getStart(), params.getEnd(), ChronoUnit.DAYS);
+    }
+
+    private Map<StatsKey, Long> countHits(StatsParamDto params) {
+        AlignedRange range = hourlyRange(params);
+        UriFilter filter = filter(params);
+        Map<StatsKey, Long> hits = collectBuckets(Kind.HITS, range, ChronoUnit.HOURS, filter,
+                (from, to) -> statsQueryRepository.countBuckets(from, to, filter),
+                UnaryOperator.identity(), Long::sum);
+        statsQueryRepository.addEdges(range, filter, hits);
+        return hits;
+    }
+
+    private List<ViewStatsDto> getApproximateUniqueStats(StatsParamDto params) {
+        AlignedRange range = dailyRange(params);
+        UriFilter filter = filter(params);
+        Map<StatsKey, HyperLogLog> sketches = collectBuckets(Kind.APPROXIMATE, range, ChronoUnit.DAYS, filter,
+                (from, to) -> sketchRepository.mergeBuckets(from, to, filter, hllPrecision),
+                HyperLogLog::copy, HyperLogLog::union);
+        sketchRepository.addEdges(range, filter, hllPrecision, sketches);
+        return toViewStats(sketches, HyperLogLog::estimate, params.getLimit());
+    }
+
+    private List<ViewStatsDto> getExactUniqueStats(StatsParamDto params) {
+        return toViewStats(exactViewers(params, filter(params)), RoaringBitmap::getLongCardinality,
+                params.getLimit());
+    }
+
+    private Map<StatsKey, RoaringBitmap> exactViewers(StatsParamDto params, UriFilter filter) {
+        AlignedRange range = dailyRange(params);
+        Map<StatsKey, RoaringBitmap> viewers = collectBuckets(Kind.UNIQUE, range, ChronoUnit.DAYS, filter,
+                (from, to) -> viewerBitmapRepository.mergeBuckets(from, to, filter),
+                RoaringBitmap::clone, (left, right) -> {
+                    left.or(right);
+                    return left;
+                });
+        viewerBitmapRepository.addEdges(range, filter, viewers);
+        return viewers;
+    }
+
+    /**
+     * Собирает агрегаты целых бакетов диапазона: закрытые бакеты до текущего и открытый хвост
+     * с текущим бакетом берутся из кэша отдельными записями. Значения из кэша копируются,
+     * поэтому результат можно дополнять краями диапазона.
+     */
+    private <T> Map<StatsKey, T> collectBuckets(Kind kind, AlignedRange range, ChronoUnit bucket, UriFilter filter,
+                                                BiFunction<LocalDateTime, LocalDateTime, Map<StatsKey, T>> loader,
+                                                UnaryOperator<T> copy, BinaryOperator<T> merge) {
+        Map<StatsKey, T> result = new HashMap<>();
+        LocalDateTime alignedStart = range.alignedStart();
+        LocalDateTime alignedEnd = range.alignedEnd();
+        if (!alignedStart.isBefore(alignedEnd)) {
+            return result;
+        }
+        LocalDateTime openFrom = LocalDateTime.now().truncatedTo(bucket);
+        if (openFrom.isBefore(alignedStart)) {
+            openFrom = alignedStart;
+        } else if (openFrom.isAfter(alignedEnd)) {
+            openFrom = alignedEnd;
+        }
+        BiConsumer<LocalDateTime, LocalDateTime> addPart = (from, to) -> {
+            if (from.isBefore(to)) {
+                resultCache.get(kind, filter, from, to, () -> loader.apply(from, to))
+                        .forEach((key, value) -> result.merge(key, copy.apply(value), merge));
+            }
+        };
+        addPart.accept(alignedStart, openFrom);
+        addPart.accept(openFrom, alignedEnd);
+        return result;
+    }
+
+    private static List<ViewSeriesDto> toSeries(List<TimeSeriesPoint> points) {
+        Map<StatsKey, TreeMap<LocalDateTime, Long>> series = new TreeMap<>(
+                Comparator.comparing(StatsKey::app).thenComparing(StatsKey::uri));
+        points.forEach(point -> series.computeIfAbsent(point.key(), key -> new TreeMap<>())
+                .merge(point.bucket(), point.count(), Long::sum));
+        return series.entrySet().stream()
+                .map(entry -> new ViewSeriesDto(entry.getKey().app(), entry.getKey().uri(),
+                        entry.getValue().entrySet().stream()
+                                .map(point -> new ViewPointDto(point.getKey(), point.getValue()))
+                                .toList()))
+                .toList();
+    }
+
+    private static <T> List<ViewStatsDto> toViewStats(Map<StatsKey, T> counters, ToLongFunction<T> count,
+                                                      Integer limit) {
+        Stream<ViewStatsDto> stats = counters.entrySet().stream()
+                .map(entry -> new ViewStatsDto(entry.getKey().app(), entry.getKey().uri(),
+                        count.applyAsLong(entry.getValue())));
+        if (limit == null) {
+            return stats.sorted(BY_HITS_DESC).toList();
+        }
+        // Куча из limit элементов с наименьшим счётчиком в вершине: сортируются только попавшие в top
+        PriorityQueue<ViewStatsDto> top = new PriorityQueue<>(limit + 1, BY_HITS_DESC.reversed());
+        stats.forEach(stat -> {
+            top.offer(stat);
+            if (top.size() > limit) {
+                top.poll();
+            }
+        });
+        List<ViewStatsDto> result = new ArrayList<>(top);
+        result.sort(BY_HITS_DESC);
+        return result;
     }
 
-    private Uri getOrCreateUri(EndpointHitDto endpointHitDto) {
-        return uriRepository.findByUri(endpointHitDto.getUri())
-                .orElseGet(() -> uriRepository.save(new Uri(null, endpointHitDto.getUri())));
+    private record SealedHit(StatsKey key, long timestamp, int ipId) {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,265 @@
+package ru.practicum.server.stats.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.stats.config.QueryDatabase;
+import ru.practicum.server.stats.model.HitRow;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.TotalsRow;
+import ru.practicum.server.stats.model.UriFilter;
+import ru.practicum.server.stats.model.ViewerDelta;
+import ru.practicum.server.stats.repository.TotalsRepository;
+import ru.practicum.server.stats.repository.TotalsRepository.Bounds;
+import ru.practicum.stats.dto.EndpointHitDto;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Счётчики хитов и уникальных зрителей по URI за всё время в endpoint_hits_totals. Хиты копятся
+ * в памяти приращениями по ключу и сбрасываются в таблицу раз в stats.totals.flush-interval одной
+ * транзакцией, поэтому запись хитов не обновляет строку популярного URI. Зрители сливаются в таблицу
+ * фоновой свёрткой остатка. Запрос, диапазон которого накрывает всю историю подходящих URI,
+ * отвечается по таблице вместе с ещё не сброшенными приращениями своего экземпляра; хиты других
+ * экземпляров видны после их сброса, зрители — после свёртки.
+ */
+@Slf4j
+@Component
+@DependsOn({"viewerBitmapInitializer", "rollupInitializer"})
+public class ViewTotals {
+
+    private final TotalsRepository totalsRepository;
+    private final QueryDatabase queryDatabase;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    // Приращения по (app_id, uri_id): compute блокирует только корзину ключа, сброс забирает ключ целиком
+    private final Map<TotalsKey, Delta> pending = new ConcurrentHashMap<>();
+    // Запрос не должен застать приращения уже снятыми из памяти, но ещё не зафиксированными в таблице
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+    // Самый ранний и поздний хит в таблице по состоянию на последний сброс
+    private volatile Bounds bounds;
+
+    public ViewTotals(TotalsRepository totalsRepository,
+                      QueryDatabase queryDatabase,
+                      PlatformTransactionManager transactionManager,
+                      @Value("${stats.totals.enabled:true}") boolean enabled) {
+        this.totalsRepository = totalsRepository;
+        this.queryDatabase = queryDatabase;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            totalsRepository.lock();
+            if (totalsRepository.isEmpty()) {
+                log.info("Построение счётчиков просмотров по агрегатам");
+                totalsRepository.rebuildFromAggregates();
+            }
+        });
+        bounds = totalsRepository.findBounds().orElse(null);
+    }
+
+    /**
+     * Учитывает хиты в приращениях после фиксации текущей транзакции, чтобы откат не попал в счётчики.
+     * rows и hits описывают одни и те же хиты в одном порядке.
+     */
+    public void addHits(List<HitRow> rows, List<EndpointHitDto> hits) {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            record(rows, hits);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                record(rows, hits);
+            }
+        });
+    }
+
+    /**
+     * Счётчики по URI, если диапазон накрывает всю их историю, иначе пусто. Из счётчиков отвечаются
+     * только диапазоны до последнего известного хита и дальше: по таблице без чтения строк видно,
+     * что диапазон всех URI не накрыт, а запрос по отдельным URI читает только их строки.
+     */
+    public Optional<Map<StatsKey, Long>> findCovering(LocalDateTime start, LocalDateTime end, UriFilter filter,
+                                                      boolean unique) {
+        Bounds known = bounds;
+        if (!enabled || known == null || end.isBefore(pendingLastHit(known.lastHit()))) {
+            return Optional.empty();
+        }
+        if (filter.anyUri() && filter.app() == null && start.isAfter(known.firstHit())) {
+            return Optional.empty();
+        }
+        flushLock.readLock().lock();
+        try {
+            Map<StatsKey, TotalsRow> stored = queryDatabase.onPrimary(() ->
+                    totalsRepository.findMatching(filter, unique));
+            Map<StatsKey, Long> counts = new HashMap<>();
+            Map<StatsKey, Delta> unflushed = new HashMap<>();
+            pending.values().forEach(delta -> {
+                if (filter.matches(delta.key.app(), delta.key.uri())) {
+                    unflushed.put(delta.key, delta);
+                }
+            });
+            for (Map.Entry<StatsKey, TotalsRow> entry : stored.entrySet()) {
+                TotalsRow row = entry.getValue();
+                Delta delta = unflushed.remove(entry.getKey());
+                LocalDateTime firstHit = delta == null ? row.firstHit() : min(row.firstHit(), delta.firstHit);
+                LocalDateTime lastHit = delta == null ? row.lastHit() : max(row.lastHit(), delta.lastHit);
+                if (start.isAfter(firstHit) || end.isBefore(lastHit)) {
+                    return Optional.empty();
+                }
+                counts.put(entry.getKey(), unique ? row.viewers().getLongCardinality()
+                        : row.hits() + (delta == null ? 0 : delta.hits));
+            }
+            for (Delta delta : unflushed.values()) {
+                // Зрители ключа без строки в таблице ещё не слиты: уникальные такого ключа неизвестны
+                if (unique || start.isAfter(delta.firstHit) || end.isBefore(delta.lastHit)) {
+                    return Optional.empty();
+                }
+                counts.put(delta.key, delta.hits);
+            }
+            return Optional.of(counts);
+        } finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Сливает зрителей из остатка в карты счётчиков в БД; вызывается в транзакции свёртки остатка.
+     */
+    public void addViewers(List<ViewerDelta> deltas) {
+        if (enabled) {
+            totalsRepository.addViewers(deltas);
+        }
+    }
+
+    /**
+     * Сбрасывает накопленные приращения в таблицу одной транзакцией. Если транзакция не удалась,
+     * приращения возвращаются в память и уйдут со следующим сбросом.
+     */
+    @Scheduled(fixedDelayString = "${stats.totals.flush-interval:PT5S}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        flushLock.writeLock().lock();
+        try {
+            Map<TotalsKey, Delta> flushed = new HashMap<>();
+            for (TotalsKey key : pending.keySet()) {
+                Delta delta = pending.remove(key);
+                if (delta != null) {
+                    flushed.put(key, delta);
+                }
+            }
+            if (!flushed.isEmpty()) {
+                List<TotalsRow> rows = new ArrayList<>(flushed.size());
+                flushed.forEach((key, delta) -> rows.add(new TotalsRow(key.appId(), key.uriId(), delta.hits, null,
+                        delta.firstHit, delta.lastHit)));
+                try {
+                    transactionTemplate.executeWithoutResult(status -> totalsRepository.addHits(rows));
+                } catch (RuntimeException e) {
+                    log.error("Не удалось сохранить счётчики просмотров: {} URI", rows.size(), e);
+                    flushed.forEach((key, delta) -> pending.merge(key, delta, Delta::merge));
+                    return;
+                }
+            }
+            // Границы меняются и от сброса других экземпляров, поэтому перечитываются и без своих приращений
+            bounds = totalsRepository.findBounds().orElse(null);
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        flush();
+    }
+
+    private void record(List<HitRow> rows, List<EndpointHitDto> hits) {
+        for (int i = 0; i < rows.size(); i++) {
+            HitRow row = rows.get(i);
+            EndpointHitDto hit = hits.get(i);
+            pending.compute(new TotalsKey(row.appId(), row.uriId()), (key, delta) -> {
+                Delta current = delta == null ? new Delta(new StatsKey(hit.getApp(), hit.getUri())) : delta;
+                current.add(row.timestamp());
+                return current;
+            });
+        }
+    }
+
+    /**
+     * Последний хит с учётом ещё не сброшенных приращений.
+     */
+    private LocalDateTime pendingLastHit(LocalDateTime stored) {
+        LocalDateTime lastHit = stored;
+        for (Delta delta : pending.values()) {
+            lastHit = max(lastHit, delta.lastHit);
+        }
+        return lastHit;
+    }
+
+    private static LocalDateTime min(LocalDateTime left, LocalDateTime right) {
+        return right.isBefore(left) ? right : left;
+    }
+
+    private static LocalDateTime max(LocalDateTime left, LocalDateTime right) {
+        return right.isAfter(left) ? right : left;
+    }
+
+    private record TotalsKey(long appId, long uriId) {
+    }
+
+    /**
+     * Несброшенные хиты ключа. Изменяется только внутри compute и merge карты приращений,
+     * поля volatile, чтобы запрос читал их без блокировки корзины.
+     */
+    private static final class Delta {
+
+        private final StatsKey key;
+        private volatile long hits;
+        private volatile LocalDateTime firstHit;
+        private volatile LocalDateTime lastHit;
+
+        Delta(StatsKey key) {
+            this.key = key;
+        }
+
+        void add(LocalDateTime timestamp) {
+            hits++;
+            firstHit = firstHit == null ? timestamp : min(firstHit, timestamp);
+            lastHit = lastHit == null ? timestamp : max(lastHit, timestamp);
+        }
+
+        Delta merge(Delta other) {
+            hits += other.hits;
+            firstHit = min(firstHit, other.firstHit);
+            lastHit = max(lastHit, other.lastHit);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ru.practicum.server.stats.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.stats.repository.ViewerBitmapRepository;
+import ru.practicum.server.stats.repository.ViewerDeltaRepository;
+
+import java.time.LocalDate;
+
+/**
+ * Однократно строит битовые карты зрителей по уже накопленным хитам. Отметка о выполнении хранится в БД,
+ * а одновременно запущенные экземпляры проверяют её по очереди под рекомендательной блокировкой.
+ * Непустая таблица без отметки построена прежней версией и только отмечается.
+ * Карты строятся по дню в транзакции, и у каждого построенного дня своя отметка: прерванное построение
+ * продолжается со следующего дня. Другие экземпляры в это время пишут хиты и сливают остаток
+ * в те же карты; построение объединяет множества зрителей, поэтому такое пересечение безопасно.
+ */
+@Slf4j
+@Component
+@DependsOn("schemaMigration")
+public class ViewerBitmapInitializer {
+
+    private static final String BACKFILL = "endpoint_hits_daily_viewers";
+    private static final String STARTED = BACKFILL + ":started";
+
+    private final ViewerBitmapRepository viewerBitmapRepository;
+    private final ViewerDeltaRepository viewerDeltaRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    public ViewerBitmapInitializer(ViewerBitmapRepository viewerBitmapRepository,
+                                   ViewerDeltaRepository viewerDeltaRepository,
+                                   PlatformTransactionManager transactionManager) {
+        this.viewerBitmapRepository = viewerBitmapRepository;
+        this.viewerDeltaRepository = viewerDeltaRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    public void init() {
+        boolean started = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            viewerDeltaRepository.lockBackfill(BACKFILL);
+            if (viewerDeltaRepository.isBackfilled(BACKFILL)) {
+                return false;
+            }
+            if (!viewerBitmapRepository.isEmpty() && !viewerDeltaRepository.isBackfilled(STARTED)) {
+                viewerDeltaRepository.markBackfilled(BACKFILL);
+                return false;
+            }
+            // Отметка начатого построения: непустая таблица дальше не считается построенной прежней версией
+            viewerDeltaRepository.markBackfilled(STARTED);
+            return true;
+        }));
+        if (!started) {
+            return;
+        }
+        viewerBitmapRepository.findHitDays().ifPresent(days -> {
+            log.info("Построение битовых карт зрителей по накопленным хитам с {} по {}", days.first(), days.last());
+            for (LocalDate day = days.first(); !day.isAfter(days.last()); day = day.plusDays(1)) {
+                rebuildDay(day);
+            }
+        });
+        transactionTemplate.executeWithoutResult(status -> viewerDeltaRepository.markBackfilled(BACKFILL));
+    }
+
+    private void rebuildDay(LocalDate day) {
+        String name = dayBackfill(day);
+        transactionTemplate.executeWithoutResult(status -> {
+            viewerDeltaRepository.lockBackfill(name);
+            if (!viewerDeltaRepository.isBackfilled(name)) {
+                viewerBitmapRepository.rebuildDay(day);
+                viewerDeltaRepository.markBackfilled(name);
+            }
+        });
+    }
+
+    private static String dayBackfill(LocalDate day) {
+        return BACKFILL + ":" + day;
+    }
+}
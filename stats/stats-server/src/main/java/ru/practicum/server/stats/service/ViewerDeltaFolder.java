@@ -0,0 +1,63 @@
+package ru.practicum.server.stats.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.stats.model.ViewerDelta;
+import ru.practicum.server.stats.repository.SketchRepository;
+import ru.practicum.server.stats.repository.ViewerBitmapRepository;
+import ru.practicum.server.stats.repository.ViewerDeltaRepository;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Периодически сливает накопленных зрителей новых хитов в дневные агрегаты уникальных и счётчики за всё время.
+ * Запросы читают агрегаты вместе с ещё не слитым остатком, поэтому задержка слияния
+ * на результаты не влияет. Экземпляры на одной БД забирают разные строки остатка.
+ */
+@Slf4j
+@Component
+public class ViewerDeltaFolder {
+
+    private final ViewerDeltaRepository viewerDeltaRepository;
+    private final SketchRepository sketchRepository;
+    private final ViewerBitmapRepository viewerBitmapRepository;
+    private final ViewTotals viewTotals;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int hllPrecision;
+
+    public ViewerDeltaFolder(ViewerDeltaRepository viewerDeltaRepository,
+                             SketchRepository sketchRepository,
+                             ViewerBitmapRepository viewerBitmapRepository,
+                             ViewTotals viewTotals,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${stats.unique.fold-batch-size:50000}") int batchSize,
+                             @Value("${stats.unique.hll-precision:14}") int hllPrecision) {
+        this.viewerDeltaRepository = viewerDeltaRepository;
+        this.sketchRepository = sketchRepository;
+        this.viewerBitmapRepository = viewerBitmapRepository;
+        this.viewTotals = viewTotals;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.hllPrecision = hllPrecision;
+    }
+
+    @Scheduled(fixedDelayString = "${stats.unique.fold-interval:PT5S}")
+    public void fold() {
+        int folded;
+        do {
+            folded = Objects.requireNonNull(transactionTemplate.execute(status -> {
+                List<ViewerDelta> deltas = viewerDeltaRepository.drain(batchSize);
+                sketchRepository.addDeltas(deltas, hllPrecision);
+                viewerBitmapRepository.addDeltas(deltas);
+                viewTotals.addViewers(deltas);
+                return deltas.size();
+            }));
+        } while (folded == batchSize);
+    }
+}
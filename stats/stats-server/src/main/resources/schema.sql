@@ -8,12 +8,115 @@ CREATE TABLE IF NOT EXISTS uris (
     uri VARCHAR(500) UNIQUE NOT NULL
 );
 
+-- Диапазонный поиск URI по префиксу в порядке байтов
+CREATE INDEX IF NOT EXISTS uris_uri_prefix_idx ON uris (uri COLLATE "C");
+
+CREATE TABLE IF NOT EXISTS ips (
+    id SERIAL PRIMARY KEY,
+    ip VARCHAR(45) UNIQUE NOT NULL
+);
+
+-- Помесячные секции и секцию по умолчанию создаёт PartitionMaintenance,
+-- таблицу, созданную прежней версией схемы, обновляет SchemaMigration
+-- Колонки упорядочены по размеру, чтобы в строке не было выравнивающих пропусков
 CREATE TABLE IF NOT EXISTS endpoint_hits (
-    id BIGSERIAL PRIMARY KEY,
+    id BIGSERIAL,
+    timestamp TIMESTAMP NOT NULL,
     app_id INT NOT NULL,
     uri_id INT NOT NULL,
-    ip VARCHAR(45) NOT NULL,
-    timestamp TIMESTAMP NOT NULL,
+    ip_id INT NOT NULL,
+    PRIMARY KEY (id, timestamp),
+    FOREIGN KEY (app_id) REFERENCES apps(id) ON DELETE CASCADE,
+    FOREIGN KEY (uri_id) REFERENCES uris(id) ON DELETE CASCADE,
+    FOREIGN KEY (ip_id) REFERENCES ips(id) ON DELETE CASCADE
+) PARTITION BY RANGE (timestamp);
+
+CREATE INDEX IF NOT EXISTS endpoint_hits_uri_timestamp_idx ON endpoint_hits (uri_id, timestamp);
+
+CREATE INDEX IF NOT EXISTS endpoint_hits_timestamp_brin_idx ON endpoint_hits USING BRIN (timestamp);
+
+CREATE TABLE IF NOT EXISTS endpoint_hits_hourly (
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    hits BIGINT NOT NULL,
+    PRIMARY KEY (app_id, uri_id, bucket),
     FOREIGN KEY (app_id) REFERENCES apps(id) ON DELETE CASCADE,
     FOREIGN KEY (uri_id) REFERENCES uris(id) ON DELETE CASCADE
 );
+
+CREATE INDEX IF NOT EXISTS endpoint_hits_hourly_bucket_idx ON endpoint_hits_hourly (bucket);
+
+CREATE TABLE IF NOT EXISTS endpoint_hits_daily_hll (
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    bucket DATE NOT NULL,
+    sketch BYTEA NOT NULL,
+    PRIMARY KEY (app_id, uri_id, bucket),
+    FOREIGN KEY (app_id) REFERENCES apps(id) ON DELETE CASCADE,
+    FOREIGN KEY (uri_id) REFERENCES uris(id) ON DELETE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS endpoint_hits_daily_hll_bucket_idx ON endpoint_hits_daily_hll (bucket);
+
+CREATE TABLE IF NOT EXISTS endpoint_hits_daily_viewers (
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    bucket DATE NOT NULL,
+    viewers BYTEA NOT NULL,
+    PRIMARY KEY (app_id, uri_id, bucket),
+    FOREIGN KEY (app_id) REFERENCES apps(id) ON DELETE CASCADE,
+    FOREIGN KEY (uri_id) REFERENCES uris(id) ON DELETE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS endpoint_hits_daily_viewers_bucket_idx ON endpoint_hits_daily_viewers (bucket);
+
+-- Зрители, ещё не слитые в дневные скетчи: запись хитов только дописывает строки без блокировок,
+-- слияние в endpoint_hits_daily_hll и endpoint_hits_daily_viewers выполняет ViewerDeltaFolder
+CREATE TABLE IF NOT EXISTS endpoint_hits_viewer_delta (
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    bucket DATE NOT NULL,
+    ip_id INT NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS endpoint_hits_viewer_delta_bucket_idx ON endpoint_hits_viewer_delta (bucket);
+
+-- Однократные заполнения агрегатов по уже накопленным хитам, выполненные на этой БД
+CREATE TABLE IF NOT EXISTS aggregate_backfills (
+    name VARCHAR(64) PRIMARY KEY
+);
+
+CREATE TABLE IF NOT EXISTS endpoint_hits_totals (
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    hits BIGINT NOT NULL,
+    viewers BYTEA NOT NULL,
+    first_hit TIMESTAMP NOT NULL,
+    last_hit TIMESTAMP NOT NULL,
+    PRIMARY KEY (app_id, uri_id),
+    FOREIGN KEY (app_id) REFERENCES apps(id) ON DELETE CASCADE,
+    FOREIGN KEY (uri_id) REFERENCES uris(id) ON DELETE CASCADE
+);
+
+-- Запрос по списку URI читает только их строки, границы всей истории берутся по индексам
+CREATE INDEX IF NOT EXISTS endpoint_hits_totals_uri_idx ON endpoint_hits_totals (uri_id);
+
+CREATE INDEX IF NOT EXISTS endpoint_hits_totals_first_hit_idx ON endpoint_hits_totals (first_hit);
+
+CREATE INDEX IF NOT EXISTS endpoint_hits_totals_last_hit_idx ON endpoint_hits_totals (last_hit);
+
+-- Дни, перенесённые из endpoint_hits в файлы сегментов; seq растёт при запечатывании опоздавших хитов дня
+CREATE TABLE IF NOT EXISTS hit_segments (
+    day DATE NOT NULL,
+    seq INT NOT NULL,
+    file VARCHAR(255) NOT NULL,
+    rows BIGINT NOT NULL,
+    PRIMARY KEY (day, seq)
+);
+
+-- Хиты раньше sealed_until читаются только из сегментов
+CREATE TABLE IF NOT EXISTS hit_segments_state (
+    id INT PRIMARY KEY CHECK (id = 1),
+    sealed_until DATE NOT NULL
+);
@@ -0,0 +1,53 @@
+package ru.practicum.server.stats.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AlignedRangeTest {
+
+    @Test
+    void splitsRangeIntoWholeBucketsAndEdges() {
+        AlignedRange range = AlignedRange.of(at(10, 30), at(13, 15), ChronoUnit.HOURS);
+
+        assertThat(range).isEqualTo(new AlignedRange(at(10, 30), at(11, 0), at(13, 0), at(13, 15)));
+    }
+
+    @Test
+    void keepsAlignedStartAsWholeBucket() {
+        AlignedRange range = AlignedRange.of(at(10, 0), at(13, 0), ChronoUnit.HOURS);
+
+        assertThat(range.alignedStart()).isEqualTo(at(10, 0));
+        assertThat(range.alignedEnd()).isEqualTo(at(13, 0));
+    }
+
+    @Test
+    void treatsRangeWithoutWholeBucketAsEdge() {
+        AlignedRange range = AlignedRange.of(at(10, 30), at(11, 15), ChronoUnit.HOURS);
+
+        assertThat(range).isEqualTo(AlignedRange.raw(at(10, 30), at(11, 15)));
+    }
+
+    @Test
+    void treatsRangeInsideOneBucketAsEdge() {
+        AlignedRange range = AlignedRange.of(at(10, 10), at(10, 50), ChronoUnit.HOURS);
+
+        assertThat(range.alignedStart()).isEqualTo(range.alignedEnd());
+    }
+
+    @Test
+    void alignsToDays() {
+        AlignedRange range = AlignedRange.of(LocalDateTime.of(2024, 1, 1, 12, 0),
+                LocalDateTime.of(2024, 1, 4, 6, 0), ChronoUnit.DAYS);
+
+        assertThat(range.alignedStart()).isEqualTo(LocalDateTime.of(2024, 1, 2, 0, 0));
+        assertThat(range.alignedEnd()).isEqualTo(LocalDateTime.of(2024, 1, 4, 0, 0));
+    }
+
+    private static LocalDateTime at(int hour, int minute) {
+        return LocalDateTime.of(2024, 1, 1, hour, minute);
+    }
+}
@@ -0,0 +1,112 @@
+package ru.practicum.server.stats.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class HyperLogLogTest {
+
+    private static final int PRECISION = 14;
+
+    @Test
+    void estimatesSmallCardinalityExactly() {
+        HyperLogLog sketch = sketch(0, 10);
+
+        assertThat(sketch.estimate()).isEqualTo(10);
+    }
+
+    @Test
+    void estimatesLargeCardinalityWithinStandardError() {
+        HyperLogLog sketch = sketch(0, 100_000);
+
+        assertThat((double) sketch.estimate())
+                .isCloseTo(100_000, within(100_000 * 3 * HyperLogLog.standardError(PRECISION)));
+    }
+
+    @Test
+    void ignoresRepeatedValues() {
+        HyperLogLog sketch = sketch(0, 1000);
+        long estimate = sketch.estimate();
+
+        for (int i = 0; i < 1000; i++) {
+            sketch.add("10.0.0." + i);
+        }
+
+        assertThat(sketch.estimate()).isEqualTo(estimate);
+    }
+
+    @Test
+    void writesSmallSketchSparse() {
+        HyperLogLog sketch = sketch(0, 10);
+
+        byte[] bytes = sketch.toBytes();
+
+        assertThat(bytes).hasSize(1 + 10 * 3);
+        assertThat(bytes[0] & 0x80).isNotZero();
+        assertThat(HyperLogLog.fromBytes(bytes).toBytes()).isEqualTo(bytes);
+        assertThat(HyperLogLog.fromBytes(bytes).estimate()).isEqualTo(sketch.estimate());
+    }
+
+    @Test
+    void writesLargeSketchDense() {
+        HyperLogLog sketch = sketch(0, 100_000);
+
+        byte[] bytes = sketch.toBytes();
+
+        assertThat(bytes).hasSize(1 + (1 << PRECISION));
+        assertThat((int) bytes[0]).isEqualTo(PRECISION);
+        assertThat(HyperLogLog.fromBytes(bytes).estimate()).isEqualTo(sketch.estimate());
+    }
+
+    @Test
+    void roundTripsSparseSketchOfMaxPrecision() {
+        HyperLogLog sketch = new HyperLogLog(HyperLogLog.MAX_PRECISION);
+        for (int i = 0; i < 50; i++) {
+            sketch.add("10.0.0." + i);
+        }
+
+        HyperLogLog restored = HyperLogLog.fromBytes(sketch.toBytes());
+
+        assertThat(restored.getPrecision()).isEqualTo(HyperLogLog.MAX_PRECISION);
+        assertThat(restored.toBytes()).isEqualTo(sketch.toBytes());
+    }
+
+    @Test
+    void unionCountsOverlapOnce() {
+        HyperLogLog first = sketch(0, 50_000);
+        HyperLogLog second = sketch(25_000, 75_000);
+
+        HyperLogLog union = HyperLogLog.union(first, second);
+
+        assertThat((double) union.estimate())
+                .isCloseTo(75_000, within(75_000 * 3 * HyperLogLog.standardError(PRECISION)));
+        assertThat(first.estimate()).isEqualTo(sketch(0, 50_000).estimate());
+    }
+
+    @Test
+    void foldKeepsEstimateWithinLowerPrecisionError() {
+        HyperLogLog folded = sketch(0, 100_000).fold(10);
+
+        assertThat(folded.getPrecision()).isEqualTo(10);
+        assertThat((double) folded.estimate())
+                .isCloseTo(100_000, within(100_000 * 3 * HyperLogLog.standardError(10)));
+    }
+
+    @Test
+    void rejectsMergeOfLowerPrecision() {
+        HyperLogLog sketch = new HyperLogLog(PRECISION);
+
+        assertThatThrownBy(() -> sketch.merge(new HyperLogLog(10)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static HyperLogLog sketch(int from, int to) {
+        HyperLogLog sketch = new HyperLogLog(PRECISION);
+        for (int i = from; i < to; i++) {
+            sketch.add("10.0.0." + i);
+        }
+        return sketch;
+    }
+}
@@ -0,0 +1,122 @@
+package ru.practicum.server.stats.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.UriFilter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HitSegmentTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 1, 1);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackWrittenHits() throws IOException {
+        HitSegment segment = write();
+
+        assertThat(segment.rows()).isEqualTo(5);
+        assertThat(segment.day()).isEqualTo(DAY);
+        Map<StatsKey, Long> hits = countHits(segment, UriFilter.of(null, null), at(0, 0), at(23, 59));
+        assertThat(hits).containsExactlyInAnyOrderEntriesOf(Map.of(
+                new StatsKey("ewm", "/events/1"), 3L,
+                new StatsKey("ewm", "/events/2"), 1L,
+                new StatsKey("other", "/events/2"), 1L));
+    }
+
+    @Test
+    void countsHitsInsideInterval() throws IOException {
+        HitSegment segment = write();
+
+        Map<StatsKey, Long> hits = countHits(segment, UriFilter.of(List.of("/events/1"), null),
+                at(10, 0), at(12, 0));
+
+        assertThat(hits).containsExactlyEntriesOf(Map.of(new StatsKey("ewm", "/events/1"), 2L));
+    }
+
+    @Test
+    void filtersByPrefixAndApp() throws IOException {
+        HitSegment segment = write();
+
+        Map<StatsKey, Long> hits = countHits(segment, UriFilter.of(List.of("/events/*"), "other"),
+                at(0, 0), at(23, 59));
+
+        assertThat(hits).containsExactlyEntriesOf(Map.of(new StatsKey("other", "/events/2"), 1L));
+    }
+
+    @Test
+    void returnsHitsInTimeOrderWithViewers() throws IOException {
+        HitSegment segment = write();
+        List<Long> timestamps = new ArrayList<>();
+        RoaringBitmap viewers = new RoaringBitmap();
+
+        segment.forEachGroup(UriFilter.of(List.of("/events/1"), null), group -> {
+            segment.forEachHit(group, seconds(0, 0), seconds(23, 59), (timestamp, ipId) -> timestamps.add(timestamp));
+            segment.addViewers(group, seconds(0, 0), seconds(23, 59), viewers);
+        });
+
+        assertThat(timestamps).containsExactly(seconds(9, 0), seconds(10, 30), seconds(11, 45));
+        assertThat(viewers.toArray()).containsExactly(1, 7);
+    }
+
+    @Test
+    void leavesNoFileWithoutFinish() throws IOException {
+        Path file = directory.resolve(HitSegment.fileName(DAY, 1));
+
+        try (HitSegmentWriter writer = new HitSegmentWriter(file, DAY)) {
+            writer.add(1, 1, "ewm", "/events/1", seconds(9, 0), 1);
+        }
+
+        try (var files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    private HitSegment write() throws IOException {
+        Path file = directory.resolve(HitSegment.fileName(DAY, 0));
+        try (HitSegmentWriter writer = new HitSegmentWriter(file, DAY)) {
+            // Строки упорядочены по (uri_id, app_id, timestamp), как их отдаёт запечатывание
+            writer.add(1, 1, "ewm", "/events/1", seconds(9, 0), 1);
+            writer.add(1, 1, "ewm", "/events/1", seconds(10, 30), 7);
+            writer.add(1, 1, "ewm", "/events/1", seconds(11, 45), 1);
+            writer.add(2, 1, "ewm", "/events/2", seconds(12, 0), 3);
+            writer.add(2, 2, "other", "/events/2", seconds(13, 0), 3);
+            writer.finish();
+        }
+        return HitSegment.open(DAY, file);
+    }
+
+    private static Map<StatsKey, Long> countHits(HitSegment segment, UriFilter filter,
+                                                 LocalDateTime from, LocalDateTime to) {
+        Map<StatsKey, Long> hits = new HashMap<>();
+        segment.forEachGroup(filter, group -> {
+            long count = segment.countHits(group, HitSegment.toSeconds(from), HitSegment.toSeconds(to));
+            if (count > 0) {
+                hits.merge(group.key(), count, Long::sum);
+            }
+        });
+        return hits;
+    }
+
+    private static LocalDateTime at(int hour, int minute) {
+        return DAY.atTime(hour, minute);
+    }
+
+    private static long seconds(int hour, int minute) {
+        return HitSegment.toSeconds(at(hour, minute));
+    }
+}
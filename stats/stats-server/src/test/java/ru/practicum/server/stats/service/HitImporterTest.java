@@ -0,0 +1,55 @@
+package ru.practicum.server.stats.service;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.stats.dto.EndpointHitDto;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HitImporterTest {
+
+    @Test
+    void parsesPlainLine() {
+        EndpointHitDto hit = HitImporter.parseCsv("ewm-main-service,/events/1,192.168.0.1,2024-01-01 10:15:00");
+
+        assertThat(hit.getApp()).isEqualTo("ewm-main-service");
+        assertThat(hit.getUri()).isEqualTo("/events/1");
+        assertThat(hit.getIp()).isEqualTo("192.168.0.1");
+        assertThat(hit.getTimestamp()).isEqualTo(LocalDateTime.of(2024, 1, 1, 10, 15));
+    }
+
+    @Test
+    void parsesQuotedFieldsWithCommasAndQuotes() {
+        EndpointHitDto hit = HitImporter.parseCsv(
+                "\"ewm, main\",\"/search?q=\"\"a,b\"\"\",10.0.0.1,2024-01-01 00:00:00");
+
+        assertThat(hit.getApp()).isEqualTo("ewm, main");
+        assertThat(hit.getUri()).isEqualTo("/search?q=\"a,b\"");
+    }
+
+    @Test
+    void trimsFields() {
+        EndpointHitDto hit = HitImporter.parseCsv(" ewm , /events/1 , 10.0.0.1 , 2024-01-01 00:00:00 ");
+
+        assertThat(hit.getApp()).isEqualTo("ewm");
+        assertThat(hit.getUri()).isEqualTo("/events/1");
+        assertThat(hit.getIp()).isEqualTo("10.0.0.1");
+    }
+
+    @Test
+    void rejectsWrongFieldCount() {
+        assertThat(HitImporter.parseCsv("ewm,/events/1,10.0.0.1")).isNull();
+        assertThat(HitImporter.parseCsv("ewm,/events/1,10.0.0.1,2024-01-01 00:00:00,extra")).isNull();
+    }
+
+    @Test
+    void rejectsBadTimestamp() {
+        assertThat(HitImporter.parseCsv("ewm,/events/1,10.0.0.1,2024-01-01T00:00:00")).isNull();
+    }
+
+    @Test
+    void rejectsBlankField() {
+        assertThat(HitImporter.parseCsv("ewm, ,10.0.0.1,2024-01-01 00:00:00")).isNull();
+    }
+}
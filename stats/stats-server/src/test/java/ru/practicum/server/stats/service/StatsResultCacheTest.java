@@ -0,0 +1,136 @@
+package ru.practicum.server.stats.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.practicum.server.stats.config.QueryDatabase;
+import ru.practicum.server.stats.model.StatsKey;
+import ru.practicum.server.stats.model.UriFilter;
+import ru.practicum.stats.dto.EndpointHitDto;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class StatsResultCacheTest {
+
+    private static final LocalDateTime FROM = LocalDateTime.of(2024, 1, 1, 0, 0);
+    private static final LocalDateTime TO = LocalDateTime.of(2024, 1, 2, 0, 0);
+    private static final UriFilter FILTER = UriFilter.of(List.of("/events/1"), null);
+    private static final StatsKey KEY = new StatsKey("ewm", "/events/1");
+
+    private QueryDatabase queryDatabase;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        queryDatabase = mock(QueryDatabase.class);
+        when(queryDatabase.onPrimary(any())).thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(0)).get());
+    }
+
+    @Test
+    void returnsCachedResultWithoutLoading() {
+        StatsResultCache cache = cache(true);
+
+        get(cache);
+        Map<StatsKey, Long> result = get(cache);
+
+        assertThat(result).containsExactlyEntriesOf(Map.of(KEY, 1L));
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void invalidatesRangeContainingHit() {
+        StatsResultCache cache = cache(true);
+        get(cache);
+
+        cache.invalidateAfterCommit(List.of(hit("/events/1", FROM.plusHours(5).plusMinutes(30))));
+
+        assertThat(get(cache)).containsExactlyEntriesOf(Map.of(KEY, 2L));
+    }
+
+    @Test
+    void keepsRangeForHitOutsideIt() {
+        StatsResultCache cache = cache(true);
+        get(cache);
+
+        // Конец диапазона не входит в него
+        cache.invalidateAfterCommit(List.of(hit("/events/1", TO)));
+        cache.invalidateAfterCommit(List.of(hit("/events/1", FROM.minusMinutes(1))));
+
+        get(cache);
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void keepsRangeForHitOfOtherUri() {
+        StatsResultCache cache = cache(true);
+        get(cache);
+
+        cache.invalidateAfterCommit(List.of(hit("/events/2", FROM.plusHours(1))));
+
+        get(cache);
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void invalidatesRangeByAggregateHours() {
+        StatsResultCache cache = cache(true);
+        get(cache);
+
+        cache.invalidate(Map.of(KEY, Set.of(FROM.plusHours(23))));
+
+        get(cache);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void invalidatesEverything() {
+        StatsResultCache cache = cache(true);
+        get(cache);
+
+        cache.invalidateAll();
+
+        get(cache);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void isDisabledWithoutSingleWriter() {
+        StatsResultCache cache = cache(false);
+
+        get(cache);
+        get(cache);
+
+        assertThat(cache.isEnabled()).isFalse();
+        assertThat(loads).hasValue(2);
+    }
+
+    private StatsResultCache cache(boolean singleWriter) {
+        return new StatsResultCache(new SimpleMeterRegistry(), queryDatabase, true, 100, Duration.ofHours(1),
+                singleWriter);
+    }
+
+    private Map<StatsKey, Long> get(StatsResultCache cache) {
+        return cache.get(StatsResultCache.Kind.HITS, FILTER, FROM, TO,
+                () -> Map.of(KEY, (long) loads.incrementAndGet()));
+    }
+
+    private static EndpointHitDto hit(String uri, LocalDateTime timestamp) {
+        return EndpointHitDto.builder()
+                .app("ewm")
+                .uri(uri)
+                .ip("10.0.0.1")
+                .timestamp(timestamp)
+                .build();
+    }
+}
@@ -0,0 +1,45 @@
+package ru.practicum.tools.dataset;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+/**
+ * Моменты времени в [from, to): часть равномерно по периоду, часть — во всплесках,
+ * которые начинаются в случайные моменты и затухают экспоненциально.
+ */
+final class BurstyTimeline {
+
+    private final LocalDateTime from;
+    private final long periodSeconds;
+    private final long[] burstStarts;
+    private final double burstShare;
+    private final double burstMeanSeconds;
+
+    BurstyTimeline(LocalDateTime from, LocalDateTime to, int bursts, double burstShare, Duration burstMean,
+                   Random random) {
+        this.from = from;
+        this.periodSeconds = Duration.between(from, to).toSeconds();
+        this.burstStarts = new long[bursts];
+        for (int i = 0; i < bursts; i++) {
+            burstStarts[i] = (long) (random.nextDouble() * periodSeconds);
+        }
+        this.burstShare = bursts == 0 ? 0 : burstShare;
+        this.burstMeanSeconds = burstMean.toSeconds();
+    }
+
+    LocalDateTime next(Random random) {
+        long offset;
+        if (random.nextDouble() < burstShare) {
+            long start = burstStarts[random.nextInt(burstStarts.length)];
+            offset = Math.min(periodSeconds - 1, start + exponential(random, burstMeanSeconds));
+        } else {
+            offset = (long) (random.nextDouble() * periodSeconds);
+        }
+        return from.plusSeconds(offset);
+    }
+
+    static long exponential(Random random, double mean) {
+        return (long) (-Math.log(1 - random.nextDouble()) * mean);
+    }
+}
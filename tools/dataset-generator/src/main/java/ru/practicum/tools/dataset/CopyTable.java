@@ -0,0 +1,76 @@
+package ru.practicum.tools.dataset;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Потоковая запись строк в таблицу через COPY ... FROM STDIN в формате CSV.
+ * Строки уходят на сервер по мере заполнения буфера, в памяти не накапливаются.
+ */
+final class CopyTable implements AutoCloseable {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final String table;
+    private final Writer writer;
+    private long rows;
+
+    CopyTable(Connection connection, String table, String columns) throws SQLException {
+        this.table = table;
+        PGCopyOutputStream copy = new PGCopyOutputStream(connection.unwrap(PGConnection.class),
+                "COPY " + table + " (" + columns + ") FROM STDIN WITH (FORMAT csv)", BUFFER_SIZE);
+        this.writer = new BufferedWriter(new OutputStreamWriter(copy, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    void row(Object... values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            write(values[i]);
+        }
+        writer.write('\n');
+        rows++;
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    String table() {
+        return table;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Закрытие потока завершает COPY; ошибка данных приходит от сервера именно здесь
+        writer.close();
+    }
+
+    private void write(Object value) throws IOException {
+        if (value == null) {
+            // В формате csv пустое поле без кавычек — NULL
+            return;
+        }
+        if (value instanceof String text) {
+            writer.write('"');
+            writer.write(text.replace("\"", "\"\""));
+            writer.write('"');
+        } else if (value instanceof LocalDateTime timestamp) {
+            writer.write(TIMESTAMP_FORMAT.format(timestamp));
+        } else {
+            writer.write(value.toString());
+        }
+    }
+}
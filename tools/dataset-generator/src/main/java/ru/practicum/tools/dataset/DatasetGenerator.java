@@ -0,0 +1,75 @@
+package ru.practicum.tools.dataset;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Генератор синтетических данных для планирования ёмкости.
+ * <ul>
+ *     <li>main — события, пользователи, заявки, комментарии и подборки напрямую в БД main-service через COPY;</li>
+ *     <li>stats — хиты в файл CSV (.gz) в формате импорта stats-server, который загружается командой
+ *     {@code java -jar stats-server-exec.jar --stats.import.file=hits.csv.gz} через COPY вместе с агрегатами.</li>
+ * </ul>
+ * При одинаковых --seed, --events и --zipf популярные события в обеих базах совпадают.
+ * Схема должна быть уже создана: сервисы создают её при первом запуске.
+ */
+@Slf4j
+public final class DatasetGenerator {
+
+    private DatasetGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || !(args[0].equals("main") || args[0].equals("stats"))) {
+            throw new IllegalArgumentException("Использование: main|stats [--name=value ...]");
+        }
+        Options options = new Options(args, 1);
+        long seed = options.getLong("seed", 42);
+        int events = options.getInt("events", 200_000);
+        double zipf = options.getDouble("zipf", 1.1);
+        int days = options.getInt("days", 90);
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+        Zipf eventPopularity = new Zipf(events, zipf, seed);
+
+        if (args[0].equals("main")) {
+            MainDataset dataset = MainDataset.builder()
+                    .seed(seed)
+                    .now(now)
+                    .days(days)
+                    .events(events)
+                    .eventPopularity(eventPopularity)
+                    .users(options.getInt("users", 200_000))
+                    .categories(options.getInt("categories", 100))
+                    .locations(options.getInt("locations", 20_000))
+                    .compilations(options.getInt("compilations", 2_000))
+                    .requests(options.getInt("requests", 1_000_000))
+                    .comments(options.getInt("comments", 500_000))
+                    .zipf(zipf)
+                    .build();
+            String url = options.get("url", "jdbc:postgresql://localhost:5432/ewm_main_db");
+            String user = options.get("user", "postgres");
+            String password = options.get("password", "password");
+            options.checkAllUsed();
+            try (Connection connection = DriverManager.getConnection(url, user, password)) {
+                dataset.load(connection);
+            }
+        } else {
+            HitsDataset dataset = HitsDataset.builder()
+                    .seed(seed)
+                    .now(now)
+                    .days(days)
+                    .eventPopularity(eventPopularity)
+                    .hits(options.getLong("hits", 5_000_000))
+                    .ips(options.getInt("ips", 500_000))
+                    .build();
+            Path output = Path.of(options.get("output", "hits.csv.gz"));
+            options.checkAllUsed();
+            dataset.write(output);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ru.practicum.tools.dataset;
+
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Хиты main-service в формате импорта stats-server (app,uri,ip,timestamp).
+ * Просмотры событий распределены по той же популярности, что и заявки в main-service,
+ * IP — тоже по Ципфу (немногие активные посетители), время — со всплесками трафика.
+ * Файл пишется потоком, размер набора памятью не ограничен.
+ */
+@Slf4j
+@Builder
+final class HitsDataset {
+
+    private static final String APP = "ewm-main-service";
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final double LIST_PAGE_SHARE = 0.1;
+    private static final long PROGRESS_STEP = 1_000_000;
+
+    private final long seed;
+    private final LocalDateTime now;
+    private final int days;
+    private final Zipf eventPopularity;
+    private final long hits;
+    private final int ips;
+
+    void write(Path output) throws IOException {
+        Random random = new Random(seed);
+        Zipf visitors = new Zipf(ips, 0.7, seed + 5);
+        // Примерно один всплеск в три дня, всплески дают 40% трафика и затухают за несколько часов
+        BurstyTimeline timeline = new BurstyTimeline(now.minusDays(days), now, Math.max(1, days / 3), 0.4,
+                Duration.ofHours(3), random);
+        long startedAt = System.nanoTime();
+        OutputStream file = Files.newOutputStream(output);
+        if (output.getFileName().toString().endsWith(".gz")) {
+            file = new GZIPOutputStream(file, 1 << 16);
+        }
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(file, StandardCharsets.UTF_8), 1 << 16)) {
+            writer.write("app,uri,ip,timestamp\n");
+            for (long i = 1; i <= hits; i++) {
+                String uri = random.nextDouble() < LIST_PAGE_SHARE
+                        ? "/events"
+                        : "/events/" + (eventPopularity.next(random) + 1);
+                int visitor = visitors.next(random);
+                writer.write(APP);
+                writer.write(',');
+                writer.write(uri);
+                writer.write(",10.");
+                writer.write(Integer.toString(visitor >> 16 & 0xFF));
+                writer.write('.');
+                writer.write(Integer.toString(visitor >> 8 & 0xFF));
+                writer.write('.');
+                writer.write(Integer.toString(visitor & 0xFF));
+                writer.write(',');
+                writer.write(TIMESTAMP_FORMAT.format(timeline.next(random)));
+                writer.write('\n');
+                if (i % PROGRESS_STEP == 0) {
+                    log.info("Хиты: {} из {}", i, hits);
+                }
+            }
+        }
+        log.info("Записано {} хитов в {} за {} с", hits, output, (System.nanoTime() - startedAt) / 1_000_000_000);
+    }
+}
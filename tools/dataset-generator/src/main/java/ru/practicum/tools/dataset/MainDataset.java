@@ -0,0 +1,306 @@
+package ru.practicum.tools.dataset;
+
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Данные main-service по схеме core/main-service/src/main/resources/schema.sql.
+ * Организаторы, категории и популярность событий распределены по Ципфу; заявки на участие приходят
+ * всплеском сразу после публикации события и затухают; confirmed_requests согласован с заявками.
+ * Всё пишется одной транзакцией с явными id, после чего последовательности сдвигаются за максимум.
+ */
+@Slf4j
+@Builder
+final class MainDataset {
+
+    private static final List<String> SEQUENCE_TABLES = List.of("categories", "users", "locations", "events",
+            "compilations", "participation_requests", "comments");
+    private static final int[] PARTICIPANT_LIMITS = {10, 20, 50, 100, 500};
+    private static final Duration SIGNUP_MEAN_DELAY = Duration.ofDays(2);
+    private static final Duration COMMENT_MEAN_DELAY = Duration.ofDays(5);
+
+    private final long seed;
+    private final LocalDateTime now;
+    private final int days;
+    private final int events;
+    private final Zipf eventPopularity;
+    private final int users;
+    private final int categories;
+    private final int locations;
+    private final int compilations;
+    private final int requests;
+    private final int comments;
+    private final double zipf;
+
+    void load(Connection connection) throws SQLException, IOException {
+        connection.setAutoCommit(false);
+        checkEmpty(connection);
+        Map<String, Integer> statuses = requestStatuses(connection);
+        Random random = new Random(seed);
+        long startedAt = System.nanoTime();
+
+        try (CopyTable table = new CopyTable(connection, "categories", "id, name")) {
+            for (int i = 1; i <= categories; i++) {
+                table.row(i, "Категория " + i);
+            }
+            logLoaded(table);
+        }
+        try (CopyTable table = new CopyTable(connection, "users", "id, name, email")) {
+            for (int i = 1; i <= users; i++) {
+                table.row(i, "Пользователь " + i, "user" + i + "@example.com");
+            }
+            logLoaded(table);
+        }
+        try (CopyTable table = new CopyTable(connection, "locations", "id, lat, lon")) {
+            for (int i = 0; i < locations; i++) {
+                // Сетка с шагом 0.001 градуса вокруг Москвы: пары координат уникальны
+                table.row(i + 1, 55.0 + (i / 1000) * 0.001, 37.0 + (i % 1000) * 0.001);
+            }
+            logLoaded(table);
+        }
+
+        Events generated = generateEvents(random);
+        Requests signups = generateRequests(random, generated, statuses);
+
+        try (CopyTable table = new CopyTable(connection, "events", "id, title, annotation, category_id, paid, " +
+                "event_date, initiator_id, description, participant_limit, state, created_on, location_id, " +
+                "request_moderation, published_on, confirmed_requests")) {
+            Zipf categoryPopularity = new Zipf(categories, 1.0, seed + 1);
+            for (int e = 0; e < events; e++) {
+                table.row(e + 1,
+                        "Событие " + (e + 1),
+                        "Краткое описание события " + (e + 1) + " для синтетического набора данных",
+                        categoryPopularity.next(random) + 1,
+                        random.nextDouble() < 0.3,
+                        generated.eventDate[e],
+                        generated.initiator[e] + 1,
+                        "Полное описание события " + (e + 1) + ". " + "Текст описания. ".repeat(10),
+                        generated.participantLimit[e],
+                        generated.state[e],
+                        generated.createdOn[e],
+                        random.nextInt(locations) + 1,
+                        generated.requestModeration[e],
+                        generated.publishedOn[e],
+                        signups.confirmed[e]);
+            }
+            logLoaded(table);
+        }
+        try (CopyTable compilationTable = new CopyTable(connection, "compilations", "id, title, pinned")) {
+            for (int c = 1; c <= compilations; c++) {
+                compilationTable.row(c, "Подборка " + c, random.nextDouble() < 0.05);
+            }
+            logLoaded(compilationTable);
+        }
+        try (CopyTable table = new CopyTable(connection, "compilation_events", "compilation_id, event_id")) {
+            for (int c = 1; c <= compilations; c++) {
+                // В подборки чаще попадают популярные события
+                Set<Integer> included = new HashSet<>();
+                int size = 5 + random.nextInt(11);
+                for (int attempt = 0; attempt < size * 3 && included.size() < size; attempt++) {
+                    int event = eventPopularity.next(random);
+                    if (included.add(event)) {
+                        table.row(c, event + 1);
+                    }
+                }
+            }
+            logLoaded(table);
+        }
+        try (CopyTable table = new CopyTable(connection, "participation_requests",
+                "id, requester_id, event_id, status_id, created")) {
+            for (int r = 0; r < signups.size; r++) {
+                table.row(r + 1, signups.requester[r] + 1, signups.event[r] + 1, signups.status[r],
+                        signups.created[r]);
+            }
+            logLoaded(table);
+        }
+        try (CopyTable table = new CopyTable(connection, "comments", "id, text, event_id, author_id, created")) {
+            Zipf authors = new Zipf(users, 0.8, seed + 4);
+            for (int c = 0; c < comments; c++) {
+                int event = publishedEvent(random, generated);
+                if (event < 0) {
+                    break;
+                }
+                LocalDateTime created = after(generated.publishedOn[event], COMMENT_MEAN_DELAY, random);
+                table.row(c + 1, "Комментарий " + (c + 1) + " к событию " + (event + 1), event + 1,
+                        authors.next(random) + 1, created);
+            }
+            logLoaded(table);
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            for (String table : SEQUENCE_TABLES) {
+                statement.execute("SELECT setval(pg_get_serial_sequence('" + table + "', 'id'), " +
+                        "GREATEST((SELECT MAX(id) FROM " + table + "), 1))");
+            }
+        }
+        connection.commit();
+        log.info("Набор данных main-service загружен за {} с", (System.nanoTime() - startedAt) / 1_000_000_000);
+    }
+
+    private Events generateEvents(Random random) {
+        Events generated = new Events(events);
+        Zipf organisers = new Zipf(users, zipf, seed + 2);
+        LocalDateTime historyStart = now.minusDays(days);
+        long historySeconds = Duration.between(historyStart, now).toSeconds();
+        for (int e = 0; e < events; e++) {
+            generated.initiator[e] = organisers.next(random);
+            LocalDateTime createdOn = historyStart.plusSeconds((long) (random.nextDouble() * historySeconds));
+            generated.createdOn[e] = createdOn;
+            double state = random.nextDouble();
+            if (state < 0.8) {
+                generated.state[e] = "PUBLISHED";
+                LocalDateTime publishedOn = createdOn.plusMinutes(random.nextInt(48 * 60));
+                generated.publishedOn[e] = publishedOn.isAfter(now) ? now : publishedOn;
+            } else {
+                generated.state[e] = state < 0.95 ? "PENDING" : "CANCELED";
+            }
+            // Событие не раньше чем через два часа после создания, часть уже прошла
+            generated.eventDate[e] = createdOn.plusHours(2).plusMinutes(random.nextInt(120 * 24 * 60));
+            generated.participantLimit[e] = random.nextDouble() < 0.5
+                    ? 0
+                    : PARTICIPANT_LIMITS[random.nextInt(PARTICIPANT_LIMITS.length)];
+            generated.requestModeration[e] = random.nextDouble() < 0.7;
+        }
+        return generated;
+    }
+
+    /**
+     * Заявки к опубликованным событиям: событие по популярности, участник — по активности,
+     * не организатор и не более одной заявки на событие. Подтверждения не превышают лимит.
+     */
+    private Requests generateRequests(Random random, Events generated, Map<String, Integer> statuses) {
+        Requests signups = new Requests(requests, events);
+        Zipf participants = new Zipf(users, 0.8, seed + 3);
+        Set<Long> pairs = new HashSet<>(requests * 2);
+        long maxAttempts = requests * 20L;
+        for (long attempt = 0; attempt < maxAttempts && signups.size < requests; attempt++) {
+            int event = publishedEvent(random, generated);
+            if (event < 0) {
+                break;
+            }
+            int requester = participants.next(random);
+            if (requester == generated.initiator[event] || !pairs.add((long) event * users + requester)) {
+                continue;
+            }
+            String status;
+            int limit = generated.participantLimit[event];
+            if (limit > 0 && signups.confirmed[event] >= limit) {
+                status = "REJECTED";
+            } else if (!generated.requestModeration[event] || limit == 0) {
+                status = "CONFIRMED";
+            } else {
+                double roll = random.nextDouble();
+                status = roll < 0.4 ? "PENDING" : roll < 0.8 ? "CONFIRMED" : roll < 0.9 ? "REJECTED" : "CANCELED";
+            }
+            if (status.equals("CONFIRMED")) {
+                signups.confirmed[event]++;
+            }
+            int r = signups.size++;
+            signups.event[r] = event;
+            signups.requester[r] = requester;
+            signups.status[r] = statuses.get(status);
+            signups.created[r] = after(generated.publishedOn[event], SIGNUP_MEAN_DELAY, random);
+        }
+        if (signups.size < requests) {
+            log.warn("Сгенерировано {} заявок из {}: не хватает пар пользователь — событие", signups.size, requests);
+        }
+        return signups;
+    }
+
+    private int publishedEvent(Random random, Events generated) {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            int event = eventPopularity.next(random);
+            if (generated.publishedOn[event] != null) {
+                return event;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Момент после начала с экспоненциальной задержкой, не позже текущего времени.
+     */
+    private LocalDateTime after(LocalDateTime start, Duration meanDelay, Random random) {
+        LocalDateTime moment = start.plusSeconds(BurstyTimeline.exponential(random, meanDelay.toSeconds()));
+        return moment.isAfter(now) ? now : moment;
+    }
+
+    private static void checkEmpty(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT EXISTS (SELECT 1 FROM users) " +
+                     "OR EXISTS (SELECT 1 FROM events) OR EXISTS (SELECT 1 FROM categories)")) {
+            rs.next();
+            if (rs.getBoolean(1)) {
+                throw new IllegalStateException("База main-service не пуста: генератор пишет данные с явными id");
+            }
+        }
+    }
+
+    private static Map<String, Integer> requestStatuses(Connection connection) throws SQLException {
+        Map<String, Integer> statuses = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT id, name FROM request_statuses")) {
+            while (rs.next()) {
+                statuses.put(rs.getString("name"), rs.getInt("id"));
+            }
+        }
+        return statuses;
+    }
+
+    private static void logLoaded(CopyTable table) {
+        log.info("{}: {} строк", table.table(), table.rows());
+    }
+
+    private static final class Events {
+
+        final int[] initiator;
+        final LocalDateTime[] createdOn;
+        final LocalDateTime[] publishedOn;
+        final LocalDateTime[] eventDate;
+        final String[] state;
+        final int[] participantLimit;
+        final boolean[] requestModeration;
+
+        Events(int size) {
+            initiator = new int[size];
+            createdOn = new LocalDateTime[size];
+            publishedOn = new LocalDateTime[size];
+            eventDate = new LocalDateTime[size];
+            state = new String[size];
+            participantLimit = new int[size];
+            requestModeration = new boolean[size];
+        }
+    }
+
+    private static final class Requests {
+
+        final int[] event;
+        final int[] requester;
+        final int[] status;
+        final LocalDateTime[] created;
+        final int[] confirmed;
+        int size;
+
+        Requests(int capacity, int events) {
+            event = new int[capacity];
+            requester = new int[capacity];
+            status = new int[capacity];
+            created = new LocalDateTime[capacity];
+            confirmed = new int[events];
+        }
+    }
+}
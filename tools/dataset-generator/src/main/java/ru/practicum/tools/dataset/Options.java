@@ -0,0 +1,52 @@
+package ru.practicum.tools.dataset;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Опции командной строки вида --name=value. Неизвестные опции считаются ошибкой,
+ * чтобы опечатка не приводила к молчаливой генерации данных с размерами по умолчанию.
+ */
+final class Options {
+
+    private final Map<String, String> values = new HashMap<>();
+    private final Map<String, String> unused = new HashMap<>();
+
+    Options(String[] args, int from) {
+        for (int i = from; i < args.length; i++) {
+            String arg = args[i];
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Ожидается опция вида --name=value: " + arg);
+            }
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        unused.putAll(values);
+    }
+
+    String get(String name, String defaultValue) {
+        unused.remove(name);
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    int getInt(String name, int defaultValue) {
+        return Integer.parseInt(get(name, Integer.toString(defaultValue)));
+    }
+
+    long getLong(String name, long defaultValue) {
+        return Long.parseLong(get(name, Long.toString(defaultValue)));
+    }
+
+    double getDouble(String name, double defaultValue) {
+        return Double.parseDouble(get(name, Double.toString(defaultValue)));
+    }
+
+    /**
+     * Проверка после чтения всех опций: каждая переданная опция должна быть прочитана.
+     */
+    void checkAllUsed() {
+        if (!unused.isEmpty()) {
+            throw new IllegalArgumentException("Неизвестные опции: " + unused.keySet());
+        }
+    }
+}
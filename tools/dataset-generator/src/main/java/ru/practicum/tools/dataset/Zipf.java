@@ -0,0 +1,47 @@
+package ru.practicum.tools.dataset;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Выборка индекса в [0, size) по закону Ципфа: вероятность ранга k пропорциональна 1 / k^exponent.
+ * Ранги перемешаны фиксированной перестановкой, чтобы популярность не совпадала с порядком id;
+ * при одинаковых size, exponent и зерне перестановка одна и та же, и популярные события
+ * в базе main-service совпадают с популярными URI в статистике.
+ */
+final class Zipf {
+
+    private final double[] cdf;
+    private final int[] order;
+
+    Zipf(int size, double exponent, long seed) {
+        cdf = new double[size];
+        double sum = 0;
+        for (int rank = 0; rank < size; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cdf[rank] = sum;
+        }
+        for (int rank = 0; rank < size; rank++) {
+            cdf[rank] /= sum;
+        }
+        order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Random random = new Random(seed);
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+    }
+
+    int next(Random random) {
+        int rank = Arrays.binarySearch(cdf, random.nextDouble());
+        if (rank < 0) {
+            rank = -rank - 1;
+        }
+        return order[Math.min(rank, order.length - 1)];
+    }
+}